@@ -5,9 +5,9 @@ import battlecode.common.RobotType;
 import battlecode.engine.signal.Signal;
 import battlecode.serial.MatchHeader;
 import battlecode.serial.RoundDelta;
+import battlecode.server.proxy.BinaryProxy;
 import battlecode.server.proxy.Proxy;
 import battlecode.server.proxy.ProxyFactory;
-import battlecode.server.proxy.XStreamProxy;
 import battlecode.world.GameMap;
 import battlecode.world.signal.*;
 import org.apache.commons.cli.*;
@@ -18,7 +18,6 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.ListIterator;
-import java.util.zip.GZIPInputStream;
 
 public class AwesomenessAnalyzer {
     private static final float TOWER_AWESOMENESS = 500;
@@ -560,9 +559,10 @@ public class AwesomenessAnalyzer {
     }
 
     public void analyze() {
-        ObjectInputStream input = null;
+        BinaryProxy.MatchInput input = null;
         try {
-            input = XStreamProxy.getXStream().createObjectInputStream(new GZIPInputStream(new FileInputStream(filename)));
+            // any format, so that matches saved with bc.server.output-binary work too
+            input = BinaryProxy.openMatch(new FileInputStream(filename));
         } catch (Exception e) {
             System.err.println("Error: couldn't open match file " + filename);
             e.printStackTrace();
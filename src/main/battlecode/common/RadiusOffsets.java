@@ -0,0 +1,74 @@
+package battlecode.common;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Tables of the offsets (dx, dy) with dx * dx + dy * dy <= radiusSquared,
+ * for the "all locations within radius" queries.
+ * <p/>
+ * Each table is {dx[], dy[]}, ordered by dx and then dy, which is the order
+ * the queries have always returned locations in.  Tables for radii up to
+ * MAX_CACHED_RADIUS_SQUARED are made once and shared, so callers that run
+ * every round can walk them without allocating anything; callers must not
+ * modify them.
+ * <p/>
+ * This lives here so that MapLocation doesn't depend on the world; the
+ * world uses it too.  It isn't part of the player API: the instrumenter
+ * won't let players reference it, since the tables are shared by both teams.
+ */
+public final class RadiusOffsets {
+
+    // covers every range in the game, with plenty to spare
+    private static final int MAX_CACHED_RADIUS_SQUARED = 400;
+
+    private static final int[][] NONE = {new int[0], new int[0]};
+
+    private static final AtomicReferenceArray<int[][]> cache = new AtomicReferenceArray<int[][]>(MAX_CACHED_RADIUS_SQUARED + 1);
+
+    private RadiusOffsets() {
+    }
+
+    /**
+     * Returns the offsets with dx * dx + dy * dy <= radiusSquared.
+     */
+    public static int[][] within(int radiusSquared) {
+        if (radiusSquared < 0)
+            return NONE;
+        if (radiusSquared > MAX_CACHED_RADIUS_SQUARED)
+            return compute(radiusSquared);
+        int[][] offsets = cache.get(radiusSquared);
+        if (offsets == null) {
+            offsets = compute(radiusSquared);
+            cache.set(radiusSquared, offsets);
+        }
+        return offsets;
+    }
+
+    /**
+     * Returns the offsets with dx * dx + dy * dy < radiusSquared.
+     */
+    public static int[][] strictlyWithin(int radiusSquared) {
+        return radiusSquared <= 0 ? NONE : within(radiusSquared - 1);
+    }
+
+    private static int[][] compute(int radiusSquared) {
+        int radius = (int) Math.sqrt(radiusSquared);
+        int n = 0;
+        for (int dx = -radius; dx <= radius; dx++)
+            for (int dy = -radius; dy <= radius; dy++)
+                if (dx * dx + dy * dy <= radiusSquared)
+                    n++;
+        int[] dxs = new int[n], dys = new int[n];
+        n = 0;
+        for (int dx = -radius; dx <= radius; dx++) {
+            for (int dy = -radius; dy <= radius; dy++) {
+                if (dx * dx + dy * dy <= radiusSquared) {
+                    dxs[n] = dx;
+                    dys[n] = dy;
+                    n++;
+                }
+            }
+        }
+        return new int[][]{dxs, dys};
+    }
+}
@@ -2,7 +2,6 @@ package battlecode.engine;
 
 import battlecode.engine.instrumenter.IndividualClassLoader;
 import battlecode.engine.instrumenter.RobotMonitor;
-import battlecode.engine.instrumenter.lang.RoboRandom;
 import battlecode.engine.scheduler.Scheduler;
 import battlecode.engine.signal.Signal;
 import battlecode.server.Config;
@@ -16,25 +15,43 @@ TODO:
  */
 public class Engine {
 
+    // the engine that the calling thread is running robots or rounds for
+    private static final ThreadLocal<Engine> currentEngine = new ThreadLocal<Engine>();
+
     private final GenericWorld gameWorld;
+    private final Config options;
     private final boolean garbageCollectEnabled;
     private final int garbageCollectRounds;
     private final boolean breakpointsEnabled;
-    private static Engine theInstance = null;
+    private final boolean debugMethodsEnabled;
+    private final boolean sharedClassesEnabled;
+    private final RobotMonitor robotMonitor;
+    private final Scheduler scheduler;
+    private final IndividualClassLoader.Cache classCache;
+    private long mapSeed;
     private Runnable ioCallback;
 
-    public Engine(String teamA, String teamB, String mapName, String mapPath, long[][] archonMemory) {
-        theInstance = this;
-        Config options = Config.getGlobalConfig();
+    /**
+     * Creates the engine for one match.  All of the state for the match (the scheduler, the robot monitor,
+     * and the instrumented classes) belongs to this engine, so several engines can run in the same JVM
+     * as long as each one is driven from its own thread.
+     */
+    public Engine(String teamA, String teamB, String mapName, String mapPath, long[][] archonMemory, Config options) {
+        this.options = options;
         this.garbageCollectEnabled = options.getBoolean("bc.engine.gc");
         this.garbageCollectRounds = options.getInt("bc.engine.gc-rounds");
         this.breakpointsEnabled = options.getBoolean("bc.engine.breakpoints");
+        this.debugMethodsEnabled = options.getBoolean("bc.engine.debug-methods");
+        this.sharedClassesEnabled = options.getBoolean("bc.engine.shared-classes");
+        this.robotMonitor = new RobotMonitor(options);
+        this.classCache = new IndividualClassLoader.Cache(robotMonitor, options);
+        this.scheduler = new Scheduler(robotMonitor, options);
+        robotMonitor.setScheduler(scheduler);
+        bindCurrentThread();
+        if (options.getBoolean("bc.engine.preinstrument"))
+            PlayerFactory.preinstrument(this, teamA, teamB);
         GenericWorld tempGameWorld = null;
         //InternalObject.resetIDs();
-        IndividualClassLoader.reset();
-        Scheduler.reset();
-        RobotMonitor.reset();
-        PlayerFactory.checkOptions();
         try {
             try {
                 tempGameWorld = GameWorldFactory.createGameWorld(teamA, teamB, mapName, mapPath, archonMemory);
@@ -49,9 +66,55 @@ public class Engine {
             gameWorld = tempGameWorld;
         }
         gameWorld.resetStatic();
-        RobotMonitor.setGameWorld(gameWorld);
-        RoboRandom.setMapSeed(gameWorld.getMapSeed());
-        Scheduler.start();
+        robotMonitor.setGameWorld(gameWorld);
+        mapSeed = gameWorld.getMapSeed();
+        scheduler.start();
+    }
+
+    /**
+     * Returns the engine that the calling thread belongs to, or null if there is none.
+     */
+    public static Engine current() {
+        return currentEngine.get();
+    }
+
+    /**
+     * Makes this the engine that the calling thread belongs to.  Robot threads are bound when they
+     * start, and the thread that runs the rounds is bound whenever it calls into the engine.
+     */
+    public void bindCurrentThread() {
+        currentEngine.set(this);
+    }
+
+    public Config getOptions() {
+        return options;
+    }
+
+    public Scheduler getScheduler() {
+        return scheduler;
+    }
+
+    public RobotMonitor getRobotMonitor() {
+        return robotMonitor;
+    }
+
+    IndividualClassLoader.Cache getClassCache() {
+        return classCache;
+    }
+
+    boolean isDebugMethodsEnabled() {
+        return debugMethodsEnabled;
+    }
+
+    boolean isSharedClassesEnabled() {
+        return sharedClassesEnabled;
+    }
+
+    /**
+     * Returns the seed used for the default Random constructor in player code.
+     */
+    public long getMapSeed() {
+        return mapSeed;
     }
 
     public GameWorldViewer getGameWorldViewer() {
@@ -65,31 +128,32 @@ public class Engine {
         if (!gameWorld.isRunning()) {
             return GameState.DONE;
         }
+        bindCurrentThread();
         try {
             if (gameWorld.getCurrentRound() != -1) {
                 gameWorld.clearAllSignals();
             }
             gameWorld.processBeginningOfRound();
-            if (getRoundNum() % 500 == 0) {
-                System.out.println("Round: " + getRoundNum());
+            if (getRoundNumber() % 500 == 0) {
+                System.out.println("Round: " + getRoundNumber());
             }
-            Scheduler.startNextThread();
+            scheduler.startNextThread();
             ioCallback.run();
-            Scheduler.endTurn();
+            scheduler.endTurn();
             gameWorld.processEndOfRound();
             if (!gameWorld.isRunning()) {
                 // Let all of the threads return so we don't leak
                 // memory.  GameWorld has already told RobotMonitor
                 // to kill all the robots;
                 //System.out.println("Trying to clean up robots");
-                Scheduler.passToNextThread();
-                //System.out.println("Time spent in scheduler: "+(Scheduler.timeInScheduler*1.E-9));
+                scheduler.passToNextThread();
+                scheduler.shutDown();
             }
         } catch (Exception e) {
             ErrorReporter.report(e);
             return GameState.DONE;
         }
-        if (garbageCollectEnabled && getRoundNum() % garbageCollectRounds == 0) {
+        if (garbageCollectEnabled && getRoundNumber() % garbageCollectRounds == 0) {
             java.lang.System.gc();
         }
         return ((breakpointsEnabled && gameWorld.wasBreakpointHit()) ? GameState.BREAKPOINT : GameState.RUNNING);
@@ -101,6 +165,7 @@ public class Engine {
      * @return true if the gamestate may have changed, false if the gamestate did not change
      */
     public boolean receiveSignal(Signal s) {
+        bindCurrentThread();
         gameWorld.clearAllSignals();
         try {
             s.accept(gameWorld);
@@ -114,8 +179,15 @@ public class Engine {
         return (gameWorld != null) && gameWorld.isRunning();
     }
 
+    /**
+     * Returns the current round of the engine that the calling thread belongs to.
+     */
     public static int getRoundNum() {
-        return theInstance.gameWorld.getCurrentRound();
+        return currentEngine.get().getRoundNumber();
+    }
+
+    public int getRoundNumber() {
+        return gameWorld.getCurrentRound();
     }
 
     public long[][] getArchonMemory() {
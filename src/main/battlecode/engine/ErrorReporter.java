@@ -3,6 +3,42 @@ package battlecode.engine;
 // TODO: pass messages along to the client
 public class ErrorReporter {
 
+    // counts the reports made by threads that are holding them back
+    private static final ThreadLocal<int[]> suppressedReports = new ThreadLocal<int[]>();
+
+    /**
+     * Makes the calling thread count its reports instead of printing them, until resumeReports is called.  This is
+     * for work done ahead of time, whose problems will be reported again when the work is done for real.
+     */
+    public static void suppressReports() {
+        suppressedReports.set(new int[1]);
+    }
+
+    /**
+     * Makes the calling thread print its reports again, and returns the number of reports it held back.
+     */
+    public static int resumeReports() {
+        int count = getSuppressedReports();
+        suppressedReports.remove();
+        return count;
+    }
+
+    /**
+     * Returns the number of reports the calling thread has held back since it called suppressReports.
+     */
+    public static int getSuppressedReports() {
+        int[] count = suppressedReports.get();
+        return count == null ? 0 : count[0];
+    }
+
+    private static boolean suppressed() {
+        int[] count = suppressedReports.get();
+        if (count == null)
+            return false;
+        count[0]++;
+        return true;
+    }
+
     // reports the error, and tells the contestant to contact the devs
     public static void report(Throwable e) {
         report(e, true);
@@ -13,6 +49,8 @@ public class ErrorReporter {
     }
 
     public static void report(String message, boolean ourFault) {
+        if (suppressed())
+            return;
         printHeader();
         System.out.println(message);
         if (ourFault) {
@@ -23,6 +61,8 @@ public class ErrorReporter {
     }
 
     public static void report(String message, String thingsToTry) {
+        if (suppressed())
+            return;
         printHeader();
         System.out.println(message);
         System.out.print("\n\n");
@@ -31,6 +71,8 @@ public class ErrorReporter {
     }
 
     public static void report(Throwable e, boolean ourFault) {
+        if (suppressed())
+            return;
         printHeader();
         e.printStackTrace();
         if (ourFault) {
@@ -41,6 +83,8 @@ public class ErrorReporter {
     }
 
     public static void report(Throwable e, String thingsToTry) {
+        if (suppressed())
+            return;
         printHeader();
         e.printStackTrace();
         System.out.print("\n\n");
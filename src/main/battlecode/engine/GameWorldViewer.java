@@ -22,6 +22,12 @@ public interface GameWorldViewer {
 
     public Signal[] getAllSignals(boolean includeBytecodesUsedSignal);
 
+    /**
+     * Returns signals that rebuild the current state of the match from an
+     * empty map, for RoundKeyframe.
+     */
+    public Signal[] getKeyframeSignals();
+
     public RoundStats getRoundStats();
 
     public GameStats getGameStats();
@@ -2,8 +2,11 @@ package battlecode.engine;
 
 import battlecode.engine.instrumenter.IndividualClassLoader;
 import battlecode.engine.instrumenter.InstrumentationException;
+import battlecode.engine.instrumenter.Preinstrumenter;
 import battlecode.engine.scheduler.ScheduledRunnable;
-import battlecode.server.Config;
+
+import java.util.ArrayList;
+import java.util.List;
 
 /*
 TODO:
@@ -11,14 +14,37 @@ TODO:
  */
 public class PlayerFactory {
 
-    private static boolean _debugMethodsEnabled = false;
-
     private PlayerFactory() {
     }
 
-    public static void checkOptions() {
-        Config options = Config.getGlobalConfig();
-        _debugMethodsEnabled = options.getBoolean("bc.engine.debug-methods");
+    /**
+     * Instruments the given teams' classes before the match starts, using the same class loaders that the robots
+     * will get.
+     */
+    static void preinstrument(Engine engine, String... teamNames) {
+        List<IndividualClassLoader> loaders = new ArrayList<IndividualClassLoader>();
+        for (String teamName : teamNames) {
+            IndividualClassLoader icl = null;
+            // any problems are reported when the first robot is loaded
+            ErrorReporter.suppressReports();
+            try {
+                if (engine.isSharedClassesEnabled())
+                    icl = IndividualClassLoader.getSharedLoader(teamName, engine.isDebugMethodsEnabled(), engine.getClassCache(), engine.getRobotMonitor());
+                if (icl == null)
+                    icl = new IndividualClassLoader(teamName, engine.isDebugMethodsEnabled(), false, true, engine.getClassCache());
+            } catch (InstrumentationException ie) {
+                continue;
+            } finally {
+                ErrorReporter.resumeReports();
+            }
+            loaders.add(icl);
+        }
+        Preinstrumenter preinstrumenter = new Preinstrumenter(engine.getOptions().getInt("bc.engine.preinstrument-threads"));
+        try {
+            preinstrumenter.run(loaders);
+        } catch (RuntimeException e) {
+            // the pre-pass is only a head start; robots instrument whatever it didn't do when they load it
+        }
     }
 
     public static void loadPlayer(GenericController rc, String teamName) {
@@ -27,7 +53,12 @@ public class PlayerFactory {
         Class playerClass;
         try {
             // The classloaders ignore silenced now - RobotMonitor takes care of it
-            ClassLoader icl = new IndividualClassLoader(teamName, _debugMethodsEnabled, false, true);
+            Engine engine = Engine.current();
+            ClassLoader icl = null;
+            if (engine.isSharedClassesEnabled())
+                icl = IndividualClassLoader.getSharedLoader(teamName, engine.isDebugMethodsEnabled(), engine.getClassCache(), engine.getRobotMonitor());
+            if (icl == null)
+                icl = new IndividualClassLoader(teamName, engine.isDebugMethodsEnabled(), false, true, engine.getClassCache());
             playerClass = icl.loadClass(teamName + ".RobotPlayer");
             //~ System.out.println("PF done loading");
         } catch (InstrumentationException ie) {
@@ -42,7 +73,7 @@ public class PlayerFactory {
         }
 
         // finally, create the player's thread, and let it loose
-        new ScheduledRunnable(new RobotRunnable(playerClass, rc), rc.getRobot().getID());
+        new ScheduledRunnable(new RobotRunnable(playerClass, rc), rc.getRobot());
 
     }
 }
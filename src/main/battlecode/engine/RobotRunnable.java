@@ -2,8 +2,8 @@ package battlecode.engine;
 
 import battlecode.common.Clock;
 import battlecode.common.RobotController;
+import battlecode.engine.instrumenter.IndividualClassLoader;
 import battlecode.engine.instrumenter.RobotDeathException;
-import battlecode.engine.scheduler.Scheduler;
 
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
@@ -46,7 +46,7 @@ class RobotRunnable implements Runnable {
 
         runbot:
         try {
-            Scheduler.endTurn();
+            Engine.current().getScheduler().endTurn();
             try {
                 m = myPlayerClass.getMethod("run", RobotController.class);
             } catch (NoSuchMethodException e) {
@@ -62,6 +62,8 @@ class RobotRunnable implements Runnable {
                 break runbot;
             }
 
+            // the JVM won't initialize the player's class for this robot if the class is shared with other robots
+            IndividualClassLoader.initializeStatics(myPlayerClass);
             m.invoke(null, myRobotController);
 
             System.out.println("[Engine] Robot " + myRobotController.getRobot() + " died on round "+Clock.getRoundNum()+" because its run method returned");
@@ -0,0 +1,21 @@
+package battlecode.engine.instrumenter;
+
+/**
+ * Charges the running robot for the bytecodes it executes.  Instrumented code calls use() at the end of each basic
+ * block (see RoboMethodTree).
+ * <p/>
+ * Every team class loader defines its own copy of this class, whose monitor is the RobotMonitor of the loader's
+ * match.  This saves instrumented code from having to look up the current Engine at every basic block, and leaves
+ * the JIT a small enough method to inline.
+ */
+public final class BytecodeMeter {
+
+    public static RobotMonitor monitor;
+
+    private BytecodeMeter() {
+    }
+
+    public static void use(int numBytecodes) {
+        monitor.useBytecodes(numBytecodes);
+    }
+}
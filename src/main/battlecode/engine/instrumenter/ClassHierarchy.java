@@ -0,0 +1,81 @@
+package battlecode.engine.instrumenter;
+
+import battlecode.engine.ErrorReporter;
+import org.objectweb.asm.ClassReader;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Remembers which classes and interfaces each class transitively extends or implements, so that the instrumenter
+ * reads each library class file at most once per JVM no matter how many class loaders, matches or call sites ask
+ * about it.  Teams' classes are read every time, since they may be recompiled between matches.
+ */
+class ClassHierarchy {
+
+    private static final ConcurrentHashMap<String, String[]> supertypes = new ConcurrentHashMap<String, String[]>();
+
+    private ClassHierarchy() {
+    }
+
+    /**
+     * Returns all of the classes and interfaces that the given class transitively extends or implements, in the
+     * same order as InterfaceReader finds them, or null if the class can't be found.
+     *
+     * @param teamPackageName the team whose code refers to the class
+     */
+    static String[] supertypes(String className, String teamPackageName) {
+        boolean remember = !ClassReferenceUtil.isTeamClass(className, teamPackageName);
+        if (remember) {
+            String[] result = supertypes.get(className);
+            if (result != null)
+                return result;
+        }
+        ClassReader cr;
+        try {
+            cr = new ClassReader(className);
+        } catch (IOException ioe) {
+            // not remembered, since a team's classes may show up later
+            return null;
+        }
+        // the classes and interfaces it directly extends or implements, then everything they do
+        HashSet<String> result = new HashSet<String>();
+        for (String i : cr.getInterfaces()) {
+            result.add(i);
+        }
+        if (cr.getSuperName() != null)
+            result.add(cr.getSuperName());
+        HashSet<String> result2 = new HashSet<String>();
+        for (String i : result) {
+            String[] ret = supertypes(i, teamPackageName);
+            if (ret == null) {
+                ErrorReporter.report("Can't find the class \"" + i + "\", and this wasn't caught until the ClassHierarchy stage.", true);
+                continue;
+            }
+            for (String j : ret)
+                result2.add(j);
+        }
+        result2.addAll(result);
+        String[] all = result2.toArray(new String[]{});
+        if (remember)
+            supertypes.put(className, all);
+        return all;
+    }
+
+    /**
+     * Returns true if the given class extends or implements superclass.
+     *
+     * @throws IOException if the class can't be found
+     */
+    static boolean isSubclass(String className, String superclass, String teamPackageName) throws IOException {
+        String[] result = supertypes(className, teamPackageName);
+        if (result == null)
+            throw new IOException("Class not found: " + className);
+        for (String s : result) {
+            if (s.equals(superclass))
+                return true;
+        }
+        return false;
+    }
+}
@@ -9,6 +9,7 @@ import java.io.FileInputStream;
 import java.io.InputStreamReader;
 import java.util.HashSet;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.zip.ZipFile;
 
 /**
@@ -25,9 +26,17 @@ public class ClassReferenceUtil {
     // packages for which the player is allowed to use any of the contained classes; loaded from AllowedPackages.txt
     private final static Set<String> allowedPackages;
 
-    // a set of classes the player is not allowed to use; loaded from DisallowedClasses.txt
+    // a set of classes the player is not allowed to use; loaded from DisallowedClasses.txt, plus RadiusOffsets
     private final static Set<String> disallowedClasses;
 
+    // the results of classReference, by team and then by class name, for classes that are and aren't checked
+    // against the whitelist.  References that are reported as illegal aren't remembered, so they are reported every time,
+    // and neither are references to the team's own classes, which are never renamed and may change between matches.
+    private final static ConcurrentHashMap<String, ConcurrentHashMap<String, String>> checkedReferences =
+            new ConcurrentHashMap<String, ConcurrentHashMap<String, String>>();
+    private final static ConcurrentHashMap<String, ConcurrentHashMap<String, String>> uncheckedReferences =
+            new ConcurrentHashMap<String, ConcurrentHashMap<String, String>>();
+
     // We can't instrument these classes because they have native methods.  Java won't allow us
     // to create an instrumented class that has the same prefix as a builtin class, so we have to
     // change the name.  But when we rename the class, it can't use the old class's native methods any more.
@@ -70,6 +79,8 @@ public class ClassReferenceUtil {
         } catch (Exception e) {
             fileLoadError("DisallowedClasses.txt");
         }
+        // its tables are shared by both teams, so a player that could write to them could signal the other team
+        disallowedClasses.add("battlecode/common/RadiusOffsets");
 
     }
 
@@ -129,11 +140,43 @@ public class ClassReferenceUtil {
      * @throws InstrumentationException if the class reference is not allowed
      */
     public static String classReference(String className, String teamPackageName, boolean silenced, boolean checkDisallowed) {
-        String ans = classReferenceX(className, teamPackageName, silenced, checkDisallowed);
+        if (className == null) return null;
+        ConcurrentHashMap<String, ConcurrentHashMap<String, String>> teams = checkDisallowed ? checkedReferences : uncheckedReferences;
+        ConcurrentHashMap<String, String> references = teams.get(teamPackageName);
+        if (references == null) {
+            references = new ConcurrentHashMap<String, String>();
+            ConcurrentHashMap<String, String> old = teams.putIfAbsent(teamPackageName, references);
+            if (old != null)
+                references = old;
+        }
+        if (isTeamClass(className, teamPackageName))
+            return classReferenceX(className, teamPackageName, silenced, checkDisallowed);
+        String ans = references.get(className);
+        if (ans == null) {
+            ans = classReferenceX(className, teamPackageName, silenced, checkDisallowed);
+            // a lazy instrumenter's forbidden references depend on the match's settings
+            if (!ans.startsWith("forbidden/"))
+                references.put(className, ans);
+        }
         //System.out.println("CR "+className+":"+ans);
         return ans;
     }
 
+    /**
+     * Returns true if the given class, or the element type if it is an array, belongs to the given team.
+     */
+    static boolean isTeamClass(String className, String teamPackageName) {
+        if (teamPackageName == null)
+            return false;
+        int start = className.lastIndexOf('[') + 1;
+        if (start > 0) {
+            if (start == className.length() || className.charAt(start) != 'L')
+                return false;
+            start++;
+        }
+        return className.startsWith(teamPackageName + "/", start);
+    }
+
     public static String classReferenceX(String className, String teamPackageName, boolean silenced, boolean checkDisallowed) {
         if (className == null) return null;
         if (className.charAt(0) == '[') {
@@ -1,41 +1,140 @@
 package battlecode.engine.instrumenter;
 
 import battlecode.engine.ErrorReporter;
+import battlecode.server.Config;
 import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
 import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Opcodes;
 
 import java.io.IOException;
+import java.security.MessageDigest;
 import java.util.*;
 
 import static org.objectweb.asm.ClassWriter.COMPUTE_MAXS;
 
+/**
+ * Loads and instruments a team's classes.  Normally every robot gets its own IndividualClassLoader, so every robot
+ * has its own copy of every class, and robots can't talk to each other through static fields.
+ * <p/>
+ * If bc.engine.shared-classes is set, all of a team's robots share one IndividualClassLoader instead (see
+ * getSharedLoader), so each class is defined and JIT compiled once per team rather than once per robot.  The
+ * static state of the classes is then moved into per-robot holder objects by StaticsRedirector, so robots still
+ * can't see each other's static fields.  The one known difference in bytecode counts is that the JVM looks up an
+ * enum's constants (for Enum.valueOf, EnumSet and EnumMap) once per class, so only the first robot to do so is
+ * charged for the call to values().
+ */
 public class IndividualClassLoader extends InstrumentingClassLoader {
     private boolean retryLoad;
     private final static String[] disallowedPlayerPackages = {"java/", "battlecode/", "sun/"};
+    static final String BYTECODE_METER = "battlecode/engine/instrumenter/BytecodeMeter";
 
-    // caches the binary format of classes that have been instrumented
-    // the values are byte arrays, not Classes, because each instance of InstrumentingClassLoader should define its own class,
-    // even if another InstrumentingClassLoader has already loaded a class from the same class file
-    private final static Map<String, byte[]> instrumentedClasses = new HashMap<String, byte[]>();
+    /**
+     * The classes loaded for one match.  Each Engine has its own Cache, so that matches running at the same time
+     * don't see each other's classes.
+     */
+    public static class Cache {
 
-    // caches the names of teams with errors, so that if a class is loaded for that team, it immediately throws an exception
-    private final static Set<String> teamsWithErrors = Collections.newSetFromMap(new IdentityHashMap<String, Boolean>());
+        // caches the binary format of classes that have been instrumented
+        // the values are byte arrays, not Classes, because each instance of InstrumentingClassLoader should define its own class,
+        // even if another InstrumentingClassLoader has already loaded a class from the same class file
+        private final Map<String, byte[]> instrumentedClasses = new HashMap<String, byte[]>();
+
+        // caches the names of teams with errors, so that if a class is loaded for that team, it immediately throws an exception
+        private final Set<String> teamsWithErrors = Collections.newSetFromMap(new IdentityHashMap<String, Boolean>());
+
+        private final SingletonClassLoader singletonLoader;
+
+        // the shared loader of each team whose classes are shared by its robots
+        private final Map<String, IndividualClassLoader> sharedLoaders = new HashMap<String, IndividualClassLoader>();
+
+        // teams that asked for a shared loader but can't have one
+        private final Set<String> unsharedTeams = new HashSet<String>();
+
+        // hashes of each team's class files, as they were when the match first loaded them
+        private final Map<String, String> teamDigests = new HashMap<String, String>();
+
+        // the RobotMonitor that the match's instrumented code reports its bytecodes to
+        private final RobotMonitor robotMonitor;
+
+        // the match's options, which decide how classes are instrumented
+        private final Config options;
+
+        public Cache(RobotMonitor robotMonitor, Config options) {
+            this.robotMonitor = robotMonitor;
+            this.options = options;
+            singletonLoader = new SingletonClassLoader(options);
+        }
+
+        /**
+         * Creates a Cache for classes that will only be instrumented, not run.
+         */
+        public Cache(Config options) {
+            this(null, options);
+        }
+
+        /**
+         * Returns a hash of the names and contents of all of the given team's class files, or null if they can't
+         * be listed.
+         */
+        synchronized String teamDigest(String teamPackageName) {
+            if (teamDigests.containsKey(teamPackageName))
+                return teamDigests.get(teamPackageName);
+            String result;
+            try {
+                MessageDigest digest = InstrumentedClassCache.newDigest();
+                for (String name : TeamClassFinder.find(teamPackageName)) {
+                    byte[] bytes = StaticsIndex.readOriginal(name);
+                    if (bytes != null) {
+                        digest.update(name.getBytes());
+                        digest.update(bytes);
+                    }
+                }
+                result = InstrumentedClassCache.toHex(digest.digest());
+            } catch (IOException e) {
+                result = null;
+            }
+            teamDigests.put(teamPackageName, result);
+            return result;
+        }
+    }
+
+    private final Map<String, byte[]> instrumentedClasses;
+
+    private final Set<String> teamsWithErrors;
+
+    private final SingletonClassLoader singletonLoader;
+
+    private final RobotMonitor robotMonitor;
+
+    private final Cache cache;
 
     // the name of the team this InstrumentingClassLoader is loading
     private final String teamPackageName;
 
-    public static void reset() {
-        instrumentedClasses.clear();
-        teamsWithErrors.clear();
-        singletonLoader = new SingletonClassLoader();
-    }
+    // only set if this loader is shared by all of the team's robots
+    private final StaticsIndex staticsIndex;
+    private final SharedStatics sharedStatics;
+    private final String variant;
+    // classes instrumented ahead of time by a Preinstrumenter, for a shared loader
+    private final Map<String, byte[]> preinstrumented = new HashMap<String, byte[]>();
 
-    static SingletonClassLoader singletonLoader = new SingletonClassLoader();
+    public IndividualClassLoader(String teamPackageName, boolean debugMethodsEnabled, boolean silenced, boolean retry, Cache cache) throws InstrumentationException {
+        this(teamPackageName, debugMethodsEnabled, silenced, retry, cache, null, null, "");
+    }
 
-    public IndividualClassLoader(String teamPackageName, boolean debugMethodsEnabled, boolean silenced, boolean retry) throws InstrumentationException {
-        super(silenced, debugMethodsEnabled, singletonLoader);
+    private IndividualClassLoader(String teamPackageName, boolean debugMethodsEnabled, boolean silenced, boolean retry, Cache cache,
+                                  StaticsIndex staticsIndex, RobotMonitor robotMonitor, String variant) throws InstrumentationException {
+        super(silenced, debugMethodsEnabled, cache.singletonLoader, cache.options);
+        this.staticsIndex = staticsIndex;
+        this.sharedStatics = staticsIndex == null ? null : new SharedStatics(this, robotMonitor);
+        this.variant = variant;
+        instrumentedClasses = cache.instrumentedClasses;
+        teamsWithErrors = cache.teamsWithErrors;
+        singletonLoader = cache.singletonLoader;
+        this.robotMonitor = cache.robotMonitor;
+        this.cache = cache;
 	retryLoad = retry;
-        checkSettings();
 
         // check that the package we're trying to load isn't contained in a disallowed package
         String teamNameSlash = teamPackageName + "/";
@@ -50,6 +149,115 @@ public class IndividualClassLoader extends InstrumentingClassLoader {
 
     }
 
+    /**
+     * Returns the class loader shared by all of the given team's robots in the match that the cache belongs to,
+     * creating it if necessary.  Returns null if the team's classes keep state that can't be split up per robot,
+     * in which case each robot should get its own loader.
+     */
+    public static IndividualClassLoader getSharedLoader(String teamPackageName, boolean debugMethodsEnabled, Cache cache, RobotMonitor robotMonitor) throws InstrumentationException {
+        synchronized (cache) {
+            IndividualClassLoader loader = cache.sharedLoaders.get(teamPackageName);
+            if (loader != null || cache.unsharedTeams.contains(teamPackageName))
+                return loader;
+
+            StaticsIndex index = new StaticsIndex(teamPackageName);
+            String reason = null;
+            try {
+                List<String> classes = TeamClassFinder.find(teamPackageName);
+                if (classes.isEmpty())
+                    reason = "none of its classes could be found";
+                for (String name : classes) {
+                    if (reason == null)
+                        reason = index.checkShareable(name);
+                }
+            } catch (IOException e) {
+                reason = "its classes couldn't be listed: " + e.getMessage();
+            }
+            String teamDigest = cache.teamDigest(teamPackageName);
+            if (reason == null && teamDigest == null)
+                reason = "its classes couldn't be listed";
+            if (reason != null) {
+                System.out.println("[Engine] Team " + teamPackageName + " can't share classes between its robots because " + reason + ", using a class loader per robot");
+                cache.unsharedTeams.add(teamPackageName);
+                return null;
+            }
+
+            // the library classes are redirected using the index of the team's classes too, so the
+            // InstrumentedClassCache has to know which version of the team they came from
+            loader = new IndividualClassLoader(teamPackageName, debugMethodsEnabled, false, true, cache,
+                    index, robotMonitor, "shared " + teamDigest);
+            cache.sharedLoaders.put(teamPackageName, loader);
+            return loader;
+        }
+    }
+
+    /**
+     * Initializes the given class for the current robot, if it was loaded by a shared loader.  The JVM only
+     * initializes a shared class once, so this has to be called wherever the engine itself causes a player class
+     * to be initialized, e.g., before calling the player's run method.
+     */
+    public static void initializeStatics(Class<?> c) {
+        if (!(c.getClassLoader() instanceof IndividualClassLoader))
+            return;
+        IndividualClassLoader loader = (IndividualClassLoader) c.getClassLoader();
+        if (loader.sharedStatics == null)
+            return;
+        String target = loader.staticsIndex.initTarget(c.getName().replace('.', '/'));
+        if (target == null)
+            return;
+        try {
+            Class<?> holder = loader.loadClass(StaticsIndex.holderName(target));
+            loader.sharedStatics.get(loader.sharedStatics.indexOf(holder));
+        } catch (ClassNotFoundException e) {
+            throw new InstrumentationException();
+        }
+    }
+
+    /**
+     * Returns true for the engine classes that every robot gets its own uninstrumented copy of.
+     */
+    static boolean isPerRobotEngineClass(String name) {
+        return name.equals("battlecode/engine/instrumenter/lang/ObjectHashCode") ||
+                name.equals("battlecode/engine/instrumenter/lang/InstrumentableFunctions");
+    }
+
+    String getTeamPackageName() {
+        return teamPackageName;
+    }
+
+    /**
+     * Instruments one of the team's classes, or a library class they use, the same way loadClass would.  Unlike
+     * loadClass, this may be called from any thread, and doesn't define the class or remember any errors.
+     */
+    byte[] preinstrument(String name) throws InstrumentationException {
+        return instrument(name, name.startsWith(teamPackageName), teamPackageName);
+    }
+
+    /**
+     * Saves a class instrumented by preinstrument, for when a robot first loads it.
+     */
+    void addPreinstrumented(String name, byte[] classBytes) {
+        synchronized (teamPackageName) {
+            if (sharedStatics != null) {
+                if (findLoadedClass(name.replace('/', '.')) == null)
+                    preinstrumented.put(name, classBytes);
+            } else if (!instrumentedClasses.containsKey(name))
+                instrumentedClasses.put(name, classBytes);
+        }
+    }
+
+    protected ClassVisitor wrapWriter(ClassVisitor cw) {
+        return staticsIndex == null ? cw : new StaticsRedirector(cw, staticsIndex);
+    }
+
+    protected String getVariant() {
+        return variant;
+    }
+
+    protected String getTeamDigest() {
+        return cache.teamDigest(teamPackageName);
+    }
+
     private void dumpToFile(String name, byte[] bytes) {
         try {
             java.io.File file = new java.io.File("classes/" + name + ".class");
@@ -75,11 +283,21 @@ public class IndividualClassLoader extends InstrumentingClassLoader {
 
             //System.out.println("loadClass "+name);
 
-            if (instrumentedClasses.containsKey(name)) {
+            if (sharedStatics != null && findLoadedClass(name.replace('/', '.')) != null) {
+                // a shared loader defines each class only once
+                finishedClass = findLoadedClass(name.replace('/', '.'));
+            } else if (sharedStatics != null && name.endsWith(StaticsIndex.HOLDER_SUFFIX)) {
+                finishedClass = defineHolder(name);
+            } else if (sharedStatics != null && preinstrumented.containsKey(name)) {
+                finishedClass = saveAndDefineClass(name, preinstrumented.remove(name));
+            } else if (sharedStatics == null && instrumentedClasses.containsKey(name)) {
                 byte[] classBytes = instrumentedClasses.get(name);
                 finishedClass = defineClass(null, classBytes, 0, classBytes.length);
-            } else if (name.equals("battlecode/engine/instrumenter/lang/ObjectHashCode") ||
-                    name.equals("battlecode/engine/instrumenter/lang/InstrumentableFunctions")) {
+            } else if (name.equals(BYTECODE_METER)) {
+                finishedClass = findLoadedClass(name.replace('/', '.'));
+                if (finishedClass == null)
+                    finishedClass = defineBytecodeMeter();
+            } else if (isPerRobotEngineClass(name)) {
                 // We want each robot to have its own copy of this class
                 // so that it isn't possible to send messages by calling
                 // hashCode repeatedly.  But we don't want to instrument it.
@@ -91,7 +309,7 @@ public class IndividualClassLoader extends InstrumentingClassLoader {
                     throw new InstrumentationException();
                 }
                 ClassWriter cw = new ClassWriter(cr, COMPUTE_MAXS);
-                cr.accept(cw, 0);
+                cr.accept(wrapWriter(cw), 0);
                 finishedClass = saveAndDefineClass(name, cw.toByteArray());
             } else if (name.startsWith(teamPackageName)) {
                 byte[] classBytes = null;
@@ -151,13 +369,65 @@ public class IndividualClassLoader extends InstrumentingClassLoader {
         }
     }
 
+    /**
+     * Defines this loader's copy of BytecodeMeter, and points it at the match's RobotMonitor.
+     */
+    private Class<?> defineBytecodeMeter() {
+        byte[] classBytes = StaticsIndex.readOriginal(BYTECODE_METER);
+        if (classBytes == null) {
+            ErrorReporter.report("Can't find the class \"" + BYTECODE_METER + "\"", true);
+            throw new InstrumentationException();
+        }
+        Class<?> meter = defineClass(null, classBytes, 0, classBytes.length);
+        try {
+            meter.getField("monitor").set(null, robotMonitor);
+        } catch (Exception e) {
+            ErrorReporter.report(e);
+            throw new InstrumentationException();
+        }
+        return meter;
+    }
+
+    /**
+     * Generates and defines the holder class for the per-robot static state of a shared class.
+     */
+    private Class<?> defineHolder(String name) throws ClassNotFoundException {
+        String owner = name.substring(0, name.length() - StaticsIndex.HOLDER_SUFFIX.length());
+        StaticsIndex.ClassInfo info = staticsIndex.info(owner);
+        if (info == null || !info.hasHolder)
+            throw new ClassNotFoundException(name);
+
+        // the JVM initializes a class's superclass, but not its interfaces, before the class itself
+        int superIndex = -1;
+        if ((info.access & Opcodes.ACC_INTERFACE) == 0) {
+            String superTarget = staticsIndex.initTarget(info.superName);
+            if (superTarget != null)
+                superIndex = sharedStatics.indexOf(loadClass(StaticsIndex.holderName(superTarget)));
+        }
+
+        int index = sharedStatics.reserve();
+        byte[] classBytes = staticsIndex.generateHolder(owner, index);
+        Class<?> holder = defineClass(null, classBytes, 0, classBytes.length);
+        try {
+            holder.getField(StaticsIndex.STATICS_FIELD).set(null, sharedStatics);
+        } catch (Exception e) {
+            ErrorReporter.report(e);
+            throw new InstrumentationException();
+        }
+        sharedStatics.register(index, holder, owner, superIndex, info.sharedState);
+        return holder;
+    }
+
     public Class<?> saveAndDefineClass(String name, byte[] classBytes) {
         if (classBytes == null) {
             ErrorReporter.report("Can't find instrumented class " + name + ", but no errors reported", true);
             throw new InstrumentationException();
         }
         Class<?> theClass = defineClass(null, classBytes, 0, classBytes.length);
-        instrumentedClasses.put(name, classBytes);
+        // classes in a shared loader have been instrumented differently, so
+        // robots with their own loaders can't use them
+        if (sharedStatics == null)
+            instrumentedClasses.put(name, classBytes);
         return theClass;
 
     }
@@ -0,0 +1,288 @@
+package battlecode.engine.instrumenter;
+
+import battlecode.engine.ErrorReporter;
+import battlecode.server.Config;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Caches the output of the instrumenter, so that a team's classes are not
+ * instrumented again for every match in a series, or every time the server
+ * is started.
+ * <p/>
+ * Classes are cached under a hash of the original class file and of
+ * everything else that the instrumenter's output depends on: the team and,
+ * for the team's own classes, all of its other class files, the instrumenter
+ * settings, the contents of MethodCosts.txt, AllowedPackages.txt
+ * and DisallowedClasses.txt, the instrumenter's own classes and the JVM
+ * version.  If any of these change the class is simply instrumented again,
+ * so the cache never needs to be cleared by hand.
+ * <p/>
+ * There are two tiers, each of which holds at most bc.engine.class-cache-mb
+ * megabytes of classes.  The memory tier lasts as long as the JVM, and is
+ * shared by every match that uses the same directory and size.  The disk
+ * tier is off unless bc.engine.class-cache-dir names a directory; it keeps
+ * one file per class there and is shared by every server that uses the same
+ * directory, and when it grows too large the least recently used classes are
+ * deleted.  Setting bc.engine.class-cache to false turns off both tiers for a
+ * match.
+ */
+public class InstrumentedClassCache {
+
+    private static final String[] SETTINGS_FILES = {"MethodCosts.txt", "AllowedPackages.txt", "DisallowedClasses.txt"};
+
+    // the classes whose code determines what the instrumenter produces
+    private static final Class<?>[] INSTRUMENTER_CLASSES = {RoboAdapter.class, RoboMethodTree.class,
+            ClassReferenceUtil.class, MethodCostUtil.class, InterfaceReader.class,
+            BattlecodeSignatureWriter.class, InstrumentingClassLoader.class, StaticsIndex.class,
+            StaticsRedirector.class, BytecodeMeter.class, ClassHierarchy.class};
+
+    // by directory and size
+    private static final Map<String, InstrumentedClassCache> instances = new HashMap<String, InstrumentedClassCache>();
+
+    private final File directory;
+
+    private final long maxBytes;
+
+    // hash of everything that is the same for every class and match
+    private final byte[] settingsDigest;
+
+    private final LinkedHashMap<String, byte[]> memory = new LinkedHashMap<String, byte[]>(64, 0.75f, true);
+    private long memoryBytes;
+
+    // -1 until the directory has been scanned
+    private long diskBytes = -1;
+
+    private int hits;
+    private int misses;
+
+    /**
+     * Returns the cache with the directory and size in the given options, creating it if necessary.
+     */
+    public static synchronized InstrumentedClassCache getInstance(Config options) {
+        String dir = options.get("bc.engine.class-cache-dir");
+        dir = dir == null ? "" : dir.trim();
+        int mb = options.getInt("bc.engine.class-cache-mb");
+        String name = mb + " " + dir;
+        InstrumentedClassCache instance = instances.get(name);
+        if (instance == null) {
+            instance = new InstrumentedClassCache(dir.length() == 0 ? null : new File(dir), mb * 1024L * 1024L);
+            instances.put(name, instance);
+        }
+        return instance;
+    }
+
+    private InstrumentedClassCache(File directory, long maxBytes) {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+
+        MessageDigest digest = newDigest();
+        update(digest, "jvm=" + System.getProperty("java.vendor") + " " + System.getProperty("java.version"));
+        for (String filename : SETTINGS_FILES) {
+            update(digest, filename);
+            try {
+                digest.update(FileUtils.readFileToByteArray(new File(filename)));
+            } catch (IOException e) {
+                // the instrumenter will complain about the missing file
+            }
+        }
+        for (Class<?> c : INSTRUMENTER_CLASSES) {
+            update(digest, c.getName());
+            InputStream in = c.getResourceAsStream(c.getSimpleName() + ".class");
+            try {
+                if (in != null)
+                    digest.update(IOUtils.toByteArray(in));
+            } catch (IOException e) {
+                update(digest, "unreadable");
+            } finally {
+                IOUtils.closeQuietly(in);
+            }
+        }
+        settingsDigest = digest.digest();
+    }
+
+    /**
+     * Returns the key that the instrumented version of the given class is cached under.
+     *
+     * @param classBytes the original class file
+     * @param teamDigest a hash of all of the team's class files, if this is one of them, or else ""
+     * @param lazy       the match's bc.engine.lazy-instrumenter
+     * @param fastHash   the match's bc.engine.fast-hash
+     * @param variant    describes any transformations that the class loader adds to the instrumenter's
+     */
+    public String key(byte[] classBytes, String className, String teamPackageName, String teamDigest, boolean debugMethodsEnabled, boolean silenced,
+                      boolean checkDisallowed, boolean lazy, boolean fastHash, String variant) {
+        MessageDigest digest = newDigest();
+        digest.update(settingsDigest);
+        update(digest, className);
+        update(digest, teamPackageName);
+        update(digest, teamDigest);
+        update(digest, "debug-methods=" + debugMethodsEnabled + " silenced=" + silenced + " check=" + checkDisallowed);
+        update(digest, "lazy=" + lazy + " fast-hash=" + fastHash);
+        update(digest, variant);
+        digest.update(classBytes);
+        return toHex(digest.digest());
+    }
+
+    static String toHex(byte[] hash) {
+        StringBuilder sb = new StringBuilder(hash.length * 2);
+        for (byte b : hash)
+            sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        return sb.toString();
+    }
+
+    /**
+     * Returns the instrumented class cached under the given key, or null if there isn't one.
+     */
+    public byte[] get(String key) {
+        synchronized (this) {
+            byte[] bytes = memory.get(key);
+            if (bytes != null) {
+                hits++;
+                return bytes;
+            }
+        }
+        byte[] bytes = null;
+        if (directory != null) {
+            File file = new File(directory, key + ".class");
+            if (file.isFile()) {
+                try {
+                    bytes = FileUtils.readFileToByteArray(file);
+                    // the modification time records when the class was last used
+                    file.setLastModified(System.currentTimeMillis());
+                } catch (IOException e) {
+                    bytes = null;
+                }
+            }
+        }
+        synchronized (this) {
+            if (bytes == null) {
+                misses++;
+                return null;
+            }
+            hits++;
+            putInMemory(key, bytes);
+            return bytes;
+        }
+    }
+
+    /**
+     * Caches the instrumented version of a class.
+     */
+    public void put(String key, byte[] bytes) {
+        synchronized (this) {
+            putInMemory(key, bytes);
+        }
+        if (directory == null)
+            return;
+        try {
+            if (!directory.isDirectory() && !directory.mkdirs())
+                throw new IOException("couldn't create " + directory);
+            // write to a temporary file first, so that other servers using
+            // the same directory never see half a class
+            File temp = File.createTempFile(key, ".tmp", directory);
+            FileUtils.writeByteArrayToFile(temp, bytes);
+            File file = new File(directory, key + ".class");
+            if (!temp.renameTo(file)) {
+                temp.delete();
+                return;
+            }
+        } catch (IOException e) {
+            ErrorReporter.report("Couldn't write to the instrumented class cache: " + e.getMessage(), false);
+            return;
+        }
+        synchronized (this) {
+            if (diskBytes >= 0)
+                diskBytes += bytes.length;
+            if (diskBytes < 0 || diskBytes > maxBytes)
+                evictFromDisk();
+        }
+    }
+
+    private void putInMemory(String key, byte[] bytes) {
+        byte[] old = memory.put(key, bytes);
+        if (old != null)
+            memoryBytes -= old.length;
+        memoryBytes += bytes.length;
+        Iterator<byte[]> it = memory.values().iterator();
+        while (memoryBytes > maxBytes && it.hasNext()) {
+            memoryBytes -= it.next().length;
+            it.remove();
+        }
+    }
+
+    /**
+     * Recounts the size of the disk tier, and deletes the least recently used
+     * classes until it fits in the limit.
+     */
+    private void evictFromDisk() {
+        File[] files = directory.listFiles();
+        if (files == null)
+            return;
+        diskBytes = 0;
+        for (File f : files)
+            diskBytes += f.length();
+        if (diskBytes <= maxBytes)
+            return;
+        final Map<File, Long> lastUsed = new LinkedHashMap<File, Long>();
+        for (File f : files)
+            lastUsed.put(f, f.lastModified());
+        Arrays.sort(files, new Comparator<File>() {
+            public int compare(File a, File b) {
+                long x = lastUsed.get(a), y = lastUsed.get(b);
+                return x < y ? -1 : (x == y ? 0 : 1);
+            }
+        });
+        for (File f : files) {
+            if (diskBytes <= maxBytes)
+                break;
+            long length = f.length();
+            if (f.delete())
+                diskBytes -= length;
+        }
+    }
+
+    /**
+     * Returns the number of classes that were found in the cache.
+     */
+    public synchronized int getHits() {
+        return hits;
+    }
+
+    /**
+     * Returns the number of classes that had to be instrumented.
+     */
+    public synchronized int getMisses() {
+        return misses;
+    }
+
+    static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static void update(MessageDigest digest, String s) {
+        try {
+            digest.update(s.getBytes("UTF-8"));
+            digest.update((byte) 0);
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -5,8 +5,10 @@ import battlecode.server.Config;
 import org.objectweb.asm.ClassReader;
 import org.objectweb.asm.ClassVisitor;
 import org.objectweb.asm.ClassWriter;
+import org.apache.commons.io.IOUtils;
 
 import java.io.IOException;
+import java.io.InputStream;
 
 import static org.objectweb.asm.ClassWriter.COMPUTE_MAXS;
 
@@ -16,12 +18,18 @@ public abstract class InstrumentingClassLoader extends ClassLoader {
     protected final boolean silenced;
     protected final boolean debugMethodsEnabled;
 
-    private static boolean lazy;
-    private static boolean fastHash;
-    private static boolean checkedSettings;
+    // the options of the match this loader belongs to
+    private final Config options;
+    private final boolean lazy;
+    private final boolean fastHash;
+    private final boolean classCacheEnabled;
+
+    // the loader that is instrumenting a class on the calling thread, so that the instrumenter can use its settings
+    private static final ThreadLocal<InstrumentingClassLoader> instrumenting = new ThreadLocal<InstrumentingClassLoader>();
 
     /**
-     * Returns the value of the property bc.engine.lazy-instrumenter.
+     * Returns the value of the property bc.engine.lazy-instrumenter, for the match whose loader is instrumenting a
+     * class on the calling thread.
      * If the instrumenter is not lazy, then robots are killed if their class files
      * contain any forbidden code.  If the instrumenter is lazy, then robots are killed
      * if they try to execute any forbidden code.
@@ -34,11 +42,13 @@ public abstract class InstrumentingClassLoader extends ClassLoader {
      * {@see RoboMethodAdapter#forbidden}
      */
     public static boolean lazy() {
-        return lazy;
+        InstrumentingClassLoader loader = instrumenting.get();
+        return loader != null && loader.lazy;
     }
 
     /**
-     * Returns the value of the property bc.engine.fast-hash.
+     * Returns the value of the property bc.engine.fast-hash, for the match whose loader is instrumenting a class on
+     * the calling thread.
      * If fast-hash is set, then the instrumenter will not use
      * reflection to check whether an object overrides hashCode().
      * The check is slow but without it, there is a one in 2^32 chance
@@ -49,49 +59,120 @@ public abstract class InstrumentingClassLoader extends ClassLoader {
      * {@see RoboMethodAdapter#visitMethodInsn}
      */
     public static boolean fastHash() {
-        return fastHash;
+        InstrumentingClassLoader loader = instrumenting.get();
+        return loader != null && loader.fastHash;
     }
 
-    protected static void checkSettings() {
-        if (!checkedSettings) {
-            checkedSettings = true;
-            Config config = Config.getGlobalConfig();
-            lazy = config.getBoolean("bc.engine.lazy-instrumenter");
-            fastHash = config.getBoolean("bc.engine.fast-hash");
-        }
+    /**
+     * Returns whether the loader that is instrumenting a class on the calling thread lets the instrumenter count a
+     * block that control only falls into together with the block after it (see RoboMethodTree).
+     */
+    static boolean mergeBlocks() {
+        InstrumentingClassLoader loader = instrumenting.get();
+        return loader == null || loader.mergesBlocks();
     }
 
-    public InstrumentingClassLoader(boolean silenced, boolean debugMethodsEnabled) {
+    public InstrumentingClassLoader(boolean silenced, boolean debugMethodsEnabled, Config options) {
         super();
         this.silenced = silenced;
         this.debugMethodsEnabled = debugMethodsEnabled;
+        this.options = options;
+        lazy = options.getBoolean("bc.engine.lazy-instrumenter");
+        fastHash = options.getBoolean("bc.engine.fast-hash");
+        classCacheEnabled = options.getBoolean("bc.engine.class-cache");
     }
 
-    public InstrumentingClassLoader(boolean silenced, boolean debugMethodsEnabled, ClassLoader cl) {
+    public InstrumentingClassLoader(boolean silenced, boolean debugMethodsEnabled, ClassLoader cl, Config options) {
         super(cl);
         this.silenced = silenced;
         this.debugMethodsEnabled = debugMethodsEnabled;
+        this.options = options;
+        lazy = options.getBoolean("bc.engine.lazy-instrumenter");
+        fastHash = options.getBoolean("bc.engine.fast-hash");
+        classCacheEnabled = options.getBoolean("bc.engine.class-cache");
     }
 
+    /**
+     * Returns the instrumented version of the given class, from the InstrumentedClassCache if possible.
+     */
     public byte[] instrument(String className, boolean checkDisallowed, String teamPackageName) throws InstrumentationException {
         //System.out.println("instrumenting "+className+", checkDisallowed "+checkDisallowed);
-        ClassReader cr;
+        byte[] original;
+        InputStream in = ClassLoader.getSystemResourceAsStream(
+                (className.startsWith("instrumented/") ? className.substring(13) : className) + ".class");
         try {
-            if (className.startsWith("instrumented/"))
-                cr = new ClassReader(className.substring(13));
-            else
-                cr = new ClassReader(className);
+            if (in == null)
+                throw new IOException("Class not found");
+            original = IOUtils.toByteArray(in);
         } catch (IOException ioe) {
             ErrorReporter.report("Can't find the class \"" + className + "\"", "Make sure the team name is spelled correctly.\nMake sure the .class files are in the right directory (teams/teamname/*.class)");
             throw new InstrumentationException();
+        } finally {
+            IOUtils.closeQuietly(in);
+        }
+
+        InstrumentedClassCache cache = InstrumentedClassCache.getInstance(options);
+        String key = null;
+        // a team's class is instrumented according to what its other classes extend, so it can only be
+        // cached along with them
+        String teamDigest = ClassReferenceUtil.isTeamClass(className, teamPackageName) ? getTeamDigest() : "";
+        if (classCacheEnabled && teamDigest != null) {
+            key = cache.key(original, className, teamPackageName, teamDigest, debugMethodsEnabled, silenced, checkDisallowed, lazy, fastHash, getVariant());
+            byte[] bytes = cache.get(key);
+            if (bytes != null)
+                return bytes;
         }
+
+        int suppressedReports = ErrorReporter.getSuppressedReports();
+        ClassReader cr = new ClassReader(original);
         ClassWriter cw = new ClassWriter(COMPUTE_MAXS); // passing true sets maxLocals and maxStack, so we don't have to
-        ClassVisitor cv = new RoboAdapter(cw, teamPackageName, debugMethodsEnabled, silenced, checkDisallowed);
-        cr.accept(cv, 0);        //passing false lets debug info be included in the transformation, so players get line numbers in stack traces
+        ClassVisitor cv = new RoboAdapter(wrapWriter(cw), teamPackageName, debugMethodsEnabled, silenced, checkDisallowed);
+        InstrumentingClassLoader outer = instrumenting.get();
+        instrumenting.set(this);
+        try {
+            cr.accept(cv, 0);        //passing false lets debug info be included in the transformation, so players get line numbers in stack traces
+        } finally {
+            instrumenting.set(outer);
+        }
         byte[] bytes = cw.toByteArray();
+        // if the instrumenter complained on a thread that is holding its reports back, leave the class
+        // out of the cache so that the complaints are made again when the class is really loaded
+        if (key != null && ErrorReporter.getSuppressedReports() == suppressedReports)
+            cache.put(key, bytes);
         return bytes;
     }
 
+    /**
+     * Returns a hash of all of the class files of the team this loader loads, or null if there isn't one.
+     */
+    protected String getTeamDigest() {
+        return null;
+    }
+
+    /**
+     * Returns false to count every block on its own, as the instrumenter did before it merged them.  Only tests do
+     * this, to check that merging doesn't change what robots are charged; a loader that does should say so in
+     * getVariant.
+     */
+    protected boolean mergesBlocks() {
+        return true;
+    }
+
+    /**
+     * Lets a subclass add its own transformations after the instrumenter's.
+     */
+    protected ClassVisitor wrapWriter(ClassVisitor cw) {
+        return cw;
+    }
+
+    /**
+     * Describes any transformations added by wrapWriter, so that the InstrumentedClassCache can tell classes
+     * instrumented with them apart from classes instrumented without them.
+     */
+    protected String getVariant() {
+        return "";
+    }
+
     public abstract Class<?> saveAndDefineClass(String name, byte[] classBytes);
 
 }
@@ -1,7 +1,6 @@
 package battlecode.engine.instrumenter;
 
 import battlecode.engine.ErrorReporter;
-import org.objectweb.asm.ClassReader;
 
 import java.io.BufferedReader;
 import java.io.FileInputStream;
@@ -10,8 +9,7 @@ import java.io.InputStreamReader;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.StringTokenizer;
-
-import static org.objectweb.asm.ClassReader.SKIP_DEBUG;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * MethodCostUtil is a singleton used for looking up MethodData associated with some methods.
@@ -30,9 +28,13 @@ public class MethodCostUtil {
     private final static Map<String, MethodData> methodCosts;
 
     /**
-     * This is a map from binary class names, to all the classes/interfaces that the class transitively implements/extends.
+     * This is a map from binary class names, to the results of getMethodData for that class, by method name.  Methods
+     * without any MethodData are mapped to NO_DATA.  Teams' classes aren't remembered, since they may change between
+     * matches.
      */
-    private final static Map<String, String[]> interfacesMap;
+    private final static ConcurrentHashMap<String, ConcurrentHashMap<String, MethodData>> lookups;
+
+    private final static MethodData NO_DATA = new MethodData(0, false);
 
     /**
      * A struct that stores data about a method -- what its lookup bytecode cost is, and whether it should end the basic block or not.
@@ -65,7 +67,8 @@ public class MethodCostUtil {
             ClassReferenceUtil.fileLoadError("MethodCosts.txt");
         }
 
-        interfacesMap = new HashMap<String, String[]>();
+        // classes may be instrumented by several threads at once
+        lookups = new ConcurrentHashMap<String, ConcurrentHashMap<String, MethodData>>();
     }
 
     public static MethodData getMethodDataRaw(String fullName) {
@@ -75,33 +78,50 @@ public class MethodCostUtil {
     /**
      * Returns the MethodData associated with the given method, or null if no MethodData exists for the given method.
      *
-     * @param className  the binary name of the class to which the given method belongns
-     * @param methodName the name of the given class
+     * @param className       the binary name of the class to which the given method belongns
+     * @param methodName      the name of the given class
+     * @param teamPackageName the name of the team whose code calls the method
      */
-    public static MethodData getMethodData(String className, String methodName) {
+    public static MethodData getMethodData(String className, String methodName, String teamPackageName) {
         if (className.charAt(0) == '[')
             return null;
+        if (ClassReferenceUtil.isTeamClass(className, teamPackageName)) {
+            MethodData data = findMethodData(className, methodName, teamPackageName);
+            return data == NO_DATA ? null : data;
+        }
+        ConcurrentHashMap<String, MethodData> methods = lookups.get(className);
+        if (methods == null) {
+            methods = new ConcurrentHashMap<String, MethodData>();
+            ConcurrentHashMap<String, MethodData> old = lookups.putIfAbsent(className, methods);
+            if (old != null)
+                methods = old;
+        }
+        MethodData data = methods.get(methodName);
+        if (data == null) {
+            data = findMethodData(className, methodName, teamPackageName);
+            // if the class couldn't be found, look again next time
+            if (data == null)
+                return null;
+            methods.put(methodName, data);
+        }
+        return data == NO_DATA ? null : data;
+    }
+
+    /**
+     * Looks up the MethodData for the given method, or its nearest superclass or interface with one.  Returns
+     * NO_DATA if there is none, or null if the class can't be found.
+     */
+    private static MethodData findMethodData(String className, String methodName, String teamPackageName) {
         String key = className + "/" + methodName;
 
         if (methodCosts.containsKey(key))
             return methodCosts.get(key);
 
-        String[] interfaces = null;
-        if (interfacesMap.containsKey(className))
-            interfaces = interfacesMap.get(className);
-        else {
-            ClassReader cr;
-            try {
-                cr = new ClassReader(className);
-            } catch (IOException ioe) {
-                ErrorReporter.report("Can't find the class \"" + className + "\", and this wasn't caught until the MethodData stage.", true);
-                // this isn't all that bad an error, so don't throw an InstrumentationException
-                return null;
-            }
-            InterfaceReader ir = new InterfaceReader();
-            cr.accept(ir, SKIP_DEBUG);
-            interfaces = ir.getInterfaces();
-            interfacesMap.put(className, interfaces);
+        String[] interfaces = ClassHierarchy.supertypes(className, teamPackageName);
+        if (interfaces == null) {
+            ErrorReporter.report("Can't find the class \"" + className + "\", and this wasn't caught until the MethodData stage.", true);
+            // this isn't all that bad an error, so don't throw an InstrumentationException
+            return null;
         }
 
         for (int i = 0; i < interfaces.length; i++) {
@@ -110,7 +130,7 @@ public class MethodCostUtil {
                 return methodCosts.get(key);
         }
 
-        return null;
+        return NO_DATA;
     }
 
 
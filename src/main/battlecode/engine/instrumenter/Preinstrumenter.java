@@ -0,0 +1,175 @@
+package battlecode.engine.instrumenter;
+
+import battlecode.engine.ErrorReporter;
+import org.objectweb.asm.ClassReader;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Instruments the classes of the teams in a match before the match starts, on several threads at once, so that
+ * robots don't have to wait for the instrumenter the first time they use a class.
+ * <p/>
+ * Every class in each team's package is instrumented, along with the instrumented library classes (e.g.,
+ * instrumented/java/util/ArrayList) that the team's instrumented classes refer to, and so on.  Classes that can't
+ * be instrumented are skipped without reporting anything, and are instrumented again when a robot loads them, so
+ * that errors are reported at the same point as if there were no pre-pass.  That includes classes the instrumenter
+ * fails on with an Error (e.g., a StackOverflowError on a huge method).
+ */
+public class Preinstrumenter {
+
+    private static final Pattern LIBRARY_CLASS = Pattern.compile("(?<![\\w/$])instrumented/[^;()\\[<>]+");
+
+    private static final int CONSTANT_CLASS = 7;
+    private static final int CONSTANT_NAME_AND_TYPE = 12;
+
+    private final ExecutorService executor;
+    private final CompletionService<Result> completion;
+    private int pending;
+
+    private static class Result {
+        final IndividualClassLoader loader;
+        final String name;
+        final byte[] classBytes;
+
+        Result(IndividualClassLoader loader, String name, byte[] classBytes) {
+            this.loader = loader;
+            this.name = name;
+            this.classBytes = classBytes;
+        }
+    }
+
+    /**
+     * @param threads the number of threads to instrument on, or 0 for one per processor
+     */
+    public Preinstrumenter(int threads) {
+        if (threads <= 0)
+            threads = Runtime.getRuntime().availableProcessors();
+        executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "preinstrumenter");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        completion = new ExecutorCompletionService<Result>(executor);
+    }
+
+    /**
+     * Instruments the classes of the given loaders' teams, and hands them to the loaders.  Returns once all of
+     * them are done.
+     */
+    public void run(List<IndividualClassLoader> loaders) {
+        List<Set<String>> seen = new ArrayList<Set<String>>();
+        try {
+            for (IndividualClassLoader loader : loaders) {
+                Set<String> names = new HashSet<String>();
+                seen.add(names);
+                List<String> classes;
+                try {
+                    classes = TeamClassFinder.find(loader.getTeamPackageName());
+                } catch (IOException e) {
+                    // robots will find out for themselves
+                    continue;
+                }
+                for (String name : classes) {
+                    if (names.add(name))
+                        submit(loader, name);
+                }
+            }
+            while (pending > 0) {
+                Result result = take();
+                pending--;
+                if (result.classBytes == null)
+                    continue;
+                result.loader.addPreinstrumented(result.name, result.classBytes);
+                Set<String> names = seen.get(loaders.indexOf(result.loader));
+                for (String name : libraryClasses(result.classBytes)) {
+                    if (names.add(name))
+                        submit(result.loader, name);
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private void submit(final IndividualClassLoader loader, final String name) {
+        pending++;
+        completion.submit(new Callable<Result>() {
+            public Result call() {
+                byte[] classBytes = null;
+                ErrorReporter.suppressReports();
+                try {
+                    classBytes = loader.preinstrument(name);
+                } catch (Throwable t) {
+                    classBytes = null;
+                } finally {
+                    // anything that was reported will be reported again when the class is loaded
+                    if (ErrorReporter.resumeReports() > 0)
+                        classBytes = null;
+                }
+                return new Result(loader, name, classBytes);
+            }
+        });
+    }
+
+    private Result take() {
+        try {
+            return completion.take().get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InstrumentationException();
+        } catch (ExecutionException e) {
+            // errors are caught by the task itself
+            throw new InstrumentationException();
+        }
+    }
+
+    /**
+     * Returns the instrumented library classes that an instrumented class refers to.
+     */
+    static Set<String> libraryClasses(byte[] classBytes) {
+        Set<String> names = new HashSet<String>();
+        ClassReader cr = new ClassReader(classBytes);
+        char[] buf = new char[classBytes.length];
+        int count = cr.readUnsignedShort(8);
+        for (int i = 1; i < count; i++) {
+            int offset = cr.getItem(i);
+            // the second entry of a long or double has no item
+            if (offset == 0)
+                continue;
+            // readUTF8 follows an index to a string in the constant pool
+            String s;
+            switch (classBytes[offset - 1]) {
+                case CONSTANT_CLASS:
+                    s = cr.readUTF8(offset, buf);
+                    break;
+                case CONSTANT_NAME_AND_TYPE:
+                    s = cr.readUTF8(offset + 2, buf);
+                    break;
+                default:
+                    continue;
+            }
+            Matcher m = LIBRARY_CLASS.matcher(s);
+            while (m.find()) {
+                // holders are generated, not instrumented
+                if (!m.group().endsWith(StaticsIndex.HOLDER_SUFFIX))
+                    names.add(m.group());
+            }
+        }
+        return names;
+    }
+}
@@ -10,7 +10,6 @@ import org.objectweb.asm.*;
 import org.objectweb.asm.tree.*;
 
 import java.io.IOException;
-import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
@@ -31,6 +30,12 @@ public class RoboMethodTree extends MethodNode implements Opcodes {
     // all the exception handlers we've seen in the code
     private final Set<LabelNode> exceptionHandlers = new HashSet<LabelNode>();
 
+    // labels that control can reach other than by falling through, or that start or end a try block
+    private final Set<LabelNode> blockStarts = new HashSet<LabelNode>();
+
+    // whether labels that aren't block starts can be left uncounted
+    private final boolean mergeBlocks = InstrumentingClassLoader.mergeBlocks();
+
     private static final Set<String> instrumentedStringFuncs = new HashSet<String>();
 
     static {
@@ -46,8 +51,6 @@ public class RoboMethodTree extends MethodNode implements Opcodes {
 
     private MethodVisitor methodWriter;
 
-    private static boolean checkedFastHash = false, usingFastHash;
-
     public RoboMethodTree(final MethodVisitor mv, final String className, final int access, final String methodName, final String methodDesc, final String signature, final String[] exceptions, final String teamPackageName, final boolean debugMethodsEnabled, boolean silenced, boolean checkDisallowed) {
         super(access, methodName, methodDesc, signature, exceptions);
         this.methodName = methodName;
@@ -58,9 +61,6 @@ public class RoboMethodTree extends MethodNode implements Opcodes {
         this.checkDisallowed = checkDisallowed;
         this.methodDesc = methodDesc;
         methodWriter = mv;
-        if (!checkedFastHash) {
-            usingFastHash = Boolean.getBoolean(battlecode.server.Config.getGlobalConfig().get("bc.server.fast-hash"));
-        }
     }
 
     protected String classReference(String name) {
@@ -83,6 +83,7 @@ public class RoboMethodTree extends MethodNode implements Opcodes {
         for (Object o : tryCatchBlocks) {
             visitTryCatchBlockNode((TryCatchBlockNode) o);
         }
+        findBlockStarts();
         for (AbstractInsnNode node : instructions.toArray()) {
             // node could be taken out of the list
             // or have stuff inserted after it,
@@ -149,6 +150,9 @@ public class RoboMethodTree extends MethodNode implements Opcodes {
 
     private void visitTryCatchBlockNode(TryCatchBlockNode n) {
         exceptionHandlers.add(n.handler);
+        blockStarts.add(n.start);
+        blockStarts.add(n.end);
+        blockStarts.add(n.handler);
         if (n.type != null) {
             n.type = classReference(n.type);
         }
@@ -241,7 +245,7 @@ public class RoboMethodTree extends MethodNode implements Opcodes {
                 instructions.insertBefore(n, new InsnNode(DUP));
                 instructions.insertBefore(n, new MethodInsnNode(INVOKEVIRTUAL, "java/lang/Object", "getClass", "()Ljava/lang/Class;"));
             }
-            n.name = usingFastHash ? "fastHashCode" : "hashCode";
+            n.name = InstrumentingClassLoader.fastHash() ? "fastHashCode" : "hashCode";
             n.owner = "battlecode/engine/instrumenter/lang/ObjectHashCode";
             n.desc = "(ILjava/lang/Object;Ljava/lang/Class;)I";
             n.setOpcode(INVOKESTATIC);
@@ -298,7 +302,7 @@ public class RoboMethodTree extends MethodNode implements Opcodes {
         if (!isDebugMethod)
             bytecodeCtr++;
 
-        MethodCostUtil.MethodData data = MethodCostUtil.getMethodData(n.owner, n.name);
+        MethodCostUtil.MethodData data = MethodCostUtil.getMethodData(n.owner, n.name, teamPackageName);
         if (data != null) {
             bytecodeCtr += data.cost;
             endBasicBlock = data.shouldEndRound;
@@ -322,7 +326,7 @@ public class RoboMethodTree extends MethodNode implements Opcodes {
         // calling is Throwable.printStackTrace.
         // But in practice this should be good enough.
         else if (n.name.equals("printStackTrace") && n.desc.equals("()V") &&
-                (n.owner == null || n.owner.equals("java/lang/Throwable") || isSuperClass(n.owner, "java/lang/Throwable"))) {
+                (n.owner == null || n.owner.equals("java/lang/Throwable") || isSuperClass(n.owner, "java/lang/Throwable", teamPackageName))) {
             instructions.insertBefore(n, new FieldInsnNode(GETSTATIC, "battlecode/engine/instrumenter/lang/System", "out", "Ljava/io/PrintStream;"));
             n.desc = "(Ljava/io/PrintStream;)V";
         } else {
@@ -402,8 +406,92 @@ public class RoboMethodTree extends MethodNode implements Opcodes {
         n.desc = classDescReference(n.desc);
     }
 
+    private void findBlockStarts() {
+        for (AbstractInsnNode n = instructions.getFirst(); n != null; n = n.getNext()) {
+            switch (n.getType()) {
+                case JUMP_INSN:
+                    blockStarts.add(((JumpInsnNode) n).label);
+                    break;
+                case TABLESWITCH_INSN:
+                    blockStarts.add(((TableSwitchInsnNode) n).dflt);
+                    for (Object o : ((TableSwitchInsnNode) n).labels)
+                        blockStarts.add((LabelNode) o);
+                    break;
+                case LOOKUPSWITCH_INSN:
+                    blockStarts.add(((LookupSwitchInsnNode) n).dflt);
+                    for (Object o : ((LookupSwitchInsnNode) n).labels)
+                        blockStarts.add((LabelNode) o);
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Returns true if the code between the given label and the next place where the bytecodes are counted might
+     * throw an exception.
+     */
+    private static boolean mightThrowBeforeCount(LabelNode label) {
+        for (AbstractInsnNode n = label.getNext(); n != null; n = n.getNext()) {
+            switch (n.getType()) {
+                case LABEL:
+                case JUMP_INSN:
+                case TABLESWITCH_INSN:
+                case LOOKUPSWITCH_INSN:
+                    return false;
+                case LINE:
+                case FRAME:
+                case IINC_INSN:
+                    break;
+                case VAR_INSN:
+                    if (n.getOpcode() == RET)
+                        return false;
+                    break;
+                case INT_INSN:
+                    if (n.getOpcode() == NEWARRAY)
+                        return true;
+                    break;
+                case LDC_INSN:
+                    // loading a class constant can fail
+                    if (((LdcInsnNode) n).cst instanceof Type)
+                        return true;
+                    break;
+                case INSN:
+                    switch (n.getOpcode()) {
+                        case IRETURN:
+                        case LRETURN:
+                        case FRETURN:
+                        case DRETURN:
+                        case ARETURN:
+                        case RETURN:
+                        case ATHROW:
+                            return false;
+                        case IDIV:
+                        case LDIV:
+                        case IREM:
+                        case LREM:
+                        case ARRAYLENGTH:
+                        case MONITORENTER:
+                        case MONITOREXIT:
+                            return true;
+                    }
+                    // array loads and stores
+                    if ((n.getOpcode() >= IALOAD && n.getOpcode() <= SALOAD) || (n.getOpcode() >= IASTORE && n.getOpcode() <= SASTORE))
+                        return true;
+                    break;
+                default:
+                    // method calls, field accesses, allocations and casts
+                    return true;
+            }
+        }
+        return false;
+    }
+
     private void visitLabelNode(LabelNode n) {
-        endOfBasicBlock(n);
+        // If control can only reach this label by falling through, and nothing
+        // can throw before the next count, then counting the bytecodes here and
+        // counting them together with the next block's are indistinguishable.
+        if (blockStarts.contains(n) || !mergeBlocks || mightThrowBeforeCount(n))
+            endOfBasicBlock(n);
         if (exceptionHandlers.contains(n))
             bytecodeCtr += GameConstants.EXCEPTION_BYTECODE_PENALTY;
     }
@@ -445,7 +533,7 @@ public class RoboMethodTree extends MethodNode implements Opcodes {
         if (bytecodeCtr == 0)
             return;
         instructions.insertBefore(n, new LdcInsnNode(new Integer(bytecodeCtr)));
-        instructions.insertBefore(n, new MethodInsnNode(INVOKESTATIC, "battlecode/engine/instrumenter/RobotMonitor", "incrementBytecodes", "(I)V"));
+        instructions.insertBefore(n, new MethodInsnNode(INVOKESTATIC, IndividualClassLoader.BYTECODE_METER, "use", "(I)V"));
         bytecodeCtr = 0;
     }
 
@@ -455,21 +543,16 @@ public class RoboMethodTree extends MethodNode implements Opcodes {
      *
      * @param owner      - class to test
      * @param superclass - interface or superclass to test as an ancestor
+     * @param teamPackageName - the team whose code is being instrumented
      * @throws InstrumentationException if class <code>owner</code> cannot be found
      */
-    private static boolean isSuperClass(String owner, String superclass) {
-        ClassReader cr = null;
-
+    private static boolean isSuperClass(String owner, String superclass, String teamPackageName) {
         try {
-            cr = new ClassReader(owner);
+            return ClassHierarchy.isSubclass(owner, superclass, teamPackageName);
         } catch (IOException ioe) {
             ErrorReporter.report("Can't find the class \"" + owner + "\", and this wasn't caught until the RobotMethodAdapter.isSuperClass stage.", true);
             throw new InstrumentationException();
         }
-
-        InterfaceReader ir = new InterfaceReader();
-        cr.accept(ir, ClassReader.SKIP_DEBUG);
-        return Arrays.asList(ir.getInterfaces()).contains(superclass);
     }
 
 }
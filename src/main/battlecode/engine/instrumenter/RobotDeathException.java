@@ -13,7 +13,7 @@ public class RobotDeathException extends VirtualMachineError {
 
     public RobotDeathException() {
         super();
-        RobotMonitor.currentRobotData.thrownRobotDeathException = true;
+        RobotMonitor.getCurrentRobotData().thrownRobotDeathException = true;
     }
 
 }
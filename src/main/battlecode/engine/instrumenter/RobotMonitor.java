@@ -1,37 +1,61 @@
 package battlecode.engine.instrumenter;
 
+import battlecode.engine.Engine;
+import battlecode.engine.ErrorReporter;
 import battlecode.engine.GenericRobot;
 import battlecode.engine.GenericWorld;
 import battlecode.engine.instrumenter.lang.RoboPrintStream;
-import battlecode.engine.instrumenter.lang.SilencedPrintStream;
 import battlecode.engine.scheduler.Scheduler;
 import battlecode.server.Config;
 
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
 
 /**
- * RobotMonitor is a singleton class for monitoring robots' bytecode execution and stack size, and killing robots' threads.  Player's classes should
+ * RobotMonitor monitors robots' bytecode execution and stack size, and kills robots' threads.  Player's classes should
  * be instrumented so that they make calls to RobotMonitor as appropriate.
+ * <p/>
+ * Each Engine has its own RobotMonitor.  The static methods are called from robot threads (by instrumented code,
+ * Clock, and the world) and act on the RobotMonitor of the Engine that the calling thread belongs to.
  *
  * @author adamd
  */
 public class RobotMonitor {
 
-    private static int DEBUG_BYTECODES;
+    private final int DEBUG_BYTECODES;
 
-    private static final Set<Integer> robotsToKill = new HashSet<Integer>();
+    // the most bytecodes a robot may use while its turn can't end, see beginUnmetered
+    private final int UNMETERED_BYTECODES;
+
+    // the RobotData of every robot thread that is still running, by robot ID
+    private final Map<Integer, RobotData> robotData = new HashMap<Integer, RobotData>();
+
+    // robots that were killed before their thread was added to the scheduler
+    private final Set<Integer> robotsToKill = new HashSet<Integer>();
 
     // the RobotData for the currently running robot
-    public volatile static RobotData currentRobotData;
+    private volatile RobotData currentRobotData;
+
+    private final boolean[] silenced = new boolean[2];
+
+    private int debugLevel;
+    private int bytecodeLimit;
+    private int bytecodesLeft;
 
-    private static boolean[] silenced = new boolean[2];
+    // how many calls to beginUnmetered haven't been matched by endUnmetered yet, and what they put aside
+    private int unmeteredDepth;
+    private int savedBytecodesLeft;
+    private int savedDataBytecodesLeft;
+    private int savedDebugLevel;
+    private boolean yieldedWhileUnmetered;
 
-    private static int debugLevel;
-    private static int bytecodeLimit;
-    private static int bytecodesLeft;
+    private final RoboPrintStream.LineState printState = new RoboPrintStream.LineState();
 
-    private static GenericWorld myGameWorld = null;
+    private GenericWorld myGameWorld = null;
+
+    private Scheduler scheduler = null;
 
 
     /**
@@ -41,48 +65,75 @@ public class RobotMonitor {
         public int bytecodesLeft;
         public int debugLevel = 0;
         public final int ID;
+        // the robot this thread runs, or null for the engine thread
+        public final GenericRobot robot;
         public boolean thrownRobotDeathException = false;
+        // set by killRobot; only read and written by the thread holding the turn
+        public boolean killed = false;
+        // the robot's holders for the static state of its team's shared classes, see SharedStatics
+        public Object[] statics;
 
         public RobotData(int ID) {
-            this.ID = ID;
+            this(ID, null);
         }
-    }
 
-    // private constructor enforces the singleton pattern
-    private RobotMonitor() {
+        public RobotData(int ID, GenericRobot robot) {
+            this.ID = ID;
+            this.robot = robot;
+        }
     }
 
-    private static void init() {
-        robotsToKill.clear();
-        Config options = Config.getGlobalConfig();
+    /**
+     * Creates the RobotMonitor for one match.
+     */
+    public RobotMonitor(Config options) {
         silenced[0] = options.getBoolean("bc.engine.silence-a");
         silenced[1] = options.getBoolean("bc.engine.silence-b");
         DEBUG_BYTECODES = options.getInt("bc.engine.debug-max-bytecodes");
+        UNMETERED_BYTECODES = options.getInt("bc.engine.unmetered-max-bytecodes");
+    }
+
+    /**
+     * Returns the RobotMonitor of the Engine that the calling thread belongs to.
+     */
+    public static RobotMonitor current() {
+        return Engine.current().getRobotMonitor();
     }
 
     /**
-     * Resets the internal state of the RobotMonitor.  Should be called between games.
+     * Creates the RobotData for a new robot thread.  Should be called when the thread is added to the scheduler.
      */
-    public static void reset() {
-        init();
+    public RobotData newRobotData(GenericRobot robot) {
+        int robotID = robot.getID();
+        RobotData data = new RobotData(robotID, robot);
+        data.killed = robotsToKill.remove(robotID);
+        robotData.put(robotID, data);
+        return data;
+    }
+
+    /**
+     * Forgets the RobotData of a robot whose thread has exited.
+     */
+    public void robotDied(RobotData data) {
+        robotData.remove(data.ID);
     }
 
     /**
      * Switches the currently active robot to the one referred to by the given RobotData.
      */
-    public static void switchRunner(RobotData newData) {
+    public void switchRunner(RobotData newData) {
 
         // switch RobotData to the new robot
         currentRobotData = newData;
 
-        if (robotsToKill.contains(newData.ID)) {
+        if (newData.killed) {
             //System.out.println("Killing "+newData.ID);
             throw new RobotDeathException();
         }
 
         if (newData.ID >= 0) {
-            myGameWorld.beginningOfExecution(newData.ID);
-            GenericRobot robot = myGameWorld.getRobotByID(newData.ID);
+            myGameWorld.beginningOfExecution(newData.robot);
+            GenericRobot robot = newData.robot;
             bytecodeLimit = robot.getBytecodeLimit();
             debugLevel = currentRobotData.debugLevel;
             currentRobotData.bytecodesLeft += bytecodeLimit;
@@ -91,73 +142,147 @@ public class RobotMonitor {
             else
                 bytecodesLeft = DEBUG_BYTECODES;
 
-            if (silenced[robot.getTeam().ordinal()]) {
-                SilencedPrintStream stream = SilencedPrintStream.theInstance();
-                battlecode.engine.instrumenter.lang.System.out = stream;
-                battlecode.engine.instrumenter.lang.System.err = stream;
-            } else {
-                RoboPrintStream stream = RoboPrintStream.theInstance();
-                stream.changeRobot();
-                battlecode.engine.instrumenter.lang.System.out = stream;
-                battlecode.engine.instrumenter.lang.System.err = stream;
-            }
+            printState.changeRobot(silenced[robot.getTeam().ordinal()]);
         }
     }
 
+    /**
+     * Returns the RobotData of the robot that is running in this RobotMonitor's match.
+     */
+    public RobotData getRunningRobotData() {
+        return currentRobotData;
+    }
+
+    public static RobotData getCurrentRobotData() {
+        return current().currentRobotData;
+    }
+
     public static int getCurrentRobotID() {
-        return currentRobotData.ID;
+        return current().currentRobotData.ID;
     }
 
     public static GenericRobot getCurrentRobot() {
-        return myGameWorld.getRobotByID(currentRobotData.ID);
+        return current().currentRobotData.robot;
+    }
+
+    /**
+     * Returns the state that RoboPrintStream keeps for the currently running robot.
+     */
+    public static RoboPrintStream.LineState getPrintState() {
+        return current().printState;
     }
 
     /**
      * Increments the active robot's debug level.  Should be called at the beginning of any debug method.
      */
     public static void incrementDebugLevel() {
-        if (debugLevel == 0) {
-            currentRobotData.bytecodesLeft = bytecodesLeft;
-            bytecodesLeft = DEBUG_BYTECODES;
+        RobotMonitor monitor = current();
+        if (monitor.debugLevel == 0) {
+            monitor.currentRobotData.bytecodesLeft = monitor.bytecodesLeft;
+            monitor.bytecodesLeft = monitor.DEBUG_BYTECODES;
         }
-        debugLevel++;
+        monitor.debugLevel++;
     }
 
     /**
      * Decrements the active robot's debug level.  Should be called at the end of any debug method.
      */
     public static void decrementDebugLevel() {
-        debugLevel--;
-        if (debugLevel == 0) {
-            bytecodesLeft = currentRobotData.bytecodesLeft;
+        RobotMonitor monitor = current();
+        monitor.debugLevel--;
+        if (monitor.debugLevel == 0) {
+            monitor.bytecodesLeft = monitor.currentRobotData.bytecodesLeft;
         }
     }
 
     /**
      * Increments the currently active robot's bytecode count by the given amount.  If the robot exceeds its bytecode limit for the round,
-     * this method will block until the robot's next round.  Should be called at the end of every basic block.
+     * this method will block until the robot's next round.  Instrumented code calls BytecodeMeter.use instead, which
+     * does the same thing without looking up the current Engine.
      *
      * @param numBytecodes the number of bytecodes the robot just executed
      */
     public static void incrementBytecodes(int numBytecodes) {
-        bytecodesLeft -= numBytecodes;
+        RobotMonitor monitor = current();
+        monitor.bytecodesLeft -= numBytecodes;
 
-        while (bytecodesLeft <= 0) {
-            endRunner();
+        while (monitor.bytecodesLeft <= 0) {
+            monitor.endRun();
         }
     }
 
+    /**
+     * Same as incrementBytecodes, for a RobotMonitor that the caller already has.
+     */
+    public void useBytecodes(int numBytecodes) {
+        bytecodesLeft -= numBytecodes;
+        while (bytecodesLeft <= 0)
+            endRun();
+    }
+
     /**
      * Ends the run of the currently active robot.
      */
     public static void endRunner() {
-        myGameWorld.endOfExecution(currentRobotData.ID);
+        current().endRun();
+    }
+
+    /**
+     * Stops the running robot's turn from ending until the matching call to endUnmetered, which charges the robot
+     * for the bytecodes it used in between.  This is for code that holds a lock that other robots may need, such as
+     * the JVM's lock on a class that all of a team's robots share while it is being initialized: if the robot
+     * ended its turn there, the next robot could block on the lock while holding the turn.
+     * <p/>
+     * A robot that uses more than bc.engine.unmetered-max-bytecodes bytecodes before endUnmetered is killed, and a
+     * robot that yields only ends its turn at endUnmetered.  Calls may be nested.
+     */
+    void beginUnmetered() {
+        if (unmeteredDepth++ > 0)
+            return;
+        savedBytecodesLeft = bytecodesLeft;
+        savedDataBytecodesLeft = currentRobotData.bytecodesLeft;
+        savedDebugLevel = debugLevel;
+        yieldedWhileUnmetered = false;
+        debugLevel = 0;
+        bytecodesLeft = UNMETERED_BYTECODES;
+    }
+
+    /**
+     * Lets the running robot's turn end again, and charges it for the bytecodes it used since beginUnmetered.
+     */
+    void endUnmetered() {
+        if (--unmeteredDepth > 0)
+            return;
+        int used = UNMETERED_BYTECODES - bytecodesLeft;
+        boolean exhausted = bytecodesLeft <= 0;
+        bytecodesLeft = savedBytecodesLeft;
+        currentRobotData.bytecodesLeft = savedDataBytecodesLeft;
+        debugLevel = savedDebugLevel;
+        // a robot that ran out is being killed, and shouldn't be kept from dying
+        if (exhausted)
+            return;
+        useBytecodes(used);
+        if (yieldedWhileUnmetered)
+            endRun();
+    }
+
+    private void endRun() {
+        if (unmeteredDepth > 0) {
+            if (bytecodesLeft <= 0) {
+                ErrorReporter.report("Robot " + currentRobotData.ID + " used more than " + UNMETERED_BYTECODES
+                        + " bytecodes initializing a class that its team's robots share.", false);
+                throw new RobotDeathException();
+            }
+            yieldedWhileUnmetered = true;
+            return;
+        }
+        myGameWorld.endOfExecution(currentRobotData.robot);
         currentRobotData.debugLevel = debugLevel;
         if (debugLevel == 0)
             currentRobotData.bytecodesLeft = bytecodesLeft;
         if (currentRobotData.bytecodesLeft > 0)
             currentRobotData.bytecodesLeft = 0;
-        Scheduler.passToNextThread();
+        scheduler.passToNextThread();
     }
 
     /**
@@ -167,21 +292,31 @@ public class RobotMonitor {
      * @param robotID the integer ID of the robot to kill
      */
     public static void killRobot(int robotID) {
-        robotsToKill.add(robotID);
+        RobotMonitor monitor = current();
+        RobotData data = monitor.robotData.get(robotID);
+        if (data != null)
+            data.killed = true;
+        else
+            monitor.robotsToKill.add(robotID);
     }
 
     /**
      * Returns the bytecode number that the active robot is currently on.  Note that this can be above bytecodeLimit in some cases.
      */
     public static int getBytecodeNum() {
-        return bytecodeLimit - getBytecodesLeft();
+        RobotMonitor monitor = current();
+        return monitor.bytecodeLimit - monitor.bytecodesLeft();
     }
 
     public static int getBytecodeLimit() {
-        return bytecodeLimit;
+        return current().bytecodeLimit;
     }
 
     public static int getBytecodesLeft() {
+        return current().bytecodesLeft();
+    }
+
+    private int bytecodesLeft() {
         if (debugLevel == 0)
             return bytecodesLeft;
         else
@@ -193,30 +328,38 @@ public class RobotMonitor {
      * min(getBytecodeNum(),bytecodeLimit).
      */
     public static int getBytecodesUsed() {
-        int num = getBytecodeNum();
-        return (num <= bytecodeLimit) ? num : bytecodeLimit;
+        RobotMonitor monitor = current();
+        int num = monitor.bytecodeLimit - monitor.bytecodesLeft();
+        return (num <= monitor.bytecodeLimit) ? num : monitor.bytecodeLimit;
     }
 
     /**
      * Returns the percentage of this robot's maximum bytecodes that were used this round.
      */
     public static double getBytecodesUsedPercent() {
-        return (double) getBytecodesUsed() / bytecodeLimit;
+        return (double) getBytecodesUsed() / getBytecodeLimit();
     }
 
     /**
      * Notifies the RobotMonitor of what the current GameWorld is.  Should be called before the start of each game.
      */
-    public static void setGameWorld(GenericWorld gw) {
+    public void setGameWorld(GenericWorld gw) {
         myGameWorld = gw;
     }
 
+    /**
+     * Notifies the RobotMonitor of the Scheduler that runs its robots.
+     */
+    public void setScheduler(Scheduler scheduler) {
+        this.scheduler = scheduler;
+    }
+
     public static boolean thrownRobotDeathException() {
-        return currentRobotData.thrownRobotDeathException;
+        return current().currentRobotData.thrownRobotDeathException;
     }
 
     public static void checkForRobotDeath() {
-        if (currentRobotData.thrownRobotDeathException)
+        if (current().currentRobotData.thrownRobotDeathException)
             throw new RobotDeathException();
     }
 }
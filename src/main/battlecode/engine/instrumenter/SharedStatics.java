@@ -0,0 +1,159 @@
+package battlecode.engine.instrumenter;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The per-robot static state of the classes in one team's shared class loader.  Each holder class generated by
+ * the loader has an index, and every robot keeps its holder objects in an array indexed by it
+ * (RobotData.statics).  The generated holder classes call get() whenever a robot touches a static field or
+ * initializes a class; see StaticsIndex.
+ */
+public class SharedStatics {
+
+    // marks a class whose initialization failed, so that using it again throws NoClassDefFoundError
+    private static final Object ERRONEOUS = new Object();
+
+    private final IndividualClassLoader loader;
+
+    private final RobotMonitor robotMonitor;
+
+    private final List<Class<?>> holders = new ArrayList<Class<?>>();
+    private final List<String> owners = new ArrayList<String>();
+    private final List<Integer> superIndices = new ArrayList<Integer>();
+    // for classes that keep their static fields, whether the JVM has initialized the class yet
+    private final List<Boolean> initializedByJvm = new ArrayList<Boolean>();
+    private final List<Boolean> sharedState = new ArrayList<Boolean>();
+
+    SharedStatics(IndividualClassLoader loader, RobotMonitor robotMonitor) {
+        this.loader = loader;
+        this.robotMonitor = robotMonitor;
+    }
+
+    /**
+     * Reserves an index for a holder class that is about to be generated.
+     */
+    synchronized int reserve() {
+        holders.add(null);
+        owners.add(null);
+        superIndices.add(-1);
+        initializedByJvm.add(false);
+        sharedState.add(false);
+        return holders.size() - 1;
+    }
+
+    /**
+     * Registers a holder class.
+     *
+     * @param owner      the class whose static state the holder holds
+     * @param superIndex the index of the holder that has to be initialized first, or -1
+     * @param shared     true if the class keeps its static fields, and only the JVM's initialization of it stores
+     *                   anything in them
+     */
+    synchronized void register(int index, Class<?> holder, String owner, int superIndex, boolean shared) {
+        holders.set(index, holder);
+        owners.set(index, owner);
+        superIndices.set(index, superIndex);
+        sharedState.set(index, shared);
+    }
+
+    synchronized int indexOf(Class<?> holder) {
+        return holders.indexOf(holder);
+    }
+
+    /**
+     * Returns the current robot's holder object with the given index, initializing the class it belongs to if the
+     * robot hasn't yet.
+     */
+    public Object get(int index) {
+        RobotMonitor.RobotData data = robotMonitor.getRunningRobotData();
+        Object[] statics = data.statics;
+        if (statics != null && index < statics.length) {
+            Object holder = statics[index];
+            if (holder != null && holder != ERRONEOUS)
+                return holder;
+        }
+        return initialize(data, index);
+    }
+
+    private Object initialize(RobotMonitor.RobotData data, int index) {
+        Class<?> holderClass;
+        String owner;
+        int superIndex;
+        boolean initializeInJvm;
+        synchronized (this) {
+            if (data.statics == null || data.statics.length < holders.size())
+                data.statics = data.statics == null ? new Object[holders.size()] : Arrays.copyOf(data.statics, holders.size());
+            holderClass = holders.get(index);
+            owner = owners.get(index);
+            superIndex = superIndices.get(index);
+            // the first robot to use a class that keeps its static fields runs the real
+            // static initializer, and every other robot runs the copy
+            initializeInJvm = sharedState.get(index) && !initializedByJvm.get(index);
+            if (initializeInJvm)
+                initializedByJvm.set(index, true);
+        }
+        if (data.statics[index] == ERRONEOUS)
+            throw new NoClassDefFoundError("Could not initialize class " + owner.replace('/', '.'));
+
+        Object holder;
+        try {
+            holder = holderClass.newInstance();
+        } catch (Exception e) {
+            throw new InstrumentationException();
+        }
+        // the JVM treats a class as initialized as soon as its initialization
+        // starts, so that the static initializer can use the class
+        data.statics[index] = holder;
+        if (superIndex >= 0)
+            get(superIndex);
+
+        if (initializeInJvm) {
+            // the JVM holds a lock on the class until its initializer returns, and any other robot that
+            // uses the class would wait for it, so this robot mustn't end its turn in the meantime
+            robotMonitor.beginUnmetered();
+            try {
+                Class.forName(owner.replace('/', '.'), true, loader);
+            } catch (ClassNotFoundException e) {
+                throw new InstrumentationException();
+            } catch (Error e) {
+                data.statics[index] = ERRONEOUS;
+                throw e;
+            } finally {
+                robotMonitor.endUnmetered();
+            }
+            return holder;
+        }
+        Method clinit = findClinit(owner);
+        if (clinit != null) {
+            try {
+                clinit.invoke(null);
+            } catch (InvocationTargetException e) {
+                data.statics[index] = ERRONEOUS;
+                Throwable cause = e.getCause();
+                if (cause instanceof Error)
+                    throw (Error) cause;
+                throw new ExceptionInInitializerError(cause);
+            } catch (IllegalAccessException e) {
+                throw new InstrumentationException();
+            }
+        }
+        return holder;
+    }
+
+    private Method findClinit(String owner) {
+        try {
+            Class<?> c = loader.loadClass(owner);
+            Method m = c.getDeclaredMethod(StaticsIndex.CLINIT);
+            m.setAccessible(true);
+            return m;
+        } catch (NoSuchMethodException e) {
+            return null;
+        } catch (ClassNotFoundException e) {
+            throw new InstrumentationException();
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package battlecode.engine.instrumenter;
 
 import battlecode.engine.ErrorReporter;
+import battlecode.server.Config;
 
 import java.util.HashMap;
 import java.util.Map;
@@ -10,8 +11,8 @@ class SingletonClassLoader extends InstrumentingClassLoader {
     // caches the classes that have been loaded and designated as reusable, to speed up future attempts to load them
     private final Map<String, Class> loadedReusableClasses = new HashMap<String, Class>();
 
-    protected SingletonClassLoader() {
-        super(false, false);
+    protected SingletonClassLoader(Config options) {
+        super(false, false, options);
     }
 
     protected synchronized Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
@@ -0,0 +1,330 @@
+package battlecode.engine.instrumenter;
+
+import org.apache.commons.io.IOUtils;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.FieldVisitor;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.FieldNode;
+import org.objectweb.asm.tree.MethodNode;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Knows which classes of a team's shared class loader keep their static state per robot, and where that state lives.
+ * <p/>
+ * When a team's classes are shared by all of its robots (see IndividualClassLoader), each class C that has static
+ * initialization code or static fields that aren't compile-time constants gets a holder class, C$$BcStatics.
+ * Every robot has its own instance of the holder, which has an instance field for each of C's static fields, and
+ * C's static initializer is renamed and run once for each robot, the first time that robot initializes C.
+ * StaticsRedirector uses this index to rewrite accesses to static fields and to add the class initialization
+ * checks, and IndividualClassLoader uses it to generate the holder classes.
+ * <p/>
+ * Enums are the exception: Enum.valueOf and EnumMap look up the constants through the Class, so there can only be
+ * one set of them.  An enum keeps its static fields, and the JVM initializes it for the first robot that uses it;
+ * that robot's turn can't end until the initializer returns, since the other robots would wait for it (see
+ * RobotMonitor.beginUnmetered).
+ * Every other robot runs a copy of the static initializer whose results are thrown away, so that each robot still
+ * pays for the initializer and sees its side effects, as it would with its own copy of the class.  Teams whose
+ * enums could be used to pass information between robots are not shared, and neither are teams with interfaces
+ * whose fields need initializing in class files too old to have static methods.
+ */
+class StaticsIndex implements Opcodes {
+
+    static final String HOLDER_SUFFIX = "$$BcStatics";
+
+    static final String CLINIT = "$bc$clinit";
+
+    static final String STATICS_FIELD = "$bc$statics";
+
+    private static final String SHARED_STATICS = "battlecode/engine/instrumenter/SharedStatics";
+
+    private static final int V1_8 = 52;
+
+    /**
+     * What we need to know about a class, with all class names as the instrumenter would rename them.
+     */
+    static class ClassInfo {
+        String name;
+        int access;
+        int version;
+        String superName;
+        String[] interfaces;
+        // the fields declared by the class, in order
+        final Map<String, FieldNode> fields = new HashMap<String, FieldNode>();
+        final List<FieldNode> fieldList = new ArrayList<FieldNode>();
+        // name + desc of each method declared by the class
+        final Set<String> methods = new HashSet<String>();
+        boolean hasClinit;
+        boolean hasHolder;
+        // true if the class's static fields are shared by all robots even though it has a holder
+        boolean sharedState;
+    }
+
+    /**
+     * A field, and the class that declares it.
+     */
+    static class FieldRef {
+        final ClassInfo declarer;
+        final FieldNode field;
+
+        FieldRef(ClassInfo declarer, FieldNode field) {
+            this.declarer = declarer;
+            this.field = field;
+        }
+    }
+
+    private final String teamPackageName;
+
+    private final Map<String, ClassInfo> classes = new HashMap<String, ClassInfo>();
+
+    // classes that couldn't be read
+    private final Set<String> missing = new HashSet<String>();
+
+    StaticsIndex(String teamPackageName) {
+        this.teamPackageName = teamPackageName;
+    }
+
+    static boolean isConstant(FieldNode f) {
+        return (f.access & (ACC_STATIC | ACC_FINAL)) == (ACC_STATIC | ACC_FINAL) && f.value != null;
+    }
+
+    static boolean isEnum(ClassInfo info) {
+        return (info.access & ACC_ENUM) != 0 && "java/lang/Enum".equals(info.superName);
+    }
+
+    /**
+     * Returns true if the given class is loaded by the team's class loader, and so has per-robot static state.
+     */
+    boolean isShared(String name) {
+        return name.startsWith(teamPackageName + "/")
+                || name.startsWith("instrumented/")
+                || IndividualClassLoader.isPerRobotEngineClass(name);
+    }
+
+    /**
+     * Returns the ClassInfo for the given class, or null if it isn't one of the team's classes or can't be read.
+     */
+    synchronized ClassInfo info(String name) {
+        if (name == null || !isShared(name) || name.endsWith(HOLDER_SUFFIX))
+            return null;
+        ClassInfo info = classes.get(name);
+        if (info != null || missing.contains(name))
+            return info;
+        byte[] bytes = readOriginal(name);
+        if (bytes == null) {
+            missing.add(name);
+            return null;
+        }
+        info = read(name, bytes);
+        classes.put(name, info);
+        return info;
+    }
+
+    static byte[] readOriginal(String name) {
+        InputStream in = ClassLoader.getSystemResourceAsStream(
+                (name.startsWith("instrumented/") ? name.substring(13) : name) + ".class");
+        if (in == null)
+            return null;
+        try {
+            return IOUtils.toByteArray(in);
+        } catch (IOException e) {
+            return null;
+        } finally {
+            IOUtils.closeQuietly(in);
+        }
+    }
+
+    private ClassInfo read(String name, byte[] bytes) {
+        ClassNode node = new ClassNode();
+        new ClassReader(bytes).accept(node, ClassReader.SKIP_CODE | ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+        // the engine classes that each robot gets its own copy of aren't renamed
+        boolean rename = !IndividualClassLoader.isPerRobotEngineClass(name);
+        ClassInfo info = new ClassInfo();
+        info.name = name;
+        info.access = node.access;
+        info.version = node.version;
+        info.superName = rename ? rename(node.superName) : node.superName;
+        info.interfaces = new String[node.interfaces.size()];
+        for (int i = 0; i < info.interfaces.length; i++)
+            info.interfaces[i] = rename ? rename((String) node.interfaces.get(i)) : (String) node.interfaces.get(i);
+        for (Object o : node.fields) {
+            FieldNode f = (FieldNode) o;
+            if (rename)
+                f.desc = ClassReferenceUtil.classDescReference(f.desc, teamPackageName, false, false);
+            info.fields.put(f.name, f);
+            info.fieldList.add(f);
+        }
+        for (Object o : node.methods) {
+            MethodNode m = (MethodNode) o;
+            if ("<clinit>".equals(m.name))
+                info.hasClinit = true;
+            else
+                info.methods.add(m.name + (rename ? ClassReferenceUtil.methodDescReference(m.desc, teamPackageName, false, false) : m.desc));
+        }
+        boolean hasStatics = false;
+        for (FieldNode f : info.fieldList)
+            if ((f.access & ACC_STATIC) != 0 && !isConstant(f))
+                hasStatics = true;
+        boolean interfaceWithoutStaticMethods = (info.access & ACC_INTERFACE) != 0 && (info.version & 0xffff) < V1_8;
+        info.sharedState = isEnum(info);
+        info.hasHolder = (info.sharedState ? info.hasClinit : hasStatics || info.hasClinit) && !interfaceWithoutStaticMethods;
+        return info;
+    }
+
+    private String rename(String name) {
+        return name == null ? null : ClassReferenceUtil.classReference(name, teamPackageName, false, false);
+    }
+
+    /**
+     * Returns true if each robot has to initialize the given class itself.
+     */
+    boolean hasHolder(String name) {
+        ClassInfo info = info(name);
+        return info != null && info.hasHolder;
+    }
+
+    /**
+     * Returns true if the given class's static fields are in its holder rather than in the class.
+     */
+    boolean hasPerRobotFields(String name) {
+        ClassInfo info = info(name);
+        return info != null && info.hasHolder && !info.sharedState;
+    }
+
+    static String holderName(String name) {
+        return name + HOLDER_SUFFIX;
+    }
+
+    /**
+     * Returns the class whose holder has to be created when a robot initializes the given class: the class itself,
+     * or its nearest superclass with a holder.  Returns null if initializing the class doesn't change any per-robot
+     * state.
+     */
+    String initTarget(String name) {
+        for (ClassInfo info = info(name); info != null; info = info(info.superName)) {
+            if (info.hasHolder)
+                return info.name;
+        }
+        return null;
+    }
+
+    /**
+     * Returns true if sup is sub or one of its superclasses.
+     */
+    boolean isSubclass(String sub, String sup) {
+        for (ClassInfo info = info(sub); info != null; info = info(info.superName)) {
+            if (info.name.equals(sup))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Finds a field the way the JVM does: in the class itself, then its superinterfaces, then its superclass.
+     *
+     * @return the field, or null if it isn't declared by one of the team's classes
+     */
+    FieldRef resolveField(String owner, String name) {
+        ClassInfo info = info(owner);
+        if (info == null)
+            return null;
+        FieldNode f = info.fields.get(name);
+        if (f != null)
+            return new FieldRef(info, f);
+        for (String i : info.interfaces) {
+            FieldRef ref = resolveField(i, name);
+            if (ref != null)
+                return ref;
+        }
+        return resolveField(info.superName, name);
+    }
+
+    /**
+     * Returns the class that declares the given method, looking in the given class and its superclasses.
+     */
+    String resolveMethod(String owner, String name, String desc) {
+        for (ClassInfo info = info(owner); info != null; info = info(info.superName)) {
+            if (info.methods.contains(name + desc))
+                return info.name;
+        }
+        return null;
+    }
+
+    /**
+     * Returns the reason that the given team class keeps state that all robots would share, or null if it doesn't.
+     */
+    String checkShareable(String name) {
+        ClassInfo info = info(name);
+        if (info == null)
+            return null;
+        if ((info.access & ACC_INTERFACE) != 0 && (info.version & 0xffff) < V1_8 && info.hasClinit)
+            return "interface " + name + " has static fields that aren't constants";
+        if (isEnum(info)) {
+            for (FieldNode f : info.fieldList) {
+                boolean isStatic = (f.access & ACC_STATIC) != 0;
+                if (isStatic && ((f.access & ACC_ENUM) != 0 || "$VALUES".equals(f.name) || isConstant(f)))
+                    continue;
+                if (!isStatic && (f.access & ACC_FINAL) != 0 && isImmutableType(f.desc))
+                    continue;
+                return "enum " + name + " has a field, " + f.name + ", that can be changed";
+            }
+        }
+        return null;
+    }
+
+    private static boolean isImmutableType(String desc) {
+        return desc.length() == 1 || desc.equals("Ljava/lang/String;");
+    }
+
+    /**
+     * Generates the holder class for the given class.
+     *
+     * @param index the index that the holder's get() method asks SharedStatics for
+     */
+    byte[] generateHolder(String name, int index) {
+        ClassInfo info = info(name);
+        String holder = holderName(name);
+        ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        cw.visit(V1_6, ACC_PUBLIC | ACC_FINAL | ACC_SUPER | ACC_SYNTHETIC, holder, null, "java/lang/Object", null);
+
+        FieldVisitor fv = cw.visitField(ACC_PUBLIC | ACC_STATIC, STATICS_FIELD, "L" + SHARED_STATICS + ";", null, null);
+        fv.visitEnd();
+        for (FieldNode f : info.fieldList) {
+            if ((f.access & ACC_STATIC) != 0 && !isConstant(f) && !info.sharedState) {
+                fv = cw.visitField(ACC_PUBLIC, f.name, f.desc, null, null);
+                fv.visitEnd();
+            }
+        }
+
+        MethodVisitor mv = cw.visitMethod(ACC_PUBLIC, "<init>", "()V", null, null);
+        mv.visitCode();
+        mv.visitVarInsn(ALOAD, 0);
+        mv.visitMethodInsn(INVOKESPECIAL, "java/lang/Object", "<init>", "()V");
+        mv.visitInsn(RETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+
+        mv = cw.visitMethod(ACC_PUBLIC | ACC_STATIC, "get", "()L" + holder + ";", null, null);
+        mv.visitCode();
+        mv.visitFieldInsn(GETSTATIC, holder, STATICS_FIELD, "L" + SHARED_STATICS + ";");
+        mv.visitLdcInsn(index);
+        mv.visitMethodInsn(INVOKEVIRTUAL, SHARED_STATICS, "get", "(I)Ljava/lang/Object;");
+        mv.visitTypeInsn(CHECKCAST, holder);
+        mv.visitInsn(ARETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+
+        cw.visitEnd();
+        return cw.toByteArray();
+    }
+}
@@ -0,0 +1,164 @@
+package battlecode.engine.instrumenter;
+
+import org.objectweb.asm.ClassAdapter;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.FieldVisitor;
+import org.objectweb.asm.MethodAdapter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.tree.MethodNode;
+
+/**
+ * Moves the static state of a class that is shared by all of a team's robots into per-robot holder objects (see
+ * StaticsIndex).
+ * <p/>
+ * Static fields that aren't compile-time constants are removed, and every access to one is replaced by an access
+ * to the field of the same name in the current robot's holder.  The static initializer is renamed so that it can be
+ * run once per robot, and the places where the JVM would initialize a class (new, invokestatic and static field
+ * accesses) get a call that initializes the class for the current robot if it hasn't been yet.
+ * <p/>
+ * Enums keep their static fields and static initializer, and get a copy of the initializer that doesn't store
+ * anything in them instead.
+ * <p/>
+ * This runs after RoboAdapter, so the instructions it adds don't count against the robot's bytecodes.
+ */
+class StaticsRedirector extends ClassAdapter implements Opcodes {
+
+    private final StaticsIndex index;
+
+    private String className;
+    private boolean hasHolder;
+    private boolean perRobotFields;
+
+    StaticsRedirector(ClassVisitor cv, StaticsIndex index) {
+        super(cv);
+        this.index = index;
+    }
+
+    @Override
+    public void visit(int version, int access, String name, String signature, String superName, String[] interfaces) {
+        className = name;
+        hasHolder = index.hasHolder(name);
+        perRobotFields = index.hasPerRobotFields(name);
+        super.visit(version, access, name, signature, superName, interfaces);
+    }
+
+    @Override
+    public FieldVisitor visitField(int access, String name, String desc, String signature, Object value) {
+        boolean constant = (access & (ACC_STATIC | ACC_FINAL)) == (ACC_STATIC | ACC_FINAL) && value != null;
+        if (perRobotFields && (access & ACC_STATIC) != 0 && !constant)
+            return null;
+        return super.visitField(access, name, desc, signature, value);
+    }
+
+    @Override
+    public MethodVisitor visitMethod(int access, String name, String desc, String signature, String[] exceptions) {
+        if (hasHolder && "<clinit>".equals(name)) {
+            if (!perRobotFields)
+                return new InitializerCopier(access, desc, signature, exceptions);
+            name = StaticsIndex.CLINIT;
+            access = ACC_PUBLIC | ACC_STATIC | ACC_SYNTHETIC;
+        }
+        MethodVisitor mv = super.visitMethod(access, name, desc, signature, exceptions);
+        return mv == null ? null : new Redirector(mv);
+    }
+
+    /**
+     * Writes the static initializer of a class that keeps its static fields, and a copy of it that doesn't store
+     * anything in them.
+     */
+    private class InitializerCopier extends MethodNode {
+
+        InitializerCopier(int access, String desc, String signature, String[] exceptions) {
+            super(access, "<clinit>", desc, signature, exceptions);
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public void visitEnd() {
+            String[] exceptionArray = (String[]) exceptions.toArray(new String[exceptions.size()]);
+            MethodVisitor writer = cv.visitMethod(access, name, desc, signature, exceptionArray);
+            if (writer != null)
+                accept(new Redirector(writer));
+            // the labels can't be shared by two methods
+            instructions.resetLabels();
+            writer = cv.visitMethod(ACC_PUBLIC | ACC_STATIC | ACC_SYNTHETIC, StaticsIndex.CLINIT, desc, signature, exceptionArray);
+            if (writer != null) {
+                accept(new Redirector(new MethodAdapter(writer) {
+                    @Override
+                    public void visitFieldInsn(int opcode, String owner, String name, String desc) {
+                        if (opcode == PUTSTATIC && owner.equals(className))
+                            mv.visitInsn(Type.getType(desc).getSize() == 2 ? POP2 : POP);
+                        else
+                            mv.visitFieldInsn(opcode, owner, name, desc);
+                    }
+                }));
+            }
+        }
+    }
+
+    private class Redirector extends MethodAdapter {
+
+        Redirector(MethodVisitor mv) {
+            super(mv);
+        }
+
+        @Override
+        public void visitFieldInsn(int opcode, String owner, String name, String desc) {
+            if ((opcode == GETSTATIC || opcode == PUTSTATIC) && index.isShared(owner)) {
+                StaticsIndex.FieldRef ref = index.resolveField(owner, name);
+                if (ref != null && (ref.field.access & ACC_STATIC) != 0) {
+                    if (ref.declarer.hasHolder && !ref.declarer.sharedState && !StaticsIndex.isConstant(ref.field)) {
+                        String holder = StaticsIndex.holderName(ref.declarer.name);
+                        mv.visitMethodInsn(INVOKESTATIC, holder, "get", "()L" + holder + ";");
+                        if (opcode == GETSTATIC) {
+                            mv.visitFieldInsn(GETFIELD, holder, name, desc);
+                        } else {
+                            // move the holder under the value
+                            if (Type.getType(desc).getSize() == 2) {
+                                mv.visitInsn(DUP_X2);
+                                mv.visitInsn(POP);
+                            } else
+                                mv.visitInsn(SWAP);
+                            mv.visitFieldInsn(PUTFIELD, holder, name, desc);
+                        }
+                        return;
+                    }
+                    initialize(ref.declarer.name);
+                }
+            }
+            mv.visitFieldInsn(opcode, owner, name, desc);
+        }
+
+        @Override
+        public void visitMethodInsn(int opcode, String owner, String name, String desc) {
+            if (opcode == INVOKESTATIC && index.isShared(owner)) {
+                String declarer = index.resolveMethod(owner, name, desc);
+                if (declarer != null)
+                    initialize(declarer);
+            }
+            mv.visitMethodInsn(opcode, owner, name, desc);
+        }
+
+        @Override
+        public void visitTypeInsn(int opcode, String type) {
+            if (opcode == NEW && index.isShared(type))
+                initialize(type);
+            mv.visitTypeInsn(opcode, type);
+        }
+
+        /**
+         * Makes sure the given class has been initialized for the current robot.  Code in a class can only run
+         * after the class has been initialized, so there's no need to check the class itself or its superclasses.
+         */
+        private void initialize(String name) {
+            String target = index.initTarget(name);
+            if (target == null || index.isSubclass(className, target))
+                return;
+            String holder = StaticsIndex.holderName(target);
+            mv.visitMethodInsn(INVOKESTATIC, holder, "get", "()L" + holder + ";");
+            mv.visitInsn(POP);
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package battlecode.engine.instrumenter;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.JarURLConnection;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+/**
+ * Finds the class files of a team on the class path, whether they are in a
+ * directory or in a jar.
+ */
+class TeamClassFinder {
+
+    private TeamClassFinder() {
+    }
+
+    /**
+     * Returns the binary names (e.g., "team666/navigation/Navigator") of all of the classes in the given team's
+     * package and its subpackages.
+     */
+    static List<String> find(String teamPackageName) throws IOException {
+        Set<String> names = new LinkedHashSet<String>();
+        Enumeration<URL> urls = ClassLoader.getSystemResources(teamPackageName);
+        while (urls.hasMoreElements()) {
+            URL url = urls.nextElement();
+            if ("file".equals(url.getProtocol())) {
+                File dir;
+                try {
+                    dir = new File(url.toURI());
+                } catch (URISyntaxException e) {
+                    dir = new File(url.getPath());
+                }
+                addDirectory(names, dir, teamPackageName);
+            } else if ("jar".equals(url.getProtocol())) {
+                JarFile jar = ((JarURLConnection) url.openConnection()).getJarFile();
+                Enumeration<JarEntry> entries = jar.entries();
+                while (entries.hasMoreElements()) {
+                    String name = entries.nextElement().getName();
+                    if (name.startsWith(teamPackageName + "/") && name.endsWith(".class"))
+                        names.add(name.substring(0, name.length() - 6));
+                }
+            }
+        }
+        return new ArrayList<String>(names);
+    }
+
+    private static void addDirectory(Set<String> names, File dir, String packageName) {
+        File[] files = dir.listFiles();
+        if (files == null)
+            return;
+        for (File f : files) {
+            if (f.isDirectory())
+                addDirectory(names, f, packageName + "/" + f.getName());
+            else if (f.getName().endsWith(".class"))
+                names.add(packageName + "/" + f.getName().substring(0, f.getName().length() - 6));
+        }
+    }
+}
@@ -1,5 +1,7 @@
 package battlecode.engine.instrumenter;
 
+import battlecode.server.Config;
+
 /**
  * Used to verify that a team's submission will pass the instrumenter when it's run.
  * <p/>
@@ -16,7 +18,7 @@ public class Verifier {
         String teamPackageName = args[0];
         //System.setOut(System.err);
         try {
-            InstrumentingClassLoader icl = new IndividualClassLoader(teamPackageName, false, true, false);
+            InstrumentingClassLoader icl = new IndividualClassLoader(teamPackageName, false, true, false, new IndividualClassLoader.Cache(new Config(new String[0])));
             icl.loadClass(teamPackageName + ".RobotPlayer");
         } catch (Exception e) {
             System.out.println(e);
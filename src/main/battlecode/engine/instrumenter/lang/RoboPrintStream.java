@@ -9,14 +9,30 @@ import java.io.PrintStream;
 /**
  * RoboPrintStream is a wrapper for java.lang.System.out that prepends a string identifying the current robot to
  * all outputted strings.  Also, RoboPrintStream will silence all output if the robot should be silenced.
+ * <p/>
+ * A single RoboPrintStream is shared by every match; the state for the robot that is currently printing is kept
+ * by each match's RobotMonitor.
  *
  * @author adamd
  */
 public class RoboPrintStream extends PrintStream {
 
-    private boolean alreadyInLine = false;
-
-    private String header;
+    /**
+     * The printing state of one match.
+     */
+    public static class LineState {
+        private boolean alreadyInLine = false;
+        private String header;
+        private boolean silenced;
+
+        /**
+         * Should be called whenever a new robot starts running.
+         */
+        public void changeRobot(boolean silenced) {
+            this.header = null;
+            this.silenced = silenced;
+        }
+    }
 
     private static RoboPrintStream theInstance = new RoboPrintStream();
 
@@ -61,6 +77,9 @@ public class RoboPrintStream extends PrintStream {
     }
 
     public void print(Object obj) {
+        // don't call toString() on behalf of a silenced robot
+        if (isSilenced())
+            return;
         printHelper(String.valueOf(obj));
     }
 
@@ -101,6 +120,8 @@ public class RoboPrintStream extends PrintStream {
     }
 
     public void println(Object obj) {
+        if (isSilenced())
+            return;
         printlnHelper(String.valueOf(obj));
     }
 
@@ -122,11 +143,15 @@ public class RoboPrintStream extends PrintStream {
     }
 
     public PrintStream append(CharSequence csq) {
+        if (isSilenced())
+            return this;
         this.printHelper(String.valueOf(csq));
         return this;
     }
 
     public PrintStream append(CharSequence csq, int start, int end) {
+        if (isSilenced())
+            return this;
         this.printHelper(csq.subSequence(start, end).toString());
         return this;
     }
@@ -143,11 +168,15 @@ public class RoboPrintStream extends PrintStream {
     }
 
     public PrintStream format(String format, Object... args) {
+        if (isSilenced())
+            return this;
         this.printHelper(String.format(format, args));
         return this;
     }
 
     public PrintStream printf(String format, Object... args) {
+        if (isSilenced())
+            return this;
         this.printHelper(String.format(format, args));
         return this;
     }
@@ -164,31 +193,38 @@ public class RoboPrintStream extends PrintStream {
     //*** HELPER METHODS ***
     //**************************
 
-    public void changeRobot() {
-        header = null;
+    private static boolean isSilenced() {
+        return RobotMonitor.getPrintState().silenced;
     }
 
-    private void checkHeader() {
-        if (header == null) {
-            header = String.format("[%s@%d] ", RobotMonitor.getCurrentRobot().toString(), Engine.getRoundNum());
+    private static String header(LineState state) {
+        if (state.header == null) {
+            state.header = String.format("[%s@%d] ", RobotMonitor.getCurrentRobot().toString(), Engine.getRoundNum());
         }
+        return state.header;
     }
 
     private void printHelper(String s) {
-        checkHeader();
-        if (!alreadyInLine)
+        LineState state = RobotMonitor.getPrintState();
+        if (state.silenced)
+            return;
+        String header = header(state);
+        if (!state.alreadyInLine)
             java.lang.System.out.print(header);
         java.lang.System.out.print(s);
-        alreadyInLine = true;
+        state.alreadyInLine = true;
     }
 
     private void printlnHelper(String s) {
-        checkHeader();
-        if (!alreadyInLine) {
+        LineState state = RobotMonitor.getPrintState();
+        if (state.silenced)
+            return;
+        String header = header(state);
+        if (!state.alreadyInLine) {
             java.lang.System.out.print(header);
         }
         java.lang.System.out.println(s);
-        alreadyInLine = false;
+        state.alreadyInLine = false;
     }
 
 }
@@ -1,7 +1,7 @@
 package battlecode.engine.instrumenter.lang;
 
+import battlecode.engine.Engine;
 import battlecode.engine.instrumenter.RobotMonitor;
-import battlecode.server.Config;
 
 import java.io.InputStream;
 import java.io.PrintStream;
@@ -32,7 +32,7 @@ public final class System {
 
     public static String getProperty(String key) {
         if (key.startsWith("bc.testing."))
-            return Config.getGlobalConfig().get(key);
+            return Engine.current().getOptions().get(key);
         else
             return null;
     }
@@ -42,9 +42,9 @@ public final class System {
         return (s == null) ? def : s;
     }
 
-    // set by RobotMonitor
-    public static PrintStream out;
-    public static PrintStream err;
+    // shared by all matches, RobotMonitor keeps track of which robot is printing
+    public static PrintStream out = RoboPrintStream.theInstance();
+    public static PrintStream err = RoboPrintStream.theInstance();
     public static InputStream in = new InputStream() {
         public int read() throws java.io.IOException {
             throw new java.io.EOFException();
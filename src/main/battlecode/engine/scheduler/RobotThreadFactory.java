@@ -0,0 +1,140 @@
+package battlecode.engine.scheduler;
+
+import battlecode.engine.ErrorReporter;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Creates the threads that robots run on.  The backend is chosen with the
+ * bc.engine.robot-threads option:
+ * <ul>
+ * <li><code>platform</code> gives every robot its own daemon OS thread (the default).</li>
+ * <li><code>virtual</code> runs every robot on a virtual thread, so a robot only
+ * occupies a carrier thread while it holds its turn.  Handing the turn to the
+ * next robot with LockSupport.park/unpark then unmounts the robot instead of
+ * putting an OS thread to sleep.  This backend is experimental, see below.</li>
+ * </ul>
+ * Platform threads are created with the stack size given by
+ * bc.engine.robot-stack-kb, or the JVM's default stack size if it is 0.
+ * <p/>
+ * The Scheduler works the same way with either backend, so robots still run in
+ * strict round-robin order and RobotMonitor can still suspend a robot in the
+ * middle of a basic block.
+ * <p/>
+ * Virtual threads are looked up reflectively because the engine is compiled
+ * for older JVMs; if the running JVM does not have them we fall back to
+ * platform threads.
+ * <p/>
+ * A virtual thread can't unmount while it is running a class's static
+ * initializer, so a robot that runs out of bytecodes there parks with its
+ * carrier thread still pinned.  (Engine code such as SharedStatics keeps
+ * robots from ending their turn while the JVM initializes a class that other
+ * robots use, but each robot's own classes are initialized as the robot runs.)
+ * The JVM has about one carrier thread per processor, so once that many robots
+ * are pinned, the robot whose turn it is can't run and the match hangs.  Until
+ * that is fixed, use the virtual backend only with players whose initializers
+ * are cheap, or raise the number of carriers with
+ * -Djdk.virtualThreadScheduler.parallelism=N, where N is more than the number
+ * of robots.
+ */
+public abstract class RobotThreadFactory implements ThreadFactory {
+
+    public static final String PLATFORM = "platform";
+    public static final String VIRTUAL = "virtual";
+
+    // the hazard described above is pointed out once per JVM
+    private static boolean warnedAboutVirtual;
+
+    /**
+     * Returns a factory for the given backend name.
+     *
+     * @param stackSize the stack size of platform threads in bytes, or 0 for the JVM's default
+     */
+    public static RobotThreadFactory create(String backend, long stackSize) {
+        if (backend == null || PLATFORM.equalsIgnoreCase(backend))
+            return new Platform(stackSize);
+        if (VIRTUAL.equalsIgnoreCase(backend)) {
+            RobotThreadFactory virtual = Virtual.create();
+            if (virtual != null) {
+                warnAboutVirtual();
+                return virtual;
+            }
+            ErrorReporter.report("Virtual threads are not supported by this JVM, using platform threads instead", false);
+            return new Platform(stackSize);
+        }
+        ErrorReporter.report("Unknown robot thread backend \"" + backend + "\", using platform threads instead", false);
+        return new Platform(stackSize);
+    }
+
+    private static synchronized void warnAboutVirtual() {
+        if (warnedAboutVirtual)
+            return;
+        warnedAboutVirtual = true;
+        System.out.println("[Engine] Virtual robot threads are experimental: a match can hang if more robots than "
+                + "there are carrier threads run out of bytecodes in a static initializer");
+    }
+
+    /**
+     * Returns the name of this backend, for logging.
+     */
+    public abstract String getName();
+
+    private static class Platform extends RobotThreadFactory {
+
+        private final long stackSize;
+
+        Platform(long stackSize) {
+            this.stackSize = stackSize;
+        }
+
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(null, r, "robot", stackSize);
+            t.setDaemon(true);
+            return t;
+        }
+
+        public String getName() {
+            return PLATFORM;
+        }
+    }
+
+    private static class Virtual extends RobotThreadFactory {
+
+        private final Method ofVirtual;
+        private final Method unstarted;
+
+        private Virtual(Method ofVirtual, Method unstarted) {
+            this.ofVirtual = ofVirtual;
+            this.unstarted = unstarted;
+        }
+
+        static Virtual create() {
+            try {
+                Method ofVirtual = Thread.class.getMethod("ofVirtual");
+                Method unstarted = Class.forName("java.lang.Thread$Builder").getMethod("unstarted", Runnable.class);
+                return new Virtual(ofVirtual, unstarted);
+            } catch (NoSuchMethodException e) {
+                return null;
+            } catch (ClassNotFoundException e) {
+                return null;
+            }
+        }
+
+        public Thread newThread(Runnable r) {
+            try {
+                // virtual threads are always daemon threads
+                return (Thread) unstarted.invoke(ofVirtual.invoke(null), r);
+            } catch (Exception e) {
+                ErrorReporter.report(e);
+                Thread t = new Thread(r);
+                t.setDaemon(true);
+                return t;
+            }
+        }
+
+        public String getName() {
+            return VIRTUAL;
+        }
+    }
+}
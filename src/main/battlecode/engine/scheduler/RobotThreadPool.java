@@ -0,0 +1,139 @@
+package battlecode.engine.scheduler;
+
+import battlecode.engine.ErrorReporter;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A pool of threads for running robots.  When a robot dies its thread is
+ * returned to the pool, and the next robot that is spawned runs on it instead
+ * of on a new thread.
+ * <p/>
+ * The pool belongs to a Scheduler and, like the Scheduler's list of threads,
+ * is only changed by the thread that holds the turn, so it needs no locking.
+ * Idle threads are parked until they are given a robot to run or the pool is
+ * shut down.
+ */
+public class RobotThreadPool {
+
+    /**
+     * A pooled thread, and the robot it is currently running.
+     */
+    class Carrier implements Runnable {
+        Thread thread;
+        private volatile Runnable task;
+
+        public void run() {
+            while (true) {
+                Runnable r;
+                while ((r = task) == null) {
+                    if (shutDown)
+                        return;
+                    LockSupport.park();
+                }
+                task = null;
+                try {
+                    r.run();
+                } catch (Throwable t) {
+                    // the robot has already died, so the thread can still be reused
+                    ErrorReporter.report(t);
+                }
+            }
+        }
+    }
+
+    private final RobotThreadFactory threadFactory;
+
+    private final List<Carrier> idle = new ArrayList<Carrier>();
+
+    private volatile boolean shutDown;
+
+    private int threadsCreated;
+    private int threadsReused;
+    private int busy;
+    private int peakBusy;
+    private int peakIdle;
+
+    public RobotThreadPool(RobotThreadFactory threadFactory) {
+        this.threadFactory = threadFactory;
+    }
+
+    /**
+     * Runs the given task on an idle thread, or on a new thread if none are idle.
+     *
+     * @return the pooled thread that the task will run on
+     */
+    Carrier execute(Runnable task, String name) {
+        Carrier c;
+        if (idle.isEmpty()) {
+            c = new Carrier();
+            c.thread = threadFactory.newThread(c);
+            c.thread.setName(name);
+            c.task = task;
+            c.thread.start();
+            threadsCreated++;
+        } else {
+            c = idle.remove(idle.size() - 1);
+            c.thread.setName(name);
+            c.task = task;
+            LockSupport.unpark(c.thread);
+            threadsReused++;
+        }
+        busy++;
+        if (busy > peakBusy)
+            peakBusy = busy;
+        return c;
+    }
+
+    /**
+     * Returns a thread to the pool.  Should be called by the thread itself
+     * right before its task returns.
+     */
+    void release(Carrier c) {
+        busy--;
+        idle.add(c);
+        if (idle.size() > peakIdle)
+            peakIdle = idle.size();
+    }
+
+    /**
+     * Stops all of the idle threads.  Threads that are still running a robot
+     * stop when the robot dies.
+     */
+    public void shutDown() {
+        shutDown = true;
+        for (Carrier c : idle)
+            LockSupport.unpark(c.thread);
+        idle.clear();
+    }
+
+    /**
+     * Returns the number of threads that have been created.
+     */
+    public int getThreadsCreated() {
+        return threadsCreated;
+    }
+
+    /**
+     * Returns the number of robots that were run on a thread taken from the pool.
+     */
+    public int getThreadsReused() {
+        return threadsReused;
+    }
+
+    /**
+     * Returns the largest number of robots that were running at once.
+     */
+    public int getPeakBusy() {
+        return peakBusy;
+    }
+
+    /**
+     * Returns the largest number of threads that were idle at once.
+     */
+    public int getPeakIdle() {
+        return peakIdle;
+    }
+}
@@ -1,29 +1,29 @@
 package battlecode.engine.scheduler;
 
+import battlecode.engine.Engine;
 import battlecode.engine.ErrorReporter;
+import battlecode.engine.GenericRobot;
 
 /**
- * ScheduledRunnable is a wrapper for a Runnable, that runs the embedded Runnable in a new thread that is locked into the Scheduler.
+ * ScheduledRunnable is a wrapper for a Runnable, that runs the embedded Runnable in a thread that is locked into the Scheduler.
+ * The thread is taken from the Scheduler's RobotThreadPool, and goes back to the pool when the Runnable returns.
  *
  * @author adamd
  */
 public class ScheduledRunnable implements Runnable {
-    private final int myID;        // the runnable's ID
     private final Runnable myRunnable;
+    private final Engine myEngine; // the engine of the match this runnable belongs to
 
     /**
-     * Creates and runs a new thread that is locked into the Scheduler and runs the given Runnable.
+     * Runs the given Runnable on a thread that is locked into the Scheduler of the calling thread's Engine.
      *
-     * @param r  the Runnable to be run in the Scheduler
-     * @param ID the integer ID that the Scheduler will associate with the given Runnable's thread
+     * @param r     the Runnable to be run in the Scheduler
+     * @param robot the robot that the Scheduler will associate with the given Runnable's thread
      */
-    public ScheduledRunnable(Runnable r, int ID) {
-        myID = ID;
+    public ScheduledRunnable(Runnable r, GenericRobot robot) {
         myRunnable = r;
-        Thread t = new Thread(this, "robot " + ID);
-        t.setDaemon(true);
-        Scheduler.add(t, ID);
-        t.start();
+        myEngine = Engine.current();
+        myEngine.getScheduler().add(this, robot);
     }
 
     /**
@@ -31,6 +31,7 @@ public class ScheduledRunnable implements Runnable {
      */
     public void run() {
 
+        myEngine.bindCurrentThread();
 
         try {
 
@@ -40,7 +41,7 @@ public class ScheduledRunnable implements Runnable {
             e.printStackTrace();
             ErrorReporter.report("Unexpected exception in ScheduledRunnable: " + e.getMessage());
         } finally {
-            Scheduler.die();
+            myEngine.getScheduler().die();
         }
     }
 }
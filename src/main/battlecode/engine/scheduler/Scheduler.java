@@ -1,103 +1,209 @@
 package battlecode.engine.scheduler;
 
 import battlecode.engine.ErrorReporter;
+import battlecode.engine.GenericRobot;
 import battlecode.engine.instrumenter.RobotMonitor;
+import battlecode.server.Config;
 
 import java.util.concurrent.locks.LockSupport;
 
 
+/**
+ * Runs the robot threads of one match, and the engine thread, one at a time in
+ * round-robin order.
+ * <p/>
+ * A thread waiting for its turn first spins for up to bc.engine.scheduler-spin
+ * iterations and only then parks, and a thread handing over its turn only
+ * unparks the next thread if that thread has actually parked.  When a thread
+ * gets its turn, and its recent turns have been shorter than a thread spins
+ * for, it also wakes the thread after it, so that thread is spinning, rather
+ * than parked, by the time its own turn comes.  With many robots that use few
+ * bytecodes most turns are short, and this saves an unpark and a context
+ * switch on most of them; when turns are long, the thread after would only
+ * spin out and park again, so it is left alone.
+ * <p/>
+ * The scheduler counts the handoffs between threads and the time from a
+ * thread giving up its turn to the next thread starting, see getHandoffs()
+ * and getNanosInScheduler().
+ */
 public class Scheduler {
 
     public static class ScheduledThread {
         volatile ScheduledThread next;
         volatile ScheduledThread prev;
         Thread thread;
-        volatile boolean started;
+        RobotThreadPool.Carrier carrier;
+        // set while the thread is parked (or about to park) waiting for its turn
+        volatile boolean parked;
+        // a moving average of how long this thread's turns take, in nanoseconds
+        long turnNanos;
         RobotMonitor.RobotData data;
 
         private ScheduledThread(Thread thread, RobotMonitor.RobotData data) {
             this.thread = thread;
             this.data = data;
-            started = false;
+            parked = false;
         }
     }
 
-    private volatile static ScheduledThread head, current;
+    private volatile ScheduledThread head, current;
 
-    static {
+    private final RobotMonitor robotMonitor;
+
+    private final RobotThreadPool threadPool;
+
+    // the ScheduledThread of the calling thread
+    private final ThreadLocal<ScheduledThread> ownThread = new ThreadLocal<ScheduledThread>();
+
+    // how many times a waiting thread checks whether it is its turn before parking
+    private final int spinLimit;
+
+    // a moving average of how long a thread spins before parking, in
+    // nanoseconds, or 0 if none has parked yet
+    private volatile long spinNanos;
+
+    // only updated by the thread that holds the turn
+    private long handoffs;
+    private long nanosInScheduler;
+    private volatile long handoffStart;
+    private long turnStart;
+
+    /**
+     * Creates the scheduler for one match.
+     */
+    public Scheduler(RobotMonitor robotMonitor, Config options) {
+        this.robotMonitor = robotMonitor;
+        threadPool = new RobotThreadPool(RobotThreadFactory.create(options.get("bc.engine.robot-threads"),
+                options.getInt("bc.engine.robot-stack-kb") * 1024L));
+        // spinning only helps if the thread we are waiting for can run at the same time
+        spinLimit = Runtime.getRuntime().availableProcessors() > 1 ? Math.max(0, options.getInt("bc.engine.scheduler-spin")) : 0;
         head = new ScheduledThread(null, new RobotMonitor.RobotData(-1));
         head.next = head;
         head.prev = head;
         current = head;
     }
 
-    public static void start() {
+    public void start() {
         head.thread = Thread.currentThread();
+        ownThread.set(head);
+        turnStart = System.nanoTime();
     }
 
-    public static void reset() {
+    public void reset() {
         if (head.next != head) {
             ErrorReporter.report("Failed to clean up all threads");
         }
     }
 
     /**
-     * Adds a new thread to the scheduler.
+     * Adds a robot to the scheduler, and starts running the given Runnable
+     * for it on a thread from the thread pool.  The Runnable should call
+     * endTurn() before doing anything else.
      */
-    public static void add(Thread t, int ID) {
-        ScheduledThread st = new ScheduledThread(t, new RobotMonitor.RobotData(ID));
+    public void add(final Runnable r, GenericRobot robot) {
+        final int ID = robot.getID();
+        final ScheduledThread st = new ScheduledThread(null, robotMonitor.newRobotData(robot));
         ScheduledThread last = head.prev;
         last.next = st;
         st.prev = last;
         head.prev = st;
         st.next = head;
+        // the new thread can't get its turn until we give ours up, so it
+        // doesn't matter that it may start before st.thread is set
+        st.carrier = threadPool.execute(new Runnable() {
+            public void run() {
+                ownThread.set(st);
+                r.run();
+            }
+        }, "robot " + ID);
+        st.thread = st.carrier.thread;
     }
 
     /**
      * Removes the current thread from the scheduler.
      * Should be called right before the thread exits.
-     * n
      */
-    public static void die() {
-        ScheduledThread last = current.prev;
-        current = current.next;
-        current.prev = last;
-        last.next = current;
-        wakeupNext();
+    public void die() {
+        ScheduledThread dead = current;
+        ScheduledThread last = dead.prev;
+        ScheduledThread next = dead.next;
+        next.prev = last;
+        last.next = next;
+        robotMonitor.robotDied(dead.data);
+        ownThread.remove();
+        threadPool.release(dead.carrier);
+        handOff(next);
     }
 
     /**
-     * Wakes up the next thread.  Should be followed by a
-     * call to endTurn().
+     * Gives the turn to the given thread, waking it up if it has parked.
      */
-    private static void wakeupNext() {
-        LockSupport.unpark(current.thread);
+    private void handOff(ScheduledThread next) {
+        handoffs++;
+        handoffStart = System.nanoTime();
+        ScheduledThread me = current;
+        me.turnNanos = average(me.turnNanos, handoffStart - turnStart);
+        // current is volatile and is written before parked is read, and the
+        // waiting thread writes parked before it reads current, so either
+        // we see that it parked or it sees that it is its turn
+        current = next;
+        if (next.parked)
+            LockSupport.unpark(next.thread);
+    }
+
+    /**
+     * Waits until it is the given thread's turn.
+     */
+    private void awaitTurn(ScheduledThread me) {
+        int spins = spinLimit;
+        long spinStart = spinLimit > 0 ? System.nanoTime() : 0;
+        while (current != me) {
+            if (spins > 0) {
+                spins--;
+                continue;
+            }
+            if (spinStart != 0) {
+                spinNanos = average(spinNanos, System.nanoTime() - spinStart);
+                spinStart = 0;
+            }
+            me.parked = true;
+            if (current != me)
+                LockSupport.park();
+            me.parked = false;
+            spins = spinLimit;
+        }
+        turnStart = System.nanoTime();
+        nanosInScheduler += turnStart - handoffStart;
+        if (me.turnNanos < spinNanos) {
+            // get the thread after us spinning while we run; it will still
+            // be spinning when we finish
+            ScheduledThread after = me.next;
+            if (after != me && after.parked)
+                LockSupport.unpark(after.thread);
+        }
+    }
+
+    private static long average(long average, long sample) {
+        return average + ((sample - average) >> 3);
     }
 
     /**
      * Ends this thread's turn, but does not wake up the next thread.
      * New robot threads should call this immediately after starting.
      */
-    public static void endTurn() {
-        // we need do-while rather than while in case the current thread
-        // is also the next thread
-        do {
-            LockSupport.park();
-        } while (current.thread != Thread.currentThread());
-        RobotMonitor.switchRunner(current.data);
+    public void endTurn() {
+        awaitTurn(ownThread.get());
+        robotMonitor.switchRunner(current.data);
     }
 
-    //static private volatile long enterTime;
-    //static public volatile long timeInScheduler;
-
     /**
      * Ends this thread's turn and wakes up the next thread.
      */
-    public static void passToNextThread() {
-        //enterTime = System.nanoTime();
+    public void passToNextThread() {
+        ScheduledThread me = current;
         startNextThread();
-        endTurn();
-        //timeInScheduler+=System.nanoTime()-enterTime;
+        awaitTurn(me);
+        robotMonitor.switchRunner(me.data);
     }
 
     /**
@@ -105,9 +211,35 @@ public class Scheduler {
      * by the engine so it can write the match to disk while
      * robots are running.
      */
-    public static void startNextThread() {
-        current = current.next;
-        wakeupNext();
+    public void startNextThread() {
+        handOff(current.next);
+    }
+
+    /**
+     * Stops the threads in the thread pool.  Should be called after all of
+     * the robots have died.
+     */
+    public void shutDown() {
+        threadPool.shutDown();
+    }
+
+    public RobotThreadPool getThreadPool() {
+        return threadPool;
+    }
+
+    /**
+     * Returns the number of times a thread has handed its turn to another thread.
+     */
+    public long getHandoffs() {
+        return handoffs;
+    }
+
+    /**
+     * Returns the total time, in nanoseconds, between threads giving up their
+     * turn and the next thread starting to run.
+     */
+    public long getNanosInScheduler() {
+        return nanosInScheduler;
     }
 
 }
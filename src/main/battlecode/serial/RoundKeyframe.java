@@ -0,0 +1,42 @@
+package battlecode.serial;
+
+import battlecode.engine.signal.Signal;
+
+import java.io.Serializable;
+
+/**
+ * The full state of a match between two rounds, as signals that rebuild it
+ * from an empty map: a spawn signal for each robot, their energon and
+ * shields, the teams' resources and research, and the neutrals map.  Readers
+ * that start from a keyframe apply these, then the RoundDeltas that follow.
+ * <p/>
+ * Only proxies that ask for keyframes (see Proxy.getKeyframeInterval) are
+ * sent them.
+ */
+public class RoundKeyframe implements Serializable {
+
+    private static final long serialVersionUID = 4263920946286853619L;
+    private final int round;
+    private final Signal[] signals;
+
+    /**
+     * @param round   the number of rounds played so far
+     * @param signals the signals that rebuild the state
+     */
+    public RoundKeyframe(int round, Signal[] signals) {
+        this.round = round;
+        this.signals = signals;
+    }
+
+    /**
+     * Returns the number of rounds played so far, which is also the index of
+     * the next RoundDelta in the match.
+     */
+    public int getRound() {
+        return round;
+    }
+
+    public Signal[] getSignals() {
+        return signals;
+    }
+}
@@ -0,0 +1,308 @@
+package battlecode.server;
+
+import battlecode.common.Team;
+import org.apache.commons.io.IOUtils;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Runs every map in bc.game.maps for every pair of teams in bc.batch.pairs,
+ * spreading the matches over a pool of worker JVMs.
+ * <p/>
+ * Each match is run by a separate JVM using the headless server, so a player
+ * that crashes its JVM only loses one match, and matches don't share any
+ * static state.  A JVM that is still running after bc.batch.timeout seconds
+ * is killed, and its match counts as failed, so a wedged JVM only loses one
+ * match too. Every worker slot has its own queue of matches;
+ * when a slot runs out of work it steals from the back of another slot's
+ * queue, so long matches on one map don't leave the other slots idle.
+ * <p/>
+ * For each match, the output directory (bc.batch.output-dir) gets a match
+ * file and a log of the worker's output. When all matches have run, the
+ * results are collected into a single results file (bc.batch.results) with
+ * one line per match followed by a win/loss summary for each pair of teams.
+ */
+public class BatchRunner {
+
+    private final Config options;
+
+    private final File outputDir;
+
+    /**
+     * How long a match may take, in milliseconds, or 0 for no limit.
+     */
+    private final long timeout;
+
+    /**
+     * Kills worker JVMs that run for longer than the timeout.
+     */
+    private final Timer watchdog = new Timer("batch watchdog", true);
+
+    /**
+     * The matches to run, in the order they were specified.
+     */
+    private final List<Job> jobs = new ArrayList<Job>();
+
+    /**
+     * One queue of matches per worker slot.
+     */
+    private final List<LinkedBlockingDeque<Job>> queues = new ArrayList<LinkedBlockingDeque<Job>>();
+
+    /**
+     * A single match in the batch.
+     */
+    private static class Job {
+        final int number;
+        final String teamA;
+        final String teamB;
+        final String map;
+        final String name;
+        MatchResult result;
+
+        Job(int number, String teamA, String teamB, String map) {
+            this.number = number;
+            this.teamA = teamA;
+            this.teamB = teamB;
+            this.map = map;
+            this.name = String.format("%03d-%s-vs-%s-on-%s", number, teamA, teamB, map);
+        }
+    }
+
+    public BatchRunner(Config options) {
+        this.options = options;
+        this.outputDir = new File(options.get("bc.batch.output-dir"));
+        this.timeout = Math.max(0, options.getInt("bc.batch.timeout")) * 1000L;
+
+        String[] pairs = options.get("bc.batch.pairs").trim().length() == 0
+                ? new String[]{options.get("bc.game.team-a") + ":" + options.get("bc.game.team-b")}
+                : options.get("bc.batch.pairs").split(",");
+
+        for (String pair : pairs) {
+            String[] teams = pair.trim().split(":");
+            if (teams.length != 2)
+                throw new IllegalArgumentException("invalid team pair '" + pair + "', expected teamA:teamB");
+            for (String map : options.get("bc.game.maps").split(",")) {
+                map = map.trim();
+                if (map.endsWith(".xml"))
+                    map = map.substring(0, map.length() - ".xml".length());
+                jobs.add(new Job(jobs.size(), teams[0].trim(), teams[1].trim(), map));
+            }
+        }
+
+        int workers = options.getInt("bc.batch.workers");
+        if (workers <= 0)
+            workers = Runtime.getRuntime().availableProcessors();
+        workers = Math.max(1, Math.min(workers, jobs.size()));
+
+        // Deal the matches out in contiguous blocks, so each worker starts
+        // on its own pair of teams and steals only when it runs dry.
+        for (int i = 0; i < workers; i++)
+            queues.add(new LinkedBlockingDeque<Job>());
+        for (Job job : jobs)
+            queues.get(job.number * workers / jobs.size()).addLast(job);
+    }
+
+    /**
+     * Runs all of the matches and writes the results file.
+     *
+     * @return true if every match produced a result
+     */
+    public boolean run() throws IOException {
+        if (!outputDir.isDirectory() && !outputDir.mkdirs())
+            throw new IOException("couldn't create output directory " + outputDir);
+
+        Server.say(String.format("running %d matches on %d workers", jobs.size(), queues.size()));
+        long startTime = System.currentTimeMillis();
+
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < queues.size(); i++) {
+            final int slot = i;
+            Thread t = new Thread(new Runnable() {
+                public void run() {
+                    Job job;
+                    while ((job = nextJob(slot)) != null)
+                        runJob(job);
+                }
+            }, "batch worker " + i);
+            threads.add(t);
+            t.start();
+        }
+        for (Thread t : threads) {
+            try {
+                t.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("interrupted while waiting for batch workers");
+            }
+        }
+        watchdog.cancel();
+
+        boolean complete = writeResults();
+        Server.say(String.format("batch completed in %.4g seconds",
+                (System.currentTimeMillis() - startTime) / 1000.0));
+        return complete;
+    }
+
+    /**
+     * Takes the next match from the given slot's queue, or steals one from
+     * the back of another slot's queue if the slot's own queue is empty.
+     *
+     * @return the next match to run, or null if there are none left
+     */
+    private Job nextJob(int slot) {
+        Job job = queues.get(slot).pollFirst();
+        if (job != null)
+            return job;
+        for (int i = 1; i < queues.size(); i++) {
+            job = queues.get((slot + i) % queues.size()).pollLast();
+            if (job != null)
+                return job;
+        }
+        return null;
+    }
+
+    /**
+     * Runs a single match in a new JVM.
+     */
+    private void runJob(Job job) {
+        File configFile = new File(outputDir, job.name + ".conf");
+        File resultFile = new File(outputDir, job.name + ".result");
+        File logFile = new File(outputDir, job.name + ".log");
+        resultFile.delete();
+
+        try {
+            Config jobOptions = new Config(options);
+            jobOptions.set("bc.server.mode", "headless");
+            jobOptions.set("bc.game.team-a", job.teamA);
+            jobOptions.set("bc.game.team-b", job.teamB);
+            jobOptions.set("bc.game.maps", job.map);
+            jobOptions.set("bc.server.save-file", new File(outputDir, job.name + ".rms").getPath());
+            jobOptions.set("bc.server.results-file", resultFile.getPath());
+            jobOptions.setBoolean("bc.dialog.skip", true);
+            jobOptions.store(configFile.getPath());
+
+            List<String> command = new ArrayList<String>();
+            command.add(new File(new File(System.getProperty("java.home"), "bin"), "java").getPath());
+            for (String arg : options.get("bc.batch.jvm-args").trim().split("\\s+"))
+                if (arg.length() > 0)
+                    command.add(arg);
+            command.add("-cp");
+            command.add(System.getProperty("java.class.path"));
+            command.add(Main.class.getName());
+            command.add("-c");
+            command.add(configFile.getPath());
+
+            Server.say("starting " + job.name);
+            final Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+            process.getOutputStream().close();
+            final AtomicBoolean timedOut = new AtomicBoolean();
+            TimerTask kill = new TimerTask() {
+                public void run() {
+                    timedOut.set(true);
+                    process.destroy();
+                }
+            };
+            if (timeout > 0)
+                watchdog.schedule(kill, timeout);
+            int exitCode;
+            try {
+                OutputStream log = new FileOutputStream(logFile);
+                try {
+                    IOUtils.copy(process.getInputStream(), log);
+                } finally {
+                    log.close();
+                }
+                exitCode = process.waitFor();
+            } finally {
+                kill.cancel();
+            }
+
+            job.result = readResult(resultFile);
+            if (timedOut.get()) {
+                job.result = null;
+                Server.warn(String.format("%s was killed after running for %d seconds, see %s", job.name, timeout / 1000, logFile));
+            } else if (job.result == null)
+                Server.warn(String.format("%s produced no result (exit code %d), see %s", job.name, exitCode, logFile));
+            else
+                Server.say(String.format("finished %s: %s", job.name, describe(job.result)));
+        } catch (IOException e) {
+            Server.warn("couldn't run " + job.name + ": " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            Server.warn("interrupted while running " + job.name);
+        } finally {
+            configFile.delete();
+        }
+    }
+
+    private static MatchResult readResult(File resultFile) throws IOException {
+        if (!resultFile.exists())
+            return null;
+        BufferedReader reader = new BufferedReader(new FileReader(resultFile));
+        try {
+            String line = reader.readLine();
+            return line == null ? null : MatchResult.parse(line);
+        } catch (IllegalArgumentException e) {
+            return null;
+        } finally {
+            reader.close();
+            resultFile.delete();
+        }
+    }
+
+    private static String describe(MatchResult result) {
+        String winner = result.getWinnerName();
+        return String.format("%s won in %d rounds (%s)", winner == null ? "nobody" : winner,
+                result.getRounds(), result.getDominationFactor());
+    }
+
+    /**
+     * Writes one line per match, in the order the matches were specified,
+     * followed by a win/loss summary for each pair of teams.
+     *
+     * @return true if every match produced a result
+     */
+    private boolean writeResults() throws IOException {
+        File resultsFile = new File(outputDir, options.get("bc.batch.results"));
+        PrintWriter out = new PrintWriter(new FileWriter(resultsFile));
+        boolean complete = true;
+        Map<String, int[]> record = new LinkedHashMap<String, int[]>();
+
+        try {
+            out.println("# teamA\tteamB\tmap\twinner\trounds\tdomination");
+            for (Job job : jobs) {
+                String pair = job.teamA + " vs. " + job.teamB;
+                if (!record.containsKey(pair))
+                    record.put(pair, new int[3]);
+                if (job.result == null) {
+                    complete = false;
+                    out.println(job.teamA + "\t" + job.teamB + "\t" + job.map + "\t-\t-\tFAILED");
+                    record.get(pair)[2]++;
+                    continue;
+                }
+                out.println(job.result);
+                if (job.result.getWinner() == Team.A)
+                    record.get(pair)[0]++;
+                else if (job.result.getWinner() == Team.B)
+                    record.get(pair)[1]++;
+                else
+                    record.get(pair)[2]++;
+            }
+            out.println();
+            for (Map.Entry<String, int[]> entry : record.entrySet()) {
+                int[] r = entry.getValue();
+                String line = String.format("# %s: %d-%d (%d without a result)", entry.getKey(), r[0], r[1], r[2]);
+                out.println(line);
+                Server.say(line.substring(2));
+            }
+        } finally {
+            out.close();
+        }
+
+        Server.say("results written to " + resultsFile);
+        return complete;
+    }
+}
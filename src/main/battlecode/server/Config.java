@@ -4,6 +4,7 @@ import org.apache.commons.cli.*;
 
 import java.io.BufferedReader;
 import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.IOException;
 import java.util.Enumeration;
@@ -39,9 +40,27 @@ public class Config {
         defaults.setProperty("bc.server.throttle", "yield");
         defaults.setProperty("bc.server.throttle-count", "15");
         defaults.setProperty("bc.server.output-xml", "true");
+        defaults.setProperty("bc.server.output-binary", "false");
+        defaults.setProperty("bc.server.output-indexed", "false");
+        defaults.setProperty("bc.server.index-interval", "100");
+        defaults.setProperty("bc.server.async-output", "true");
+        defaults.setProperty("bc.server.output-queue-size", "256");
+        defaults.setProperty("bc.server.output-queue-policy", "block");
+        defaults.setProperty("bc.server.output-compression-level", "6");
+        defaults.setProperty("bc.server.output-compression-threads", "1");
+        defaults.setProperty("bc.server.results-file", "");
+        defaults.setProperty("bc.server.scheduler-stats-interval", "0");
+
+        defaults.setProperty("bc.batch.pairs", "");
+        defaults.setProperty("bc.batch.workers", "0");
+        defaults.setProperty("bc.batch.output-dir", "batch");
+        defaults.setProperty("bc.batch.results", "results.txt");
+        defaults.setProperty("bc.batch.jvm-args", "");
+        defaults.setProperty("bc.batch.timeout", "1800");
 
         defaults.setProperty("bc.engine.debug-methods", "true");
         defaults.setProperty("bc.engine.debug-max-bytecodes", "64000");
+        defaults.setProperty("bc.engine.unmetered-max-bytecodes", "10000000");
         defaults.setProperty("bc.engine.silence-a", "false");
         defaults.setProperty("bc.engine.silence-b", "false");
         defaults.setProperty("bc.engine.gc", "false");
@@ -51,6 +70,18 @@ public class Config {
         defaults.setProperty("bc.engine.bytecodes-used", "true");
         defaults.setProperty("bc.engine.lazy-instrumenter", "false");
         defaults.setProperty("bc.engine.fast-hash", "false");
+        defaults.setProperty("bc.engine.robot-threads", "platform");
+        defaults.setProperty("bc.engine.scheduler-spin", "1000");
+        defaults.setProperty("bc.engine.robot-stack-kb", "0");
+        defaults.setProperty("bc.engine.class-cache", "true");
+        defaults.setProperty("bc.engine.class-cache-dir", "");
+        defaults.setProperty("bc.engine.class-cache-mb", "64");
+        defaults.setProperty("bc.engine.shared-classes", "false");
+        defaults.setProperty("bc.engine.preinstrument", "true");
+        defaults.setProperty("bc.engine.preinstrument-threads", "0");
+        defaults.setProperty("bc.engine.parallel-neutrals", "false");
+        defaults.setProperty("bc.engine.neutrals-threads", "0");
+        defaults.setProperty("bc.engine.neutrals-keyframe-interval", "0");
 
         defaults.setProperty("bc.client.opengl", "false");
         defaults.setProperty("bc.client.use-models", "true");
@@ -179,6 +210,25 @@ public class Config {
             properties.setProperty("bc.dialog.skip", "true");
     }
 
+    /**
+     * Creates a copy of the given configuration that can be changed without
+     * affecting the original.
+     */
+    public Config(Config other) {
+        properties = new Properties(defaults);
+        properties.putAll(other.properties);
+    }
+
+    /**
+     * Writes the options that differ from the defaults to the file with the
+     * given filename, in a format that can be read by addFile().
+     */
+    public void store(String filename) throws IOException {
+        FileOutputStream f = new FileOutputStream(filename);
+        properties.store(f, null);
+        f.close();
+    }
+
     /**
      * Adds the configuration file with given filename to this set of
      * configuration options.
@@ -38,6 +38,19 @@ public class Main {
         }
     }
 
+    private static void runBatch(Config options) {
+        try {
+            if (!new BatchRunner(options).run())
+                System.exit(1);
+        } catch (IOException e) {
+            e.printStackTrace();
+            System.exit(1);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.exit(64);
+        }
+    }
+
     public static Config setupConfig(String[] args) {
         try {
             Config options = new Config(args);
@@ -65,6 +78,9 @@ public class Main {
             case PIPE:
                 runPipe(options, saveFile);
                 break;
+            case BATCH:
+                runBatch(options);
+                break;
             default:
                 return false;
         }
@@ -5,6 +5,8 @@ import battlecode.common.Team;
 import battlecode.engine.Engine;
 import battlecode.engine.GameState;
 import battlecode.engine.GameWorldViewer;
+import battlecode.engine.scheduler.RobotThreadPool;
+import battlecode.engine.scheduler.Scheduler;
 import battlecode.engine.signal.Signal;
 import battlecode.serial.*;
 
@@ -55,6 +57,10 @@ public class Match extends Observable {
 
     private long[][] computedArchonMemory = null;
 
+    // the scheduler's totals as of the last getSchedulerRoundStats()
+    private long lastHandoffs, lastSchedulerNanos;
+    private int lastStatsRound;
+
     /**
      * Creates a new match with the given parameters and options.
      *
@@ -76,9 +82,9 @@ public class Match extends Observable {
     }
 
     /**
-     * Sets up the engine for this match. Because Engine's constructor
-     * manipulates static state, engine object creation should not be done at
-     * match creation time!
+     * Sets up the engine for this match. Engine's constructor starts the
+     * robot threads and binds the calling thread to the engine, so engine
+     * object creation should not be done at match creation time!
      */
     public void initialize() {
 
@@ -90,7 +96,7 @@ public class Match extends Observable {
 
         // Create a new engine.
         this.engine = new Engine(info.getTeamA(), info.getTeamB(), map,
-                mapPath, this.state);
+                mapPath, this.state, options);
 
         // Get the viewer from the engine.
         this.gameWorldViewer = engine.getGameWorldViewer();
@@ -158,6 +164,16 @@ public class Match extends Observable {
         return gameWorldViewer.getRoundStats();
     }
 
+    /**
+     * Gets the full state of the match, for proxies that want keyframes.
+     *
+     * @param round the number of rounds played so far
+     * @return a keyframe for the current state
+     */
+    public RoundKeyframe getKeyframe(int round) {
+        return new RoundKeyframe(round, gameWorldViewer.getKeyframeSignals());
+    }
+
     /**
      * Queries the engine for stats for the whole match.
      *
@@ -287,7 +303,7 @@ public class Match extends Observable {
      *         round is 1 (0 if no rounds have been run yet)
      */
     public int getRoundNumber() {
-        return Engine.getRoundNum() + 1;
+        return engine.getRoundNumber() + 1;
     }
 
     /**
@@ -299,6 +315,60 @@ public class Match extends Observable {
         this.engine = null;
     }
 
+    /**
+     * Summarizes the outcome of this match. Should be called after the match
+     * has finished running, but before finish().
+     *
+     * @return this match's result
+     */
+    public MatchResult getResult() {
+        return new MatchResult(info.getTeamA(), info.getTeamB(), map,
+                getWinner(), engine.getRoundNumber() + 1,
+                getGameStats().getDominationFactor());
+    }
+
+    /**
+     * Describes how much time the engine spent switching between robots.
+     * Should be called after the match has finished running, but before
+     * finish().
+     */
+    public String getSchedulerStats() {
+        Scheduler scheduler = engine.getScheduler();
+        int rounds = engine.getRoundNumber() + 1;
+        return String.format("%d handoffs (%.1f per round), %.4g ms in scheduler",
+                scheduler.getHandoffs(), (double) scheduler.getHandoffs() / Math.max(1, rounds),
+                scheduler.getNanosInScheduler() / 1e6);
+    }
+
+    /**
+     * Describes how much time the engine spent switching between robots, per
+     * round, since the last call.
+     */
+    public String getSchedulerRoundStats() {
+        Scheduler scheduler = engine.getScheduler();
+        int round = getRoundNumber();
+        long handoffs = scheduler.getHandoffs();
+        long nanos = scheduler.getNanosInScheduler();
+        int rounds = Math.max(1, round - lastStatsRound);
+        String stats = String.format("rounds %d-%d: %.1f handoffs, %.4g ms in scheduler per round",
+                lastStatsRound + 1, round, (double) (handoffs - lastHandoffs) / rounds,
+                (nanos - lastSchedulerNanos) / 1e6 / rounds);
+        lastHandoffs = handoffs;
+        lastSchedulerNanos = nanos;
+        lastStatsRound = round;
+        return stats;
+    }
+
+    /**
+     * Describes how the engine's robot threads were reused. Should be called
+     * after the match has finished running, but before finish().
+     */
+    public String getThreadPoolStats() {
+        RobotThreadPool pool = engine.getScheduler().getThreadPool();
+        return String.format("%d robot threads created, %d reused, at most %d running and %d idle",
+                pool.getThreadsCreated(), pool.getThreadsReused(), pool.getPeakBusy(), pool.getPeakIdle());
+    }
+
     @Override
     public String toString() {
         String teams = String.format("%s vs. %s on %s", info.getTeamA(), info
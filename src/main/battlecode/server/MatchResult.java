@@ -0,0 +1,88 @@
+package battlecode.server;
+
+import battlecode.common.Team;
+import battlecode.serial.DominationFactor;
+
+/**
+ * The outcome of a single match, as written to a results file (one match per
+ * line, tab-separated).
+ */
+public class MatchResult {
+
+    private final String teamA;
+    private final String teamB;
+    private final String map;
+    private final Team winner;
+    private final int rounds;
+    private final DominationFactor dominationFactor;
+
+    public MatchResult(String teamA, String teamB, String map, Team winner,
+                       int rounds, DominationFactor dominationFactor) {
+        this.teamA = teamA;
+        this.teamB = teamB;
+        this.map = map;
+        this.winner = winner;
+        this.rounds = rounds;
+        this.dominationFactor = dominationFactor;
+    }
+
+    /**
+     * Parses a line written by toString().
+     *
+     * @throws IllegalArgumentException if the line is malformed
+     */
+    public static MatchResult parse(String line) {
+        String[] fields = line.split("\t");
+        if (fields.length != 6)
+            throw new IllegalArgumentException("malformed match result: " + line);
+        return new MatchResult(fields[0], fields[1], fields[2],
+                "-".equals(fields[3]) ? null : Team.valueOf(fields[3]),
+                Integer.parseInt(fields[4]),
+                "-".equals(fields[5]) ? null : DominationFactor.valueOf(fields[5]));
+    }
+
+    public String getTeamA() {
+        return teamA;
+    }
+
+    public String getTeamB() {
+        return teamB;
+    }
+
+    public String getMap() {
+        return map;
+    }
+
+    /**
+     * @return the winning team, or null if there was no winner
+     */
+    public Team getWinner() {
+        return winner;
+    }
+
+    /**
+     * @return the name of the winning team, or null if there was no winner
+     */
+    public String getWinnerName() {
+        if (winner == Team.A)
+            return teamA;
+        else if (winner == Team.B)
+            return teamB;
+        else
+            return null;
+    }
+
+    public int getRounds() {
+        return rounds;
+    }
+
+    public DominationFactor getDominationFactor() {
+        return dominationFactor;
+    }
+
+    public String toString() {
+        return teamA + "\t" + teamB + "\t" + map + "\t"
+                + (winner == null ? "-" : winner.name()) + "\t" + rounds + "\t"
+                + (dominationFactor == null ? "-" : dominationFactor.name());
+    }
+}
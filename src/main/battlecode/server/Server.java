@@ -3,13 +3,17 @@ package battlecode.server;
 import battlecode.common.Team;
 import battlecode.engine.ErrorReporter;
 import battlecode.engine.GameState;
+import battlecode.engine.instrumenter.InstrumentedClassCache;
 import battlecode.engine.signal.Signal;
 import battlecode.serial.*;
 import battlecode.serial.notification.*;
 import battlecode.server.controller.Controller;
+import battlecode.server.proxy.AsyncProxy;
 import battlecode.server.proxy.Proxy;
 
+import java.io.FileWriter;
 import java.io.IOException;
+import java.io.PrintWriter;
 import java.util.*;
 
 /**
@@ -70,7 +74,7 @@ public class Server implements Observer, Runnable {
      * operation.
      */
     public static enum Mode {
-        HEADLESS, LOCAL, TCP, SCRIMMAGE, TOURNAMENT, TESTS, AUTOTEST, MATCH, PIPE, BADGEREVIEW
+        HEADLESS, LOCAL, TCP, SCRIMMAGE, TOURNAMENT, TESTS, AUTOTEST, MATCH, PIPE, BADGEREVIEW, BATCH
 
     }
 
@@ -88,8 +92,20 @@ public class Server implements Observer, Runnable {
         this.mode = mode;
         this.controller = controller;
         this.proxies = new LinkedList<Proxy>();
-        for (Proxy proxy : proxies)
-            this.proxies.add(proxy);
+        if (options.getBoolean("bc.server.async-output")) {
+            int capacity = options.getInt("bc.server.output-queue-size");
+            AsyncProxy.Policy policy = AsyncProxy.Policy.BLOCK;
+            try {
+                policy = AsyncProxy.Policy.forName(options.get("bc.server.output-queue-policy"));
+            } catch (IllegalArgumentException e) {
+                warn("unknown output queue policy " + options.get("bc.server.output-queue-policy") + ", using block");
+            }
+            for (Proxy proxy : proxies)
+                this.proxies.add(new AsyncProxy(proxy, capacity, policy));
+        } else {
+            for (Proxy proxy : proxies)
+                this.proxies.add(proxy);
+        }
 
         this.options = options;
         this.state = State.NOT_READY;
@@ -237,6 +253,7 @@ public class Server implements Observer, Runnable {
                 else if (match.getWinner() == Team.B)
                     bWins++;
 
+                writeResult(match);
                 match.finish();
 
                 // Allow best of three scrimmages -- single game scrims should still work fine
@@ -281,7 +298,8 @@ public class Server implements Observer, Runnable {
         controller.start();
 
         for (Proxy p : this.proxies) {
-            debug("starting proxy " + p.getClass().getSimpleName());
+            Proxy target = p instanceof AsyncProxy ? ((AsyncProxy) p).getProxy() : p;
+            debug("starting proxy " + target.getClass().getSimpleName());
             p.open();
         }
     }
@@ -289,6 +307,8 @@ public class Server implements Observer, Runnable {
     private class IOCallback implements Runnable {
         public RoundDelta round;
         public RoundStats stats;
+        // the state after round, if a proxy wants it
+        public RoundKeyframe keyframe;
 
         public void run() {
             if (round != null) {
@@ -296,16 +316,24 @@ public class Server implements Observer, Runnable {
                     for (Proxy p : proxies) {
                         p.writeRound(round);
                         p.writeStats(stats);
+                        if (keyframe != null && wantsKeyframe(p, keyframe.getRound()))
+                            p.writeKeyframe(keyframe);
                     }
                 } catch (IOException e) {
                     ErrorReporter.report(e, false);
                 }
                 round = null;
                 stats = null;
+                keyframe = null;
             }
         }
     }
 
+    private static boolean wantsKeyframe(Proxy p, int rounds) {
+        int interval = p.getKeyframeInterval();
+        return interval > 0 && rounds % interval == 0;
+    }
+
     /**
      * Runs a match; configures the controller and list of proxies, and starts
      * running the game in a separate thread.
@@ -346,11 +374,14 @@ public class Server implements Observer, Runnable {
         this.state = State.RUNNING;
 
         int count = 0;
+        int rounds = 0;
 
         final String throttle = options.get("bc.server.throttle");
         final int throttleCount = options.getInt("bc.server.throttle-count");
         final boolean doYield = "yield".equals(throttle);
         final boolean doSleep = "sleep".equals(throttle);
+        // how often to print the scheduler's per-round stats, or 0 for never
+        final int schedulerStatsInterval = options.getInt("bc.server.scheduler-stats-interval");
 
         // If there are more rounds to be run, run them and
         // and send the round (and optionally stats) bytes to
@@ -382,6 +413,16 @@ public class Server implements Observer, Runnable {
                     // Compute stats bytes.
                     callback.stats = match.getStats();
 
+                    rounds++;
+                    if (schedulerStatsInterval > 0 && rounds % schedulerStatsInterval == 0)
+                        say(match.getSchedulerRoundStats());
+                    for (Proxy p : proxies) {
+                        if (wantsKeyframe(p, rounds)) {
+                            callback.keyframe = match.getKeyframe(rounds);
+                            break;
+                        }
+                    }
+
                     break;
 
                 case PAUSED:
@@ -402,6 +443,14 @@ public class Server implements Observer, Runnable {
 
         double timeDiff = (System.currentTimeMillis() - startTime) / 1000.0;
         debug(String.format("match completed in %.4g seconds", timeDiff));
+        debug(match.getSchedulerStats());
+        debug(match.getThreadPoolStats());
+        InstrumentedClassCache classCache = InstrumentedClassCache.getInstance(options);
+        debug(String.format("instrumented class cache: %d hits, %d misses", classCache.getHits(), classCache.getMisses()));
+        for (Proxy p : proxies) {
+            if (p instanceof AsyncProxy)
+                debug(((AsyncProxy) p).getStats());
+        }
 
         for (Proxy p : proxies) {
             p.writeObject(gameStats);
@@ -411,6 +460,23 @@ public class Server implements Observer, Runnable {
         this.state = State.FINISHED;
     }
 
+    /**
+     * Appends the result of the given match to the file named by
+     * bc.server.results-file, if one is set.
+     */
+    private void writeResult(Match match) {
+        String resultsFile = options.get("bc.server.results-file");
+        if (resultsFile == null || resultsFile.length() == 0)
+            return;
+        try {
+            PrintWriter out = new PrintWriter(new FileWriter(resultsFile, true));
+            out.println(match.getResult());
+            out.close();
+        } catch (IOException e) {
+            warn("couldn't write match result to " + resultsFile + ": " + e.getMessage());
+        }
+    }
+
     public State getState() {
         return this.state;
     }
@@ -0,0 +1,373 @@
+package battlecode.server.proxy;
+
+import battlecode.engine.ErrorReporter;
+import battlecode.serial.MatchFooter;
+import battlecode.serial.MatchHeader;
+import battlecode.serial.RoundDelta;
+import battlecode.serial.RoundKeyframe;
+import battlecode.serial.RoundStats;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+
+/**
+ * Wraps another proxy so that its writes happen on a thread of their own.
+ * <p/>
+ * Writes are queued and return immediately, so a slow recipient (a gzipped
+ * file, or a client over TCP) doesn't hold up the engine.  The queue holds at
+ * most a fixed number of objects; what happens when it is full is up to the
+ * Policy.  Objects must not be changed after they are written, which is
+ * true of everything the server writes except the header; so writeHeader
+ * waits for the header to be written.
+ * <p/>
+ * If the wrapped proxy fails, the error is thrown by the next call to this
+ * one, and anything written in the meantime is thrown away; the wrapped
+ * proxy is still closed when this one is.
+ */
+public class AsyncProxy extends Proxy {
+
+    /**
+     * What to do with a write when the queue is full.
+     */
+    public enum Policy {
+        /**
+         * Wait until there is room.
+         */
+        BLOCK,
+        /**
+         * Throw away RoundStats instead of waiting; other objects wait.
+         */
+        DROP_STATS,
+        /**
+         * Throw away the newest RoundStats that is still waiting, so that the
+         * new one can take its place; if there isn't one, wait.  Readers
+         * then miss some rounds' stats, but always get the latest ones.
+         */
+        COALESCE;
+
+        /**
+         * Returns the policy with the given name, as in the
+         * bc.server.output-queue-policy option: block, drop-stats or
+         * coalesce.
+         *
+         * @throws IllegalArgumentException if there is no such policy
+         */
+        public static Policy forName(String name) {
+            return valueOf(name.trim().toUpperCase().replace('-', '_'));
+        }
+    }
+
+    private static final Object CLOSE = new Object();
+
+    private final Proxy proxy;
+
+    private final int capacity;
+
+    private final Policy policy;
+
+    // guarded by this
+    private final ArrayDeque<Object> queue = new ArrayDeque<Object>();
+    private IOException error;
+    private boolean closed;
+    private Thread writer;
+
+    // statistics, guarded by this
+    private int maxDepth;
+    private long written;
+    private long writeNanos, maxWriteNanos;
+    private long blockedNanos;
+    private long dropped, coalesced;
+
+    /**
+     * @param proxy    the proxy to write to
+     * @param capacity how many objects can wait to be written
+     * @param policy   what to do when that many are waiting
+     */
+    public AsyncProxy(Proxy proxy, int capacity, Policy policy) {
+        this.proxy = proxy;
+        this.capacity = Math.max(capacity, 1);
+        this.policy = policy;
+    }
+
+    public Proxy getProxy() {
+        return proxy;
+    }
+
+    protected OutputStream getOutputStream() throws IOException {
+        return null;
+    }
+
+    /**
+     * Opens the wrapped proxy, on the caller's thread, and starts writing.
+     */
+    public void open() throws IOException {
+        proxy.open();
+        writer = new Thread(new Runnable() {
+            public void run() {
+                writeAll();
+            }
+        }, "proxy-writer-" + name());
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Waits for everything to be written, then closes the wrapped proxy.
+     */
+    public void close() throws IOException {
+        synchronized (this) {
+            if (closed)
+                return;
+            closed = true;
+            queue.addLast(CLOSE);
+            notifyAll();
+        }
+        boolean interrupted = false;
+        while (writer != null && writer.isAlive()) {
+            try {
+                writer.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+        synchronized (this) {
+            checkError();
+        }
+    }
+
+    public void writeObject(Object o) throws IOException {
+        enqueue(o);
+    }
+
+    /**
+     * Writes the header, and waits until it has been written: it holds the
+     * match's GameMap, which changes once the match starts.
+     */
+    public synchronized void writeHeader(MatchHeader header) throws IOException {
+        enqueue(header);
+        boolean interrupted = false;
+        while (queue.contains(header) && error == null) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+        checkError();
+    }
+
+    public void writeRound(RoundDelta round) throws IOException {
+        enqueue(round);
+    }
+
+    public void writeStats(RoundStats stats) throws IOException {
+        enqueue(stats);
+    }
+
+    public void writeFooter(MatchFooter footer) throws IOException {
+        enqueue(footer);
+    }
+
+    public int getKeyframeInterval() {
+        return proxy.getKeyframeInterval();
+    }
+
+    public void writeKeyframe(RoundKeyframe keyframe) throws IOException {
+        enqueue(keyframe);
+    }
+
+    private synchronized void enqueue(Object o) throws IOException {
+        checkError();
+        if (closed)
+            throw new IOException("proxy is closed");
+        if (queue.size() >= capacity && o instanceof RoundStats) {
+            if (policy == Policy.DROP_STATS) {
+                dropped++;
+                return;
+            }
+            if (policy == Policy.COALESCE && removeNewestStats()) {
+                coalesced++;
+                add(o);
+                return;
+            }
+        }
+        if (queue.size() >= capacity) {
+            long start = System.nanoTime();
+            boolean interrupted = false;
+            while (queue.size() >= capacity && error == null) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            blockedNanos += System.nanoTime() - start;
+            if (interrupted)
+                Thread.currentThread().interrupt();
+            checkError();
+        }
+        add(o);
+    }
+
+    private void add(Object o) {
+        queue.addLast(o);
+        if (queue.size() > maxDepth)
+            maxDepth = queue.size();
+        notifyAll();
+    }
+
+    private boolean removeNewestStats() {
+        // the first one may be being written
+        Object first = queue.peekFirst();
+        Iterator<Object> it = queue.descendingIterator();
+        while (it.hasNext()) {
+            Object o = it.next();
+            if (o instanceof RoundStats && o != first) {
+                it.remove();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private String name() {
+        // the factories make anonymous subclasses
+        Class<?> c = proxy.getClass();
+        while (c.getSimpleName().length() == 0)
+            c = c.getSuperclass();
+        return c.getSimpleName();
+    }
+
+    private void checkError() throws IOException {
+        if (error != null) {
+            IOException e = new IOException("couldn't write match data: " + error.getMessage());
+            e.initCause(error);
+            throw e;
+        }
+    }
+
+    /**
+     * Runs on the writer thread until the proxy is closed.
+     */
+    private void writeAll() {
+        while (true) {
+            Object o;
+            boolean failed;
+            synchronized (this) {
+                while (queue.isEmpty()) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        // only close() stops the writer
+                    }
+                }
+                o = queue.peekFirst();
+                failed = error != null;
+            }
+            long start = System.nanoTime();
+            IOException failure = null;
+            try {
+                // the wrapped proxy is closed even after a failure, so that
+                // it can release its file or connection
+                if (!failed || o == CLOSE)
+                    write(o);
+            } catch (IOException e) {
+                failure = e;
+            } catch (RuntimeException e) {
+                failure = new IOException(e.toString());
+                failure.initCause(e);
+            }
+            long time = System.nanoTime() - start;
+            synchronized (this) {
+                // remove it only now, so that it counts towards the depth
+                // while it is being written
+                queue.pollFirst();
+                if (failure != null && error == null) {
+                    error = failure;
+                    failure = null;
+                }
+                written++;
+                writeNanos += time;
+                if (time > maxWriteNanos)
+                    maxWriteNanos = time;
+                notifyAll();
+            }
+            if (failure != null) {
+                // the first error is the one that's thrown, but this one
+                // shouldn't vanish
+                ErrorReporter.report("couldn't close " + name() + " output after an earlier error: " + failure, false);
+            }
+            if (o == CLOSE)
+                return;
+        }
+    }
+
+    private void write(Object o) throws IOException {
+        if (o == CLOSE)
+            proxy.close();
+        else if (o instanceof RoundDelta)
+            proxy.writeRound((RoundDelta) o);
+        else if (o instanceof RoundStats)
+            proxy.writeStats((RoundStats) o);
+        else if (o instanceof MatchHeader)
+            proxy.writeHeader((MatchHeader) o);
+        else if (o instanceof MatchFooter)
+            proxy.writeFooter((MatchFooter) o);
+        else if (o instanceof RoundKeyframe)
+            proxy.writeKeyframe((RoundKeyframe) o);
+        else
+            proxy.writeObject(o);
+    }
+
+    /**
+     * Returns how many objects are waiting to be written, including the one
+     * being written.
+     */
+    public synchronized int getQueueDepth() {
+        return queue.size();
+    }
+
+    public synchronized int getMaxQueueDepth() {
+        return maxDepth;
+    }
+
+    /**
+     * Returns the mean time the wrapped proxy took per write, in
+     * nanoseconds.
+     */
+    public synchronized long getMeanWriteNanos() {
+        return written == 0 ? 0 : writeNanos / written;
+    }
+
+    public synchronized long getMaxWriteNanos() {
+        return maxWriteNanos;
+    }
+
+    /**
+     * Returns how long writers have spent waiting for room in the queue, in
+     * nanoseconds.
+     */
+    public synchronized long getBlockedNanos() {
+        return blockedNanos;
+    }
+
+    /**
+     * Returns how many RoundStats were thrown away because the queue was
+     * full, by either DROP_STATS or COALESCE.
+     */
+    public synchronized long getDroppedStats() {
+        return dropped + coalesced;
+    }
+
+    public synchronized String getStats() {
+        return String.format("%s output: %d writes, %.3f ms mean, %.3f ms max; queue depth %d (max %d of %d); blocked %.1f ms; %d stats dropped, %d coalesced",
+                name(), written, getMeanWriteNanos() / 1e6, maxWriteNanos / 1e6,
+                queue.size(), maxDepth, capacity, blockedNanos / 1e6, dropped, coalesced);
+    }
+}
@@ -0,0 +1,162 @@
+package battlecode.server.proxy;
+
+import battlecode.common.MapLocation;
+import battlecode.serial.GameStats;
+import battlecode.serial.MatchFooter;
+import battlecode.serial.RoundStats;
+import battlecode.world.signal.*;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The layout of binary match files, shared by BinaryMatchWriter and
+ * BinaryMatchReader.
+ * <p/>
+ * A file starts with MAGIC and a varint VERSION, followed by records, each of
+ * which is a tag byte and a body:
+ * <ul>
+ * <li>ROUND: a varint count, then that many values (the round's signals)</li>
+ * <li>METADATA: a varint count, then that many string keys, each followed by
+ * a kind byte and a String, a String[] or an XML value</li>
+ * <li>VALUE: a single value, e.g. RoundStats, GameStats or MatchFooter</li>
+ * <li>KEYFRAME: a varint round, then a varint count and that many values (a
+ * RoundKeyframe)</li>
+ * <li>END: the end of the file</li>
+ * </ul>
+ * Several files may follow one another in the same stream, as they do in the
+ * chunks of an IndexedFileProxy file; each starts a new string table.
+ * A value is a varint: 0 for null, 1 for an object that is stored as XStream
+ * XML (see XStreamProxy), or 2 + an index into CLASSES, followed by that
+ * class's non-static, non-transient fields, sorted by declaring class
+ * (superclasses first) and then by name.  Fields are stored by type:
+ * <ul>
+ * <li>int, short, byte, char and long: zigzag varints</li>
+ * <li>boolean: one byte</li>
+ * <li>float: four bytes; double: see BinaryMatchWriter.writeDouble</li>
+ * <li>String: a reference into the file's string table</li>
+ * <li>enums: a varint, 0 for null or 1 + the ordinal</li>
+ * <li>MapLocation: a presence byte, then x and y as zigzag varints</li>
+ * <li>arrays: a varint, 0 for null or 1 + the length, then the elements</li>
+ * </ul>
+ * New classes are only ever added to the end of CLASSES, along with a new
+ * VERSION, so that readers can still read files from older versions.
+ * Reordering CLASSES, changing the fields of a class in it or reordering the
+ * constants of an enum that one of them uses breaks older files.
+ */
+final class BinaryFormat {
+
+    static final byte[] MAGIC = {'B', 'C', 'M', 'F'};
+    static final int VERSION = 3;
+
+    static final int END = 0;
+    static final int ROUND = 1;
+    static final int METADATA = 2;
+    static final int VALUE = 3;
+    // since version 3
+    static final int KEYFRAME = 4;
+
+    static final int NULL = 0;
+    static final int XML = 1;
+    static final int FIRST_CLASS = 2;
+
+    // kinds of metadata value
+    static final int META_NULL = 0;
+    static final int META_STRING = 1;
+    static final int META_STRINGS = 2;
+    static final int META_XML = 3;
+
+    // string table references
+    static final int STRING_NULL = 0;
+    static final int STRING_NEW = 1;
+    static final int STRING_INLINE = 2;
+    static final int FIRST_STRING = 3;
+    // new strings past this many are written inline, so that the tables don't grow without bound
+    static final int MAX_STRINGS = 1 << 16;
+
+    /**
+     * The classes that have their own tags; anything else is stored as XML.
+     */
+    static final Class<?>[] CLASSES = {
+            RoundStats.class, GameStats.class, MatchFooter.class,
+            AttackSignal.class, BroadcastSignal.class, BytecodesUsedSignal.class, CaptureSignal.class,
+            ControlBitsSignal.class, DeathSignal.class, EnergonChangeSignal.class, EnergonTransferSignal.class,
+            FluxChangeSignal.class, HatSignal.class, IndicatorStringSignal.class, IronShieldSignal.class,
+            LoadSignal.class, MatchObservationSignal.class, MineSignal.class, MinelayerSignal.class,
+            MovementOverrideSignal.class, MovementSignal.class, NeutralsDensitySignal.class,
+            NeutralsTeamSignal.class, NodeBirthSignal.class, NodeConnectionSignal.class, RegenSignal.class,
+            ResearchChangeSignal.class, ResearchSignal.class, ScanSignal.class, SelfDestructSignal.class,
+            SetDirectionSignal.class, ShieldChangeSignal.class, ShieldSignal.class, SpawnSignal.class,
+            TransferFluxSignal.class, TurnOffSignal.class, TurnOnSignal.class, UnloadSignal.class,
+            // version 2
+            NeutralsDensityDeltaSignal.class, NeutralsTeamDeltaSignal.class};
+
+    private static final Map<Class<?>, Integer> TAGS = new HashMap<Class<?>, Integer>();
+
+    static {
+        for (int i = 0; i < CLASSES.length; i++)
+            TAGS.put(CLASSES[i], FIRST_CLASS + i);
+    }
+
+    private static final Map<Class<?>, Field[]> fields = new ConcurrentHashMap<Class<?>, Field[]>();
+
+    private static final Comparator<Field> BY_NAME = new Comparator<Field>() {
+        public int compare(Field a, Field b) {
+            return a.getName().compareTo(b.getName());
+        }
+    };
+
+    private BinaryFormat() {
+    }
+
+    /**
+     * Returns the tag for objects of the given class, or XML if it doesn't
+     * have one.
+     */
+    static int tag(Class<?> c) {
+        Integer tag = TAGS.get(c);
+        return tag == null ? XML : tag;
+    }
+
+    /**
+     * Returns the fields that are stored for the given class, in order.
+     */
+    static Field[] fields(Class<?> c) {
+        Field[] result = fields.get(c);
+        if (result != null)
+            return result;
+        List<Class<?>> hierarchy = new ArrayList<Class<?>>();
+        for (Class<?> k = c; k != null && k != Object.class; k = k.getSuperclass())
+            hierarchy.add(0, k);
+        List<Field> list = new ArrayList<Field>();
+        for (Class<?> k : hierarchy) {
+            Field[] declared = k.getDeclaredFields();
+            Arrays.sort(declared, BY_NAME);
+            for (Field f : declared) {
+                int mod = f.getModifiers();
+                if (Modifier.isStatic(mod) || Modifier.isTransient(mod))
+                    continue;
+                if (!isSupported(f.getType()))
+                    throw new IllegalStateException(c.getName() + "." + f.getName() + " can't be stored in a binary match file");
+                f.setAccessible(true);
+                list.add(f);
+            }
+        }
+        result = list.toArray(new Field[list.size()]);
+        fields.put(c, result);
+        return result;
+    }
+
+    private static boolean isSupported(Class<?> type) {
+        if (type.isArray())
+            return isSupported(type.getComponentType());
+        return type.isPrimitive() || type == String.class || type == MapLocation.class || type.isEnum();
+    }
+}
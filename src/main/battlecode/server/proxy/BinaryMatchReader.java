@@ -0,0 +1,340 @@
+package battlecode.server.proxy;
+
+import battlecode.common.MapLocation;
+import battlecode.engine.signal.Signal;
+import battlecode.serial.ExtensibleMetadata;
+import battlecode.serial.RoundDelta;
+import battlecode.serial.RoundKeyframe;
+import com.thoughtworks.xstream.converters.reflection.ReflectionProvider;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Reads match data written by BinaryMatchWriter, one object at a time, in the
+ * order it was written.  If another file follows the end of the first in the
+ * stream, it is read too.
+ */
+public class BinaryMatchReader {
+
+    private final InputStream in;
+
+    private final List<String> strings = new ArrayList<String>();
+
+    private final ReflectionProvider objects = XStreamProxy.getXStream().getReflectionProvider();
+
+    private boolean ended;
+
+    /**
+     * Reads the start of a match file from the given stream.
+     *
+     * @throws IOException if the stream isn't a binary match file, or is from
+     *                     a newer version of the server
+     */
+    public BinaryMatchReader(InputStream stream) throws IOException {
+        in = new BufferedInputStream(stream);
+        readStart(in.read());
+    }
+
+    /**
+     * Reads the magic number and version at the start of a file.
+     *
+     * @param first the first byte of the file, which has already been read
+     */
+    private void readStart(int first) throws IOException {
+        if (first < 0)
+            throw new IOException("not a binary match file");
+        byte[] magic = new byte[BinaryFormat.MAGIC.length];
+        magic[0] = (byte) first;
+        for (int i = 1; i < magic.length; i++)
+            magic[i] = (byte) readByte();
+        if (!Arrays.equals(magic, BinaryFormat.MAGIC))
+            throw new IOException("not a binary match file");
+        long version = readVarLong();
+        if (version < 1 || version > BinaryFormat.VERSION)
+            throw new IOException("unsupported binary match file version " + version);
+        strings.clear();
+    }
+
+    /**
+     * Returns true if the given bytes are the start of a binary match file.
+     */
+    public static boolean isBinaryMatch(byte[] start, int length) {
+        if (length < BinaryFormat.MAGIC.length)
+            return false;
+        for (int i = 0; i < BinaryFormat.MAGIC.length; i++) {
+            if (start[i] != BinaryFormat.MAGIC[i])
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Returns the next object in the file.
+     *
+     * @throws EOFException at the end of the file
+     */
+    public Object readObject() throws IOException {
+        if (ended)
+            throw new EOFException();
+        int record = in.read();
+        switch (record) {
+            case -1:
+                ended = true;
+                throw new EOFException();
+            case BinaryFormat.END: {
+                int next = in.read();
+                if (next < 0) {
+                    ended = true;
+                    throw new EOFException();
+                }
+                readStart(next);
+                return readObject();
+            }
+            case BinaryFormat.ROUND: {
+                Signal[] signals = new Signal[readLength()];
+                for (int i = 0; i < signals.length; i++)
+                    signals[i] = (Signal) readValue();
+                // the writer's signals were already folded
+                RoundDelta round = new RoundDelta();
+                round.setSignals(signals);
+                return round;
+            }
+            case BinaryFormat.KEYFRAME: {
+                int number = readLength();
+                Signal[] signals = new Signal[readLength()];
+                for (int i = 0; i < signals.length; i++)
+                    signals[i] = (Signal) readValue();
+                return new RoundKeyframe(number, signals);
+            }
+            case BinaryFormat.METADATA: {
+                ExtensibleMetadata metadata = new ExtensibleMetadata();
+                int n = readLength();
+                for (int i = 0; i < n; i++) {
+                    String key = readString();
+                    metadata.put(key, readMetadataValue());
+                }
+                return metadata;
+            }
+            case BinaryFormat.VALUE:
+                return readValue();
+            default:
+                throw new IOException("corrupt binary match file: unknown record " + record);
+        }
+    }
+
+    public void close() throws IOException {
+        in.close();
+    }
+
+    private Object readMetadataValue() throws IOException {
+        int kind = readByte();
+        switch (kind) {
+            case BinaryFormat.META_NULL:
+                return null;
+            case BinaryFormat.META_STRING:
+                return readString();
+            case BinaryFormat.META_STRINGS:
+                return readArray(String[].class);
+            case BinaryFormat.META_XML:
+                return XStreamProxy.getXStream().fromXML(readUTF());
+            default:
+                throw new IOException("corrupt binary match file: unknown metadata kind " + kind);
+        }
+    }
+
+    private Object readValue() throws IOException {
+        int tag = readLength();
+        if (tag == BinaryFormat.NULL)
+            return null;
+        if (tag == BinaryFormat.XML)
+            return XStreamProxy.getXStream().fromXML(readUTF());
+        if (tag - BinaryFormat.FIRST_CLASS >= BinaryFormat.CLASSES.length)
+            throw new IOException("corrupt binary match file: unknown class " + tag);
+        Class<?> c = BinaryFormat.CLASSES[tag - BinaryFormat.FIRST_CLASS];
+        // the classes don't have no-argument constructors, so make the object
+        // the way XStream does
+        Object o = objects.newInstance(c);
+        try {
+            for (Field f : BinaryFormat.fields(c))
+                readField(f, o);
+        } catch (IllegalAccessException e) {
+            throw new IOException(e.toString());
+        }
+        return o;
+    }
+
+    private void readField(Field f, Object o) throws IOException, IllegalAccessException {
+        Class<?> type = f.getType();
+        if (type == int.class)
+            f.setInt(o, (int) readZigZag());
+        else if (type == double.class)
+            f.setDouble(o, readDouble());
+        else if (type == boolean.class)
+            f.setBoolean(o, readByte() != 0);
+        else if (type == long.class)
+            f.setLong(o, readZigZag());
+        else if (type == short.class)
+            f.setShort(o, (short) readZigZag());
+        else if (type == byte.class)
+            f.setByte(o, (byte) readZigZag());
+        else if (type == char.class)
+            f.setChar(o, (char) readZigZag());
+        else if (type == float.class)
+            f.setFloat(o, Float.intBitsToFloat(readInt()));
+        else
+            f.set(o, readReference(type));
+    }
+
+    private Object readReference(Class<?> type) throws IOException {
+        if (type == String.class)
+            return readString();
+        if (type == MapLocation.class) {
+            if (readByte() == 0)
+                return null;
+            int x = (int) readZigZag();
+            return new MapLocation(x, (int) readZigZag());
+        }
+        if (type.isEnum()) {
+            int ordinal = readLength();
+            if (ordinal == 0)
+                return null;
+            Object[] constants = type.getEnumConstants();
+            if (ordinal > constants.length)
+                throw new IOException("corrupt binary match file: no constant " + (ordinal - 1) + " in " + type.getName());
+            return constants[ordinal - 1];
+        }
+        return readArray(type);
+    }
+
+    private Object readArray(Class<?> type) throws IOException {
+        int n = readLength();
+        if (n == 0)
+            return null;
+        n--;
+        Class<?> component = type.getComponentType();
+        if (component == int.class) {
+            int[] a = new int[n];
+            for (int i = 0; i < n; i++)
+                a[i] = (int) readZigZag();
+            return a;
+        } else if (component == double.class) {
+            double[] a = new double[n];
+            for (int i = 0; i < n; i++)
+                a[i] = readDouble();
+            return a;
+        } else if (component == long.class) {
+            long[] a = new long[n];
+            for (int i = 0; i < n; i++)
+                a[i] = readZigZag();
+            return a;
+        } else if (component == boolean.class) {
+            boolean[] a = new boolean[n];
+            for (int i = 0; i < n; i++)
+                a[i] = readByte() != 0;
+            return a;
+        }
+        Object a = Array.newInstance(component, n);
+        for (int i = 0; i < n; i++) {
+            if (component == float.class)
+                Array.setFloat(a, i, Float.intBitsToFloat(readInt()));
+            else if (component == short.class)
+                Array.setShort(a, i, (short) readZigZag());
+            else if (component == byte.class)
+                Array.setByte(a, i, (byte) readZigZag());
+            else if (component == char.class)
+                Array.setChar(a, i, (char) readZigZag());
+            else
+                Array.set(a, i, readReference(component));
+        }
+        return a;
+    }
+
+    private String readString() throws IOException {
+        int ref = readLength();
+        switch (ref) {
+            case BinaryFormat.STRING_NULL:
+                return null;
+            case BinaryFormat.STRING_NEW: {
+                String s = readUTF();
+                strings.add(s);
+                return s;
+            }
+            case BinaryFormat.STRING_INLINE:
+                return readUTF();
+            default:
+                if (ref - BinaryFormat.FIRST_STRING >= strings.size())
+                    throw new IOException("corrupt binary match file: unknown string " + ref);
+                return strings.get(ref - BinaryFormat.FIRST_STRING);
+        }
+    }
+
+    private String readUTF() throws IOException {
+        byte[] bytes = new byte[readLength()];
+        int off = 0;
+        while (off < bytes.length) {
+            int n = in.read(bytes, off, bytes.length - off);
+            if (n < 0)
+                throw new EOFException();
+            off += n;
+        }
+        return new String(bytes, "UTF-8");
+    }
+
+    private double readDouble() throws IOException {
+        long x = readVarLong();
+        if (x == 1) {
+            long hi = readInt() & 0xFFFFFFFFL;
+            return Double.longBitsToDouble(hi << 32 | (readInt() & 0xFFFFFFFFL));
+        }
+        x >>>= 1;
+        return (double) ((x >>> 1) ^ -(x & 1));
+    }
+
+    private int readInt() throws IOException {
+        int x = 0;
+        for (int i = 0; i < 4; i++)
+            x = x << 8 | readByte();
+        return x;
+    }
+
+    private int readByte() throws IOException {
+        int b = in.read();
+        if (b < 0)
+            throw new EOFException();
+        return b;
+    }
+
+    /**
+     * Reads a varint that must fit in a non-negative int, such as a length.
+     */
+    private int readLength() throws IOException {
+        long x = readVarLong();
+        if (x < 0 || x > Integer.MAX_VALUE)
+            throw new IOException("corrupt binary match file: bad length " + x);
+        return (int) x;
+    }
+
+    private long readZigZag() throws IOException {
+        long x = readVarLong();
+        return (x >>> 1) ^ -(x & 1);
+    }
+
+    private long readVarLong() throws IOException {
+        long x = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = readByte();
+            x |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0)
+                return x;
+        }
+        throw new IOException("corrupt binary match file: varint too long");
+    }
+}
@@ -0,0 +1,264 @@
+package battlecode.server.proxy;
+
+import battlecode.common.MapLocation;
+import battlecode.engine.signal.Signal;
+import battlecode.serial.ExtensibleMetadata;
+import battlecode.serial.RoundDelta;
+import battlecode.serial.RoundKeyframe;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Writes match data in the binary format described in BinaryFormat.  Each
+ * object is written as soon as it is given to writeObject, so a match can be
+ * written a round at a time.
+ */
+public class BinaryMatchWriter {
+
+    private final OutputStream out;
+
+    private final Map<String, Integer> strings = new HashMap<String, Integer>();
+
+    private final byte[] scratch = new byte[10];
+
+    /**
+     * Writes the start of a match file to the given stream.
+     */
+    public BinaryMatchWriter(OutputStream stream) throws IOException {
+        out = new BufferedOutputStream(stream);
+        out.write(BinaryFormat.MAGIC);
+        writeVarLong(BinaryFormat.VERSION);
+    }
+
+    /**
+     * Writes one object: a RoundDelta, a RoundKeyframe, some
+     * ExtensibleMetadata, or anything else that XStreamProxy can write.
+     */
+    public void writeObject(Object o) throws IOException {
+        if (o instanceof RoundDelta) {
+            Signal[] signals = ((RoundDelta) o).getSignals();
+            out.write(BinaryFormat.ROUND);
+            writeVarLong(signals.length);
+            for (Signal s : signals)
+                writeValue(s);
+        } else if (o instanceof RoundKeyframe) {
+            RoundKeyframe keyframe = (RoundKeyframe) o;
+            out.write(BinaryFormat.KEYFRAME);
+            writeVarLong(keyframe.getRound());
+            writeVarLong(keyframe.getSignals().length);
+            for (Signal s : keyframe.getSignals())
+                writeValue(s);
+        } else if (o instanceof ExtensibleMetadata) {
+            ExtensibleMetadata metadata = (ExtensibleMetadata) o;
+            out.write(BinaryFormat.METADATA);
+            writeVarLong(metadata.keySet().size());
+            for (String key : metadata.keySet()) {
+                writeString(key);
+                writeMetadataValue(metadata.get(key, null));
+            }
+        } else {
+            out.write(BinaryFormat.VALUE);
+            writeValue(o);
+        }
+    }
+
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    /**
+     * Writes the end of the file, and closes the underlying stream.
+     */
+    public void close() throws IOException {
+        out.write(BinaryFormat.END);
+        out.close();
+    }
+
+    private void writeMetadataValue(Object value) throws IOException {
+        if (value == null) {
+            out.write(BinaryFormat.META_NULL);
+        } else if (value instanceof String) {
+            out.write(BinaryFormat.META_STRING);
+            writeString((String) value);
+        } else if (value instanceof String[]) {
+            out.write(BinaryFormat.META_STRINGS);
+            writeArray(String[].class, value);
+        } else {
+            out.write(BinaryFormat.META_XML);
+            writeUTF(XStreamProxy.getXStream().toXML(value));
+        }
+    }
+
+    private void writeValue(Object o) throws IOException {
+        if (o == null) {
+            writeVarLong(BinaryFormat.NULL);
+            return;
+        }
+        int tag = BinaryFormat.tag(o.getClass());
+        writeVarLong(tag);
+        if (tag == BinaryFormat.XML) {
+            writeUTF(XStreamProxy.getXStream().toXML(o));
+            return;
+        }
+        try {
+            for (Field f : BinaryFormat.fields(o.getClass()))
+                writeField(f, o);
+        } catch (IllegalAccessException e) {
+            throw new IOException(e.toString());
+        }
+    }
+
+    private void writeField(Field f, Object o) throws IOException, IllegalAccessException {
+        Class<?> type = f.getType();
+        if (type == int.class)
+            writeZigZag(f.getInt(o));
+        else if (type == double.class)
+            writeDouble(f.getDouble(o));
+        else if (type == boolean.class)
+            out.write(f.getBoolean(o) ? 1 : 0);
+        else if (type == long.class)
+            writeZigZag(f.getLong(o));
+        else if (type == short.class)
+            writeZigZag(f.getShort(o));
+        else if (type == byte.class)
+            writeZigZag(f.getByte(o));
+        else if (type == char.class)
+            writeZigZag(f.getChar(o));
+        else if (type == float.class)
+            writeInt(Float.floatToIntBits(f.getFloat(o)));
+        else
+            writeReference(type, f.get(o));
+    }
+
+    /**
+     * Writes a String, enum, MapLocation or array.
+     */
+    private void writeReference(Class<?> type, Object value) throws IOException {
+        if (type == String.class)
+            writeString((String) value);
+        else if (type == MapLocation.class) {
+            MapLocation loc = (MapLocation) value;
+            if (loc == null) {
+                out.write(0);
+            } else {
+                out.write(1);
+                writeZigZag(loc.x);
+                writeZigZag(loc.y);
+            }
+        } else if (type.isEnum())
+            writeVarLong(value == null ? 0 : ((Enum<?>) value).ordinal() + 1);
+        else
+            writeArray(type, value);
+    }
+
+    private void writeArray(Class<?> type, Object array) throws IOException {
+        if (array == null) {
+            writeVarLong(0);
+            return;
+        }
+        Class<?> component = type.getComponentType();
+        if (component == int.class) {
+            int[] a = (int[]) array;
+            writeVarLong(a.length + 1);
+            for (int x : a)
+                writeZigZag(x);
+        } else if (component == double.class) {
+            double[] a = (double[]) array;
+            writeVarLong(a.length + 1);
+            for (double x : a)
+                writeDouble(x);
+        } else if (component == long.class) {
+            long[] a = (long[]) array;
+            writeVarLong(a.length + 1);
+            for (long x : a)
+                writeZigZag(x);
+        } else if (component == boolean.class) {
+            boolean[] a = (boolean[]) array;
+            writeVarLong(a.length + 1);
+            for (boolean x : a)
+                out.write(x ? 1 : 0);
+        } else if (component.isPrimitive()) {
+            int n = Array.getLength(array);
+            writeVarLong(n + 1);
+            for (int i = 0; i < n; i++) {
+                if (component == float.class)
+                    writeInt(Float.floatToIntBits(Array.getFloat(array, i)));
+                else
+                    writeZigZag(Array.getLong(array, i));
+            }
+        } else {
+            Object[] a = (Object[]) array;
+            writeVarLong(a.length + 1);
+            for (Object x : a)
+                writeReference(component, x);
+        }
+    }
+
+    private void writeString(String s) throws IOException {
+        if (s == null) {
+            writeVarLong(BinaryFormat.STRING_NULL);
+            return;
+        }
+        Integer index = strings.get(s);
+        if (index != null) {
+            writeVarLong(BinaryFormat.FIRST_STRING + index);
+        } else if (strings.size() < BinaryFormat.MAX_STRINGS) {
+            strings.put(s, strings.size());
+            writeVarLong(BinaryFormat.STRING_NEW);
+            writeUTF(s);
+        } else {
+            writeVarLong(BinaryFormat.STRING_INLINE);
+            writeUTF(s);
+        }
+    }
+
+    private void writeUTF(String s) throws IOException {
+        byte[] bytes = s.getBytes("UTF-8");
+        writeVarLong(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Writes a double as a varint: twice the zigzag encoding of the value if
+     * it is a small whole number, which most are, or 1 followed by its eight
+     * bytes otherwise.
+     */
+    private void writeDouble(double d) throws IOException {
+        long l = (long) d;
+        if (l == d && l > -(1L << 52) && l < (1L << 52) && (l != 0 || 1 / d > 0)) {
+            writeVarLong(((l << 1) ^ (l >> 63)) << 1);
+        } else {
+            writeVarLong(1);
+            long bits = Double.doubleToLongBits(d);
+            writeInt((int) (bits >>> 32));
+            writeInt((int) bits);
+        }
+    }
+
+    private void writeInt(int x) throws IOException {
+        out.write(x >>> 24);
+        out.write(x >>> 16);
+        out.write(x >>> 8);
+        out.write(x);
+    }
+
+    private void writeZigZag(long x) throws IOException {
+        writeVarLong((x << 1) ^ (x >> 63));
+    }
+
+    private void writeVarLong(long x) throws IOException {
+        int n = 0;
+        while ((x & ~0x7FL) != 0) {
+            scratch[n++] = (byte) ((x & 0x7F) | 0x80);
+            x >>>= 7;
+        }
+        scratch[n++] = (byte) x;
+        out.write(scratch, 0, n);
+    }
+}
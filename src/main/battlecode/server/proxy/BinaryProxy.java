@@ -0,0 +1,191 @@
+package battlecode.server.proxy;
+
+import battlecode.serial.MatchFooter;
+import battlecode.serial.RoundStats;
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.GnuParser;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+
+import java.io.*;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes match data in the compact binary format described in BinaryFormat.
+ * <p/>
+ * Running this class converts a match file between the binary, XML and Java
+ * serialization formats.
+ */
+public class BinaryProxy extends Proxy {
+
+    private final OutputStream stream;
+
+    private BinaryMatchWriter writer;
+
+    public BinaryProxy(OutputStream stream) {
+        this.stream = stream;
+    }
+
+    protected OutputStream getOutputStream() throws IOException {
+        return stream;
+    }
+
+    public void open() throws IOException {
+        writer = new BinaryMatchWriter(getOutputStream());
+    }
+
+    public void writeObject(Object o) throws IOException {
+        writer.writeObject(o);
+    }
+
+    // In "compute and view match synchronously" mode, we can get
+    // stuck if we don't flush every round
+    public void writeStats(RoundStats stats) throws IOException {
+        writeObject(stats);
+        writer.flush();
+    }
+
+    public void writeFooter(MatchFooter footer) throws IOException {
+        writeObject(footer);
+        writer.flush();
+    }
+
+    public void close() throws IOException {
+        writer.close();
+    }
+
+    static private final int EX_USAGE = 64;
+    static private final int EX_DATAERR = 65;
+    static private final int EX_IOERR = 74;
+
+    public static void usage() {
+        System.err.println("Usage: BinaryProxy [-f binary|xml|java] [-z] [file]");
+        System.err.println("Converts a match file, in any format and compressed or not, to the given format (binary by default).");
+        System.exit(EX_USAGE);
+    }
+
+    /**
+     * Opens a match file in any of the formats, gzipped or not.
+     */
+    public static MatchInput openMatch(InputStream stream) throws IOException {
+        stream = new BufferedInputStream(stream);
+        byte[] start = peek(stream);
+        if ((start[0] & 0xFF) == 0x1F && (start[1] & 0xFF) == 0x8B) {
+            stream = new BufferedInputStream(new GZIPInputStream(stream));
+            start = peek(stream);
+        }
+        if (BinaryMatchReader.isBinaryMatch(start, start.length)) {
+            final BinaryMatchReader reader = new BinaryMatchReader(stream);
+            return new MatchInput() {
+                public Object readObject() throws IOException {
+                    return reader.readObject();
+                }
+            };
+        }
+        final ObjectInputStream input;
+        if ((start[0] & 0xFF) == 0xAC && (start[1] & 0xFF) == 0xED)
+            input = new ObjectInputStream(stream);
+        else
+            input = XStreamProxy.getXStream().createObjectInputStream(stream);
+        return new MatchInput() {
+            public Object readObject() throws IOException, ClassNotFoundException {
+                return input.readObject();
+            }
+        };
+    }
+
+    /**
+     * A match file opened by openMatch.
+     */
+    public interface MatchInput {
+        /**
+         * Returns the next object in the file.
+         *
+         * @throws EOFException at the end of the file
+         */
+        Object readObject() throws IOException, ClassNotFoundException;
+    }
+
+    private static byte[] peek(InputStream stream) throws IOException {
+        byte[] start = new byte[4];
+        stream.mark(start.length);
+        int n = 0;
+        while (n < start.length) {
+            int r = stream.read(start, n, start.length - n);
+            if (r < 0)
+                break;
+            n += r;
+        }
+        stream.reset();
+        return start;
+    }
+
+    public static void main(String[] args) {
+        Options options = new Options();
+        options.addOption("f", "format", true, "the format to write: binary, xml or java");
+        options.addOption("z", "gzip", false, "gzip the output");
+        CommandLine cl = null;
+        try {
+            cl = new GnuParser().parse(options, args);
+        } catch (ParseException e) {
+            usage();
+            return;
+        }
+        String format = cl.getOptionValue('f', "binary");
+        Proxy proxy = null;
+        try {
+            InputStream stream;
+            switch (cl.getArgs().length) {
+                case 0:
+                    stream = System.in;
+                    break;
+                case 1:
+                    stream = new FileInputStream(cl.getArgs()[0]);
+                    break;
+                default:
+                    usage();
+                    return;
+            }
+            MatchInput input = openMatch(stream);
+            final OutputStream out = cl.hasOption('z') ? new GZIPOutputStream(System.out) : new BufferedOutputStream(System.out);
+            if (format.equals("binary")) {
+                proxy = new BinaryProxy(out);
+            } else if (format.equals("xml")) {
+                out.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n".getBytes("UTF-8"));
+                proxy = new XStreamProxy(out);
+            } else if (format.equals("java")) {
+                proxy = new Proxy() {
+                    protected OutputStream getOutputStream() throws IOException {
+                        return out;
+                    }
+                };
+            } else {
+                usage();
+                return;
+            }
+            proxy.open();
+            while (true) {
+                proxy.writeObject(input.readObject());
+            }
+        } catch (EOFException e) {
+            try {
+                if (proxy != null)
+                    proxy.close();
+            } catch (IOException e2) {
+                e2.printStackTrace();
+                System.exit(EX_IOERR);
+            }
+        } catch (ClassNotFoundException e) {
+            e.printStackTrace();
+            System.exit(EX_DATAERR);
+        } catch (IOException e) {
+            e.printStackTrace();
+            if (e instanceof StreamCorruptedException ||
+                    "Not in GZIP format".equals(e.getMessage()))
+                System.exit(EX_DATAERR);
+            else
+                System.exit(EX_IOERR);
+        }
+    }
+}
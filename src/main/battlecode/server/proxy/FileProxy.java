@@ -1,6 +1,7 @@
 package battlecode.server.proxy;
 
 import battlecode.serial.notification.Notification;
+import battlecode.server.Config;
 import battlecode.server.Server;
 
 import java.io.*;
@@ -49,6 +50,14 @@ public class FileProxy extends Proxy {
     }
 
     protected FileProxy(String fileName, boolean buffered) throws IOException {
+        this(fileName, buffered, true);
+    }
+
+    /**
+     * @param compressed whether stream should gzip what is written to it,
+     *                   rather than write it to the file as it is
+     */
+    protected FileProxy(String fileName, boolean buffered, boolean compressed) throws IOException {
         super();
 
         this.buffered = buffered;
@@ -75,10 +84,31 @@ public class FileProxy extends Proxy {
             fileWriter = new FileOutputStream(temp);
         }
 
-        stream = new GZIPOutputStream(fileWriter);
+        stream = compressed ? compress(fileWriter) : fileWriter;
 
     }
 
+    /**
+     * Returns a gzip stream that writes to out, compressing on
+     * bc.server.output-compression-threads threads at
+     * bc.server.output-compression-level.  With one thread (the default)
+     * this is a plain GZIPOutputStream, so the file is the same as it always
+     * was; more threads write a series of gzip members instead.
+     */
+    protected static OutputStream compress(OutputStream out) throws IOException {
+        Config options = Config.getGlobalConfig();
+        final int level = options.getInt("bc.server.output-compression-level");
+        int threads = options.getInt("bc.server.output-compression-threads");
+        if (threads == 1) {
+            return new GZIPOutputStream(out) {
+                {
+                    def.setLevel(level);
+                }
+            };
+        }
+        return new ParallelGZIPOutputStream(out, level, threads);
+    }
+
     public OutputStream getOutputStream() throws IOException {
         return stream;
     }
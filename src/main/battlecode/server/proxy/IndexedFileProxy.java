@@ -0,0 +1,213 @@
+package battlecode.server.proxy;
+
+import battlecode.serial.MatchHeader;
+import battlecode.serial.RoundDelta;
+import battlecode.serial.RoundKeyframe;
+import battlecode.serial.notification.Notification;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Saves match data in a file that can be read from any round, without
+ * decoding the rounds before it (see IndexedMatchFile).
+ * <p/>
+ * The file is a series of gzip members, each compressed on its own.  Each
+ * match is split into chunks of getKeyframeInterval() rounds, and each chunk
+ * is a member holding a complete binary match file (see BinaryFormat).  The
+ * first chunk of a match starts with its MatchHeader; the others start with
+ * a RoundKeyframe, so they can be read without the chunks before them.
+ * <p/>
+ * The last member is empty, and holds the index in a gzip extra field with
+ * the id INDEX_ID.  The index is a series of varints: INDEX_VERSION, the
+ * number of matches, and for each match its number of rounds, its number of
+ * chunks and, for each chunk, its first round and the offset of its member
+ * in the file.  The last eight bytes of the index are the offset of the
+ * index member, big-endian, which puts them 18 bytes from the end of the
+ * file.  An extra field holds at most 64 KiB, so if a file gets so many
+ * chunks that the index might not fit, the interval doubles from then on.
+ * <p/>
+ * Since the chunks are just concatenated gzip members, anything that reads
+ * gzipped binary match files (such as BinaryProxy.openMatch) can also read
+ * the whole file from the start.
+ */
+public class IndexedFileProxy extends FileProxy {
+
+    static final byte[] INDEX_ID = {'B', 'X'};
+    static final int INDEX_VERSION = 1;
+
+    // the gzip extra field has a 16-bit length
+    private static final int MAX_INDEX_LENGTH = 0xFFFF - 4;
+
+    // read by the server's thread, through AsyncProxy
+    private volatile int interval;
+
+    private final int level;
+
+    // where the next member starts
+    private long position;
+
+    private final List<MatchIndex> matches = new ArrayList<MatchIndex>();
+
+    // the most the index can take up, so far
+    private int indexLength = varLength(INDEX_VERSION) + 5 + 8;
+    // when to double the interval: a quarter of the way to MAX_INDEX_LENGTH
+    // from where it last doubled, so that each doubling lasts for more rounds
+    // than the one before
+    private int indexLimit = MAX_INDEX_LENGTH / 4;
+
+    private ByteArrayOutputStream chunkBytes;
+    private BinaryMatchWriter chunk;
+
+    private static class MatchIndex {
+        int rounds;
+        final List<Integer> firstRounds = new ArrayList<Integer>();
+        final List<Long> offsets = new ArrayList<Long>();
+    }
+
+    /**
+     * @param fileName the name of the file to write to
+     * @param interval the number of rounds in each chunk
+     * @param level    the Deflater compression level
+     * @throws IOException if the file cannot be opened
+     */
+    public IndexedFileProxy(String fileName, int interval, int level) throws IOException {
+        super(fileName, false, false);
+        this.interval = Math.max(interval, 1);
+        this.level = level;
+    }
+
+    public OutputStream getOutputStream() throws IOException {
+        // chunks are written straight to the file
+        return null;
+    }
+
+    public int getKeyframeInterval() {
+        return interval;
+    }
+
+    public void writeObject(Object o) throws IOException {
+        if (o instanceof Notification)
+            return;
+        if (o instanceof MatchHeader) {
+            startMatch();
+            startChunk();
+        } else if (o instanceof RoundKeyframe && chunk != null
+                && ((RoundKeyframe) o).getRound() % interval != 0) {
+            // asked for before the interval last doubled
+            return;
+        } else if (o instanceof RoundKeyframe || chunk == null) {
+            if (matches.isEmpty())
+                startMatch();
+            startChunk();
+        }
+        chunk.writeObject(o);
+        if (o instanceof RoundDelta)
+            matches.get(matches.size() - 1).rounds++;
+    }
+
+    /**
+     * Writes the last chunk and the index, and moves the file into place.
+     */
+    public void close() throws IOException {
+        try {
+            finishChunk();
+            writeIndex();
+        } finally {
+            super.close();
+        }
+    }
+
+    private void startMatch() throws IOException {
+        // its number of rounds and chunks
+        growIndex(5 + 5);
+        matches.add(new MatchIndex());
+    }
+
+    private void startChunk() throws IOException {
+        finishChunk();
+        MatchIndex match = matches.get(matches.size() - 1);
+        growIndex(varLength(match.rounds) + varLength(position));
+        match.firstRounds.add(match.rounds);
+        match.offsets.add(position);
+        chunkBytes = new ByteArrayOutputStream();
+        chunk = new BinaryMatchWriter(chunkBytes);
+    }
+
+    private void finishChunk() throws IOException {
+        if (chunk == null)
+            return;
+        chunk.close();
+        byte[] data = chunkBytes.toByteArray();
+        byte[] member = ParallelGZIPOutputStream.compress(data, data.length, level);
+        stream.write(member);
+        position += member.length;
+        chunk = null;
+        chunkBytes = null;
+    }
+
+    private void growIndex(int length) throws IOException {
+        indexLength += length;
+        if (indexLength > MAX_INDEX_LENGTH)
+            throw new IOException("too many chunks to index; raise bc.server.index-interval");
+        if (indexLength > indexLimit) {
+            interval *= 2;
+            indexLimit = indexLength + (MAX_INDEX_LENGTH - indexLength) / 4;
+        }
+    }
+
+    private void writeIndex() throws IOException {
+        ByteArrayOutputStream index = new ByteArrayOutputStream();
+        writeVarLong(index, INDEX_VERSION);
+        writeVarLong(index, matches.size());
+        for (MatchIndex match : matches) {
+            writeVarLong(index, match.rounds);
+            writeVarLong(index, match.firstRounds.size());
+            for (int i = 0; i < match.firstRounds.size(); i++) {
+                writeVarLong(index, match.firstRounds.get(i));
+                writeVarLong(index, match.offsets.get(i));
+            }
+        }
+        for (int shift = 56; shift >= 0; shift -= 8)
+            index.write((int) (position >>> shift));
+        byte[] data = index.toByteArray();
+        if (data.length > MAX_INDEX_LENGTH)
+            throw new IOException("too many chunks to index; raise bc.server.index-interval");
+
+        ByteArrayOutputStream member = new ByteArrayOutputStream();
+        // gzip header, with FLG.FEXTRA set
+        member.write(new byte[]{0x1f, (byte) 0x8b, 8, 4, 0, 0, 0, 0, 0, 0});
+        writeShortLE(member, data.length + 4);
+        member.write(INDEX_ID);
+        writeShortLE(member, data.length);
+        member.write(data);
+        // no data: an empty final deflate block, then a zero CRC and length
+        member.write(new byte[]{3, 0, 0, 0, 0, 0, 0, 0, 0, 0});
+        stream.write(member.toByteArray());
+    }
+
+    private static int varLength(long x) {
+        int length = 1;
+        while ((x & ~0x7FL) != 0) {
+            length++;
+            x >>>= 7;
+        }
+        return length;
+    }
+
+    private static void writeShortLE(OutputStream out, int x) throws IOException {
+        out.write(x);
+        out.write(x >>> 8);
+    }
+
+    private static void writeVarLong(OutputStream out, long x) throws IOException {
+        while ((x & ~0x7FL) != 0) {
+            out.write((int) ((x & 0x7F) | 0x80));
+            x >>>= 7;
+        }
+        out.write((int) x);
+    }
+}
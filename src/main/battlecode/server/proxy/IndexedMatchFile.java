@@ -0,0 +1,209 @@
+package battlecode.server.proxy;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Reads a file written by IndexedFileProxy, starting at any round.
+ * <p/>
+ * The file is memory-mapped, and the index read when it is opened, so
+ * seeking to a round only decodes the chunk it is in.  To get the state of a
+ * match at round r, apply the RoundKeyframe that seek(match, r) returns
+ * first (or start from the MatchHeader, for the first chunk), then the
+ * RoundDeltas that follow it, up to round r.
+ */
+public class IndexedMatchFile {
+
+    private final ByteBuffer buffer;
+
+    // where the chunks end and the index begins
+    private final int indexOffset;
+
+    private final int[] rounds;
+    private final int[][] firstRounds;
+    private final int[][] offsets;
+
+    /**
+     * Maps the given file and reads its index.
+     *
+     * @throws IOException if the file can't be read, or isn't an indexed
+     *                     match file
+     */
+    public IndexedMatchFile(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            long size = raf.length();
+            if (size > Integer.MAX_VALUE)
+                throw new IOException("match file too big to map: " + file);
+            buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, size);
+        } finally {
+            raf.close();
+        }
+
+        int length = buffer.limit();
+        if (length < 18 + 18)
+            throw new IOException("not an indexed match file");
+        long offset = buffer.getLong(length - 18);
+        if (offset < 0 || offset > length - 18 - 18)
+            throw new IOException("not an indexed match file");
+        indexOffset = (int) offset;
+        Cursor index = new Cursor(indexOffset);
+        if (index.readByte() != 0x1f || index.readByte() != 0x8b || index.readByte() != 8
+                || (index.readByte() & 4) == 0)
+            throw new IOException("not an indexed match file");
+        index.position = indexOffset + 12;
+        if (index.readByte() != IndexedFileProxy.INDEX_ID[0] || index.readByte() != IndexedFileProxy.INDEX_ID[1])
+            throw new IOException("not an indexed match file");
+        index.position += 2;
+        long version = index.readVarLong();
+        if (version != IndexedFileProxy.INDEX_VERSION)
+            throw new IOException("unsupported indexed match file version " + version);
+        int matches = index.readLength();
+        rounds = new int[matches];
+        firstRounds = new int[matches][];
+        offsets = new int[matches][];
+        for (int m = 0; m < matches; m++) {
+            rounds[m] = index.readLength();
+            int chunks = index.readLength();
+            firstRounds[m] = new int[chunks];
+            offsets[m] = new int[chunks];
+            for (int c = 0; c < chunks; c++) {
+                firstRounds[m][c] = index.readLength();
+                long chunkOffset = index.readVarLong();
+                if (chunkOffset < 0 || chunkOffset >= indexOffset)
+                    throw new IOException("corrupt indexed match file: bad offset " + chunkOffset);
+                offsets[m][c] = (int) chunkOffset;
+            }
+        }
+    }
+
+    public int getMatchCount() {
+        return rounds.length;
+    }
+
+    /**
+     * Returns the number of RoundDeltas in the given match.
+     */
+    public int getRoundCount(int match) {
+        return rounds[match];
+    }
+
+    /**
+     * Returns the first round of the chunk that holds the given round: the
+     * round that the RoundKeyframe at the start of seek(match, round) is
+     * for.
+     */
+    public int getChunkStart(int match, int round) {
+        return firstRounds[match][chunk(match, round)];
+    }
+
+    /**
+     * Returns the objects in the file from the start of the chunk that holds
+     * the given round to the end of the file.
+     *
+     * @param match the match, counting from 0
+     * @param round the round, counting from 0
+     */
+    public BinaryProxy.MatchInput seek(int match, int round) throws IOException {
+        ByteBuffer chunks = buffer.duplicate();
+        chunks.position(offsets[match][chunk(match, round)]);
+        chunks.limit(indexOffset);
+        final BinaryMatchReader reader = new BinaryMatchReader(new GZIPInputStream(new ByteBufferInputStream(chunks)));
+        return new BinaryProxy.MatchInput() {
+            public Object readObject() throws IOException {
+                return reader.readObject();
+            }
+        };
+    }
+
+    /**
+     * Returns the index of the last chunk that starts at or before round.
+     */
+    private int chunk(int match, int round) {
+        int[] starts = firstRounds[match];
+        if (starts.length == 0)
+            throw new IllegalArgumentException("match " + match + " has no chunks");
+        int lo = 0, hi = starts.length - 1;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (starts[mid] <= round)
+                lo = mid;
+            else
+                hi = mid - 1;
+        }
+        return lo;
+    }
+
+    /**
+     * Reads varints from the mapped file.
+     */
+    private class Cursor {
+        int position;
+
+        Cursor(int position) {
+            this.position = position;
+        }
+
+        int readByte() throws IOException {
+            if (position >= buffer.limit())
+                throw new IOException("corrupt indexed match file: index runs past the end");
+            return buffer.get(position++) & 0xFF;
+        }
+
+        int readLength() throws IOException {
+            long x = readVarLong();
+            if (x < 0 || x > Integer.MAX_VALUE)
+                throw new IOException("corrupt indexed match file: bad length " + x);
+            return (int) x;
+        }
+
+        long readVarLong() throws IOException {
+            long x = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                int b = readByte();
+                x |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0)
+                    return x;
+            }
+            throw new IOException("corrupt indexed match file: varint too long");
+        }
+    }
+
+    private static class ByteBufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        public int read(byte[] b, int off, int len) {
+            if (len == 0)
+                return 0;
+            if (!buffer.hasRemaining())
+                return -1;
+            len = Math.min(len, buffer.remaining());
+            buffer.get(b, off, len);
+            return len;
+        }
+
+        public long skip(long n) {
+            int skipped = (int) Math.max(0, Math.min(n, buffer.remaining()));
+            buffer.position(buffer.position() + skipped);
+            return skipped;
+        }
+
+        // GZIPInputStream uses this to tell whether another member follows
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+}
@@ -0,0 +1,193 @@
+package battlecode.server.proxy;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * A gzip output stream that compresses on several threads.
+ * <p/>
+ * The data is cut into blocks of BLOCK_SIZE bytes, and each block is
+ * compressed on its own into a complete gzip member.  The members are
+ * written in order, and a file of concatenated members is a valid gzip file,
+ * which GZIPInputStream and gunzip read as the whole of the data.  Starting
+ * each block afresh costs a little compression, in exchange for not having
+ * to wait for one thread to get through the whole match.
+ * <p/>
+ * Like GZIPOutputStream, flush() only writes the blocks that are already
+ * full, so that flushing every round doesn't make lots of tiny members.
+ */
+public class ParallelGZIPOutputStream extends FilterOutputStream {
+
+    // big enough that starting each block with an empty dictionary costs
+    // only about 1% in size
+    static final int BLOCK_SIZE = 1 << 20;
+
+    private static final byte[] HEADER = {0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, 0};
+
+    private final int level;
+
+    private final ExecutorService executor;
+
+    // compressed blocks that haven't been written yet, in order
+    private final ArrayDeque<Future<byte[]>> pending = new ArrayDeque<Future<byte[]>>();
+    private final int maxPending;
+
+    private byte[] block = new byte[BLOCK_SIZE];
+    private int blockLength;
+
+    private boolean closed;
+
+    /**
+     * @param out     the stream to write the compressed data to
+     * @param level   the Deflater compression level
+     * @param threads the number of threads to compress on, or 0 for one per
+     *                processor
+     */
+    public ParallelGZIPOutputStream(OutputStream out, int level, int threads) {
+        super(out);
+        if (threads <= 0)
+            threads = Runtime.getRuntime().availableProcessors();
+        this.level = level;
+        // enough to keep every thread busy, without holding the whole
+        // match in memory if the disk can't keep up
+        maxPending = 2 * threads;
+        executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "gzip");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    public void write(int b) throws IOException {
+        block[blockLength++] = (byte) b;
+        if (blockLength == BLOCK_SIZE)
+            submit();
+    }
+
+    public void write(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            int n = Math.min(len, BLOCK_SIZE - blockLength);
+            System.arraycopy(b, off, block, blockLength, n);
+            blockLength += n;
+            off += n;
+            len -= n;
+            if (blockLength == BLOCK_SIZE)
+                submit();
+        }
+    }
+
+    /**
+     * Writes the blocks that have finished compressing, without waiting for
+     * the rest.
+     */
+    public void flush() throws IOException {
+        while (!pending.isEmpty() && pending.peekFirst().isDone())
+            writeNext();
+        out.flush();
+    }
+
+    /**
+     * Compresses and writes everything, then closes the underlying stream.
+     */
+    public void close() throws IOException {
+        if (closed)
+            return;
+        closed = true;
+        try {
+            if (blockLength > 0)
+                submit();
+            while (!pending.isEmpty())
+                writeNext();
+        } finally {
+            executor.shutdownNow();
+            out.close();
+        }
+    }
+
+    private void submit() throws IOException {
+        final byte[] data = block;
+        final int length = blockLength;
+        pending.addLast(executor.submit(new Callable<byte[]>() {
+            public byte[] call() {
+                return compress(data, length, level);
+            }
+        }));
+        block = new byte[BLOCK_SIZE];
+        blockLength = 0;
+        while (pending.size() > maxPending)
+            writeNext();
+    }
+
+    private void writeNext() throws IOException {
+        byte[] member;
+        boolean interrupted = false;
+        while (true) {
+            try {
+                member = pending.peekFirst().get();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            } catch (ExecutionException e) {
+                IOException ioe = new IOException("couldn't compress match data: " + e.getCause());
+                ioe.initCause(e.getCause());
+                throw ioe;
+            }
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+        pending.removeFirst();
+        out.write(member);
+    }
+
+    /**
+     * Returns the given data as a gzip member.
+     */
+    static byte[] compress(byte[] data, int length, int level) {
+        Deflater deflater = new Deflater(level, true);
+        try {
+            deflater.setInput(data, 0, length);
+            deflater.finish();
+            // deflate can expand incompressible data slightly
+            byte[] member = new byte[HEADER.length + length + length / 1000 + 64 + 8];
+            System.arraycopy(HEADER, 0, member, 0, HEADER.length);
+            int n = HEADER.length;
+            while (!deflater.finished()) {
+                if (n == member.length - 8) {
+                    byte[] bigger = new byte[member.length * 2];
+                    System.arraycopy(member, 0, bigger, 0, n);
+                    member = bigger;
+                }
+                n += deflater.deflate(member, n, member.length - 8 - n);
+            }
+            CRC32 crc = new CRC32();
+            crc.update(data, 0, length);
+            n = writeIntLE(member, n, (int) crc.getValue());
+            n = writeIntLE(member, n, length);
+            byte[] result = new byte[n];
+            System.arraycopy(member, 0, result, 0, n);
+            return result;
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static int writeIntLE(byte[] b, int off, int x) {
+        b[off] = (byte) x;
+        b[off + 1] = (byte) (x >>> 8);
+        b[off + 2] = (byte) (x >>> 16);
+        b[off + 3] = (byte) (x >>> 24);
+        return off + 4;
+    }
+}
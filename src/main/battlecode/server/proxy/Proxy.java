@@ -3,6 +3,7 @@ package battlecode.server.proxy;
 import battlecode.serial.MatchFooter;
 import battlecode.serial.MatchHeader;
 import battlecode.serial.RoundDelta;
+import battlecode.serial.RoundKeyframe;
 import battlecode.serial.RoundStats;
 
 import java.io.IOException;
@@ -107,6 +108,24 @@ public abstract class Proxy {
         writeObject(footer);
     }
 
+    /**
+     * Returns how often, in rounds, this proxy wants a RoundKeyframe, or 0 if
+     * it doesn't want them.
+     */
+    public int getKeyframeInterval() {
+        return 0;
+    }
+
+    /**
+     * Writes the state of the match after every getKeyframeInterval() rounds.
+     *
+     * @param keyframe the state of the match
+     * @throws IOException if the recipient could not be written to
+     */
+    public void writeKeyframe(RoundKeyframe keyframe) throws IOException {
+        writeObject(keyframe);
+    }
+
     /**
      * Writes stats data to the recipient.
      *
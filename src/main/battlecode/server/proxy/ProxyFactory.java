@@ -1,5 +1,6 @@
 package battlecode.server.proxy;
 
+import battlecode.serial.notification.Notification;
 import battlecode.server.Config;
 
 import java.io.IOException;
@@ -14,6 +15,8 @@ public class ProxyFactory {
 
     public static Proxy createProxy(final OutputStream stream)
             throws IOException {
+        if (Config.getGlobalConfig().getBoolean("bc.server.output-binary"))
+            return new BinaryProxy(stream);
         if (Boolean.parseBoolean(Config.getGlobalConfig().get("bc.server.output-xml")))
             return new XStreamProxy(stream);
         else
@@ -32,6 +35,10 @@ public class ProxyFactory {
      * @throws IOException if the Proxy could not be created
      */
     public static Proxy createProxyFromFile(String fileName) throws IOException {
+        if (Config.getGlobalConfig().getBoolean("bc.server.output-indexed"))
+            return createIndexedProxyFromFile(fileName);
+        if (Config.getGlobalConfig().getBoolean("bc.server.output-binary"))
+            return createBinaryProxyFromFile(fileName);
         if (Boolean.parseBoolean(Config.getGlobalConfig().get("bc.server.output-xml")))
             return createXStreamProxyFromFile(fileName);
         else
@@ -60,4 +67,52 @@ public class ProxyFactory {
 
         };
     }
+
+    /**
+     * This method creates a Proxy for writing match data in the compact binary
+     * format (see BinaryProxy).
+     *
+     * @param fileName the name of the file to use for saving match data
+     * @return a new Proxy for writing match data to binary file
+     * @throws IOException if the Proxy could not be created
+     */
+    public static Proxy createBinaryProxyFromFile(String fileName)
+            throws IOException {
+        return new FileProxy(fileName) {
+
+            private BinaryMatchWriter writer;
+
+            public void open() throws IOException {
+                writer = new BinaryMatchWriter(stream);
+            }
+
+            public void writeObject(Object o) throws IOException {
+                if (o instanceof Notification)
+                    return;
+                writer.writeObject(o);
+            }
+
+            public void close() throws IOException {
+                // finishes the gzip stream before the file is moved into place
+                writer.close();
+                super.close();
+            }
+
+        };
+    }
+
+    /**
+     * This method creates a Proxy for writing match data in chunks that can
+     * be read from any round (see IndexedFileProxy).
+     *
+     * @param fileName the name of the file to use for saving match data
+     * @return a new Proxy for writing match data to an indexed file
+     * @throws IOException if the Proxy could not be created
+     */
+    public static Proxy createIndexedProxyFromFile(String fileName)
+            throws IOException {
+        Config options = Config.getGlobalConfig();
+        return new IndexedFileProxy(fileName, options.getInt("bc.server.index-interval"),
+                options.getInt("bc.server.output-compression-level"));
+    }
 }
@@ -1,6 +1,7 @@
 package battlecode.world;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.EnumMap;
 import java.util.EnumSet;
@@ -17,12 +18,15 @@ import battlecode.common.GameActionExceptionType;
 import battlecode.common.GameConstants;
 import battlecode.common.MapLocation;
 import battlecode.common.MovementType;
+import battlecode.common.RadiusOffsets;
 import battlecode.common.RobotLevel;
 import battlecode.common.RobotType;
 import battlecode.common.Team;
 import battlecode.common.TerrainTile;
 import battlecode.common.Upgrade;
+import battlecode.engine.Engine;
 import battlecode.engine.ErrorReporter;
+import battlecode.engine.GenericRobot;
 import battlecode.engine.GenericWorld;
 import battlecode.engine.instrumenter.RobotDeathException;
 import battlecode.engine.instrumenter.RobotMonitor;
@@ -80,7 +84,13 @@ public class GameWorld extends BaseWorld<InternalObject> implements GenericWorld
     private double[] teamRoundResources = new double[2];
     private double[] lastRoundResources = new double[2];
     private int[] teamKills = new int[2];
-    private final Map<MapLocation3D, InternalObject> gameObjectsByLoc = new HashMap<MapLocation3D, InternalObject>();
+    // the object at each tile, for each RobotLevel; see tileIndex
+    private final InternalObject[][] gameObjectsByLoc;
+    private final int originX, originY, width, height;
+    private final SpatialIndex spatialIndex;
+    private int objectsAdded;
+    // reused by processBeginningOfRound and processEndOfRound
+    private InternalObject[] objectSnapshot = new InternalObject[0];
     private double[] teamResources = new double[2];
     private double[] teamSpawnRate = new double[2];
     private int[] teamRobotCount = new int[2];
@@ -95,7 +105,9 @@ public class GameWorld extends BaseWorld<InternalObject> implements GenericWorld
     private Map<Team, Map<Upgrade, Integer>> research = new EnumMap<Team, Map<Upgrade, Integer>>(Team.class);
     
     private Map<Team, Set<Upgrade>> upgrades = new EnumMap<Team, Set<Upgrade>>(Team.class);
-    private Map<Team, Map<Integer, Integer>> radio = new EnumMap<Team, Map<Integer, Integer>>(Team.class);
+    // the value of every radio channel, for each of teams A and B
+    private final int[][] radio = new int[2][GameConstants.BROADCAST_MAX_CHANNELS + 1];
+    private final NeutralsSignalEncoder neutralsSignals;
 
     // robots to remove from the game at end of turn
     private List<InternalRobot> deadRobots = new ArrayList<InternalRobot>();
@@ -106,6 +118,12 @@ public class GameWorld extends BaseWorld<InternalObject> implements GenericWorld
     public GameWorld(GameMap gm, String teamA, String teamB, long[][] oldArchonMemory) {
         super(gm.getSeed(), teamA, teamB, oldArchonMemory);
         gameMap = gm;
+        spatialIndex = new SpatialIndex(gm.getMapOrigin(), gm.getWidth(), gm.getHeight());
+        originX = gm.getMapOrigin().x;
+        originY = gm.getMapOrigin().y;
+        width = gm.getWidth();
+        height = gm.getHeight();
+        gameObjectsByLoc = new InternalObject[RobotLevel.values().length][width * height];
         mapMemory.put(Team.A, new GameMap.MapMemory(gameMap));
         mapMemory.put(Team.B, new GameMap.MapMemory(gameMap));
         mapMemory.put(Team.NEUTRAL, new GameMap.MapMemory(gameMap));
@@ -115,8 +133,10 @@ public class GameWorld extends BaseWorld<InternalObject> implements GenericWorld
         knownMineLocations.put(Team.B, new HashSet<MapLocation>());
         research.put(Team.A, new EnumMap<Upgrade, Integer>(Upgrade.class));
         research.put(Team.B, new EnumMap<Upgrade, Integer>(Upgrade.class));
-        radio.put(Team.A, new HashMap<Integer, Integer>());
-        radio.put(Team.B, new HashMap<Integer, Integer>());
+        Engine engine = Engine.current();
+        if (engine != null && engine.getOptions().getBoolean("bc.engine.parallel-neutrals"))
+            gm.getNeutralsMap().setKernel(NeutralsKernel.getInstance(engine.getOptions().getInt("bc.engine.neutrals-threads")));
+        neutralsSignals = new NeutralsSignalEncoder(engine == null ? 0 : engine.getOptions().getInt("bc.engine.neutrals-keyframe-interval"));
     }
     
     public GameMap.MapMemory getMapMemory(Team t) {
@@ -147,8 +167,7 @@ public class GameWorld extends BaseWorld<InternalObject> implements GenericWorld
                                      GameConstants.HQ_SPAWN_DELAY_CONSTANT_1 + GameConstants.HQ_SPAWN_DELAY_CONSTANT_2};
         
         // process all gameobjects
-        InternalObject[] gameObjects = new InternalObject[gameObjectsByID.size()];
-        gameObjects = gameObjectsByID.values().toArray(gameObjects);
+        InternalObject[] gameObjects = objectSnapshot = gameObjectsByID.snapshot(objectSnapshot);
         for (int i = 0; i < gameObjects.length; i++) {
             gameObjects[i].processBeginningOfRound();
         }
@@ -184,8 +203,7 @@ public class GameWorld extends BaseWorld<InternalObject> implements GenericWorld
 
     public void processEndOfRound() {
         // process all gameobjects
-        InternalObject[] gameObjects = new InternalObject[gameObjectsByID.size()];
-        gameObjects = gameObjectsByID.values().toArray(gameObjects);
+        InternalObject[] gameObjects = objectSnapshot = gameObjectsByID.snapshot(objectSnapshot);
         for (int i = 0; i < gameObjects.length; i++) {
             gameObjects[i].processEndOfRound();
         }
@@ -194,12 +212,13 @@ public class GameWorld extends BaseWorld<InternalObject> implements GenericWorld
         updateRevealedRobots();
 
         // update neutrals
-        gameMap.getNeutralsMap().next(gameObjects);
+        NeutralsMap neutrals = gameMap.getNeutralsMap();
+        neutrals.next(gameObjects);
         
         addSignal(new FluxChangeSignal(teamResources));
 		addSignal(new ResearchChangeSignal(research));
-        addSignal(new NeutralsDensitySignal(gameMap.getNeutralsMap()));
-        addSignal(new NeutralsTeamSignal(gameObjects, gameMap.getWidth(), gameMap.getHeight()));
+        addSignal(neutralsSignals.densitySignal(neutrals, currentRound));
+        addSignal(neutralsSignals.teamSignal(neutrals.getTeams(), currentRound));
 
         if (timeLimitReached() && winner == null) {
             // main tie breaker = milk
@@ -209,7 +228,7 @@ public class GameWorld extends BaseWorld<InternalObject> implements GenericWorld
             {
                 // first tie breaker - total # of cows in pastrs
                 // second tie breaker - total # of enemy robots killed 
-                double cowsDiff = gameMap.getNeutralsMap().getScoreChange(Team.A, gameObjects) - gameMap.getNeutralsMap().getScoreChange(Team.B, gameObjects);
+                double cowsDiff = neutrals.getScoreChange(Team.A) - neutrals.getScoreChange(Team.B);
                 double killDiff = teamKills[Team.A.ordinal()] - teamKills[Team.B.ordinal()];
                 
                 if (!(setWinnerIfNonzero(cowsDiff, DominationFactor.BARELY_BEAT) ||
@@ -237,8 +256,8 @@ public class GameWorld extends BaseWorld<InternalObject> implements GenericWorld
         roundStats = new RoundStats(teamResources[0] * 100, teamResources[1] * 100, teamRoundResources[0] * 100, teamRoundResources[1] * 100);
         
         // MILK
-        teamResources[Team.A.ordinal()] += gameMap.getNeutralsMap().getScoreChange(Team.A, gameObjects);
-        teamResources[Team.B.ordinal()] += gameMap.getNeutralsMap().getScoreChange(Team.B, gameObjects);
+        teamResources[Team.A.ordinal()] += neutrals.getScoreChange(Team.A);
+        teamResources[Team.B.ordinal()] += neutrals.getScoreChange(Team.B);
         if (teamResources[Team.A.ordinal()] >= GameConstants.WIN_QTY || teamResources[Team.B.ordinal()] >= GameConstants.WIN_QTY) {
             setWinnerIfNonzero(teamResources[Team.A.ordinal()] - teamResources[Team.B.ordinal()], DominationFactor.OWNED);
         }
@@ -246,7 +265,7 @@ public class GameWorld extends BaseWorld<InternalObject> implements GenericWorld
         lastRoundResources = teamRoundResources;
         teamRoundResources = new double[2];
 
-        gameMap.getNeutralsMap().resetAfterTurn();
+        neutrals.resetAfterTurn();
     }
 
     public boolean setWinnerIfNonzero(double n, DominationFactor d) {
@@ -300,7 +319,38 @@ public class GameWorld extends BaseWorld<InternalObject> implements GenericWorld
     }
 
     public InternalObject getObject(MapLocation loc, RobotLevel level) {
-        return gameObjectsByLoc.get(new MapLocation3D(loc, level));
+        return getObject(loc.x, loc.y, level);
+    }
+
+    /**
+     * Returns the object at the given coordinates, or null if there isn't one
+     * or the coordinates are off the map.
+     */
+    public InternalObject getObject(int x, int y, RobotLevel level) {
+        int tile = tileIndex(x, y);
+        return tile < 0 ? null : gameObjectsByLoc[level.ordinal()][tile];
+    }
+
+    /**
+     * Returns the index of the given tile in gameObjectsByLoc, or -1 if it is
+     * off the map.
+     */
+    private int tileIndex(int x, int y) {
+        x -= originX;
+        y -= originY;
+        if (x < 0 || y < 0 || x >= width || y >= height)
+            return -1;
+        return y * width + x;
+    }
+
+    /**
+     * Puts an object at the given location, or removes whatever is there if
+     * o is null.  Objects off the map aren't recorded.
+     */
+    private void setObject(MapLocation loc, RobotLevel level, InternalObject o) {
+        int tile = tileIndex(loc.x, loc.y);
+        if (tile >= 0)
+            gameObjectsByLoc[level.ordinal()][tile] = o;
     }
 
     public <T extends InternalObject> T getObjectOfType(MapLocation loc, RobotLevel level, Class<T> cl) {
@@ -312,7 +362,11 @@ public class GameWorld extends BaseWorld<InternalObject> implements GenericWorld
     }
 
     public InternalRobot getRobot(MapLocation loc, RobotLevel level) {
-        InternalObject obj = getObject(loc, level);
+        return getRobot(loc.x, loc.y, level);
+    }
+
+    public InternalRobot getRobot(int x, int y, RobotLevel level) {
+        InternalObject obj = getObject(x, y, level);
         if (obj instanceof InternalRobot)
             return (InternalRobot) obj;
         else
@@ -387,8 +441,10 @@ public class GameWorld extends BaseWorld<InternalObject> implements GenericWorld
         if (gameObjectsByID.containsKey(o.getID()))
             return;
         gameObjectsByID.put(o.getID(), o);
+        o.addedOrder = ++objectsAdded;
         if (o.getLocation() != null) {
-            gameObjectsByLoc.put(new MapLocation3D(o.getLocation(), o.getRobotLevel()), o);
+            setObject(o.getLocation(), o.getRobotLevel(), o);
+            spatialIndex.add(o, o.getLocation());
         }
 //        if (o instanceof InternalEncampment)
 //        {
@@ -429,27 +485,37 @@ public class GameWorld extends BaseWorld<InternalObject> implements GenericWorld
         return gameObjectsByID.values();
     }
 
+    /**
+     * Returns the objects whose locations are within radiusSquared of center,
+     * in the same order as allObjects().
+     */
+    public Collection<InternalObject> getObjectsWithinRadiusSq(MapLocation center, int radiusSquared) {
+        if (spatialIndex.coversAll(center, radiusSquared))
+            return gameObjectsByID.values();
+        return spatialIndex.withinRadiusSq(center, radiusSquared);
+    }
+
     // TODO: move stuff to here
     // should only be called by InternalObject.setLocation
     public void notifyMovingObject(InternalObject o, MapLocation oldLoc, MapLocation newLoc) {
+        spatialIndex.move(o, oldLoc, newLoc);
         if (oldLoc != null) {
-            MapLocation3D oldLoc3D = new MapLocation3D(oldLoc, o.getRobotLevel());
-            if (gameObjectsByLoc.get(oldLoc3D) != o) {
+            if (getObject(oldLoc, o.getRobotLevel()) != o) {
                 ErrorReporter.report("Internal Error: invalid oldLoc in notifyMovingObject");
                 return;
             }
-            gameObjectsByLoc.remove(oldLoc3D);
+            setObject(oldLoc, o.getRobotLevel(), null);
         }
         if (newLoc != null) {
-            gameObjectsByLoc.put(new MapLocation3D(newLoc, o.getRobotLevel()), o);
+            setObject(newLoc, o.getRobotLevel(), o);
         }
     }
 
     public void removeObject(InternalObject o) {
         if (o.getLocation() != null) {
-            MapLocation3D loc3D = new MapLocation3D(o.getLocation(), o.getRobotLevel());
-            if (gameObjectsByLoc.get(loc3D) == o)
-                gameObjectsByLoc.remove(loc3D);
+            spatialIndex.remove(o, o.getLocation());
+            if (getObject(o.getLocation(), o.getRobotLevel()) == o)
+                setObject(o.getLocation(), o.getRobotLevel(), null);
             else
             	if (o instanceof InternalRobot) {
             		InternalRobot ir = (InternalRobot) o;
@@ -464,6 +530,7 @@ public class GameWorld extends BaseWorld<InternalObject> implements GenericWorld
 
         if (gameObjectsByID.get(o.getID()) == o)
             gameObjectsByID.remove(o.getID());
+        o.removed = true;
 
         if (o instanceof InternalRobot) {
             InternalRobot r = (InternalRobot) o;
@@ -504,7 +571,7 @@ public class GameWorld extends BaseWorld<InternalObject> implements GenericWorld
 
     public boolean canMove(RobotLevel level, MapLocation loc) {
 
-        return gameMap.getTerrainTile(loc).isTraversableAtHeight(level) && (gameObjectsByLoc.get(new MapLocation3D(loc, level)) == null);
+        return gameMap.getTerrainTile(loc).isTraversableAtHeight(level) && (getObject(loc, level) == null);
     }
 
     public void splashDamageGround(MapLocation loc, double damage, double falloutFraction) {
@@ -555,9 +622,28 @@ public class GameWorld extends BaseWorld<InternalObject> implements GenericWorld
         return signals.toArray(new Signal[signals.size()]);
     }
     
+    public Signal[] getKeyframeSignals() {
+        ArrayList<InternalRobot> robots = new ArrayList<InternalRobot>();
+        for (InternalObject obj : getAllGameObjects()) {
+            if (obj instanceof InternalRobot)
+                robots.add((InternalRobot) obj);
+        }
+        InternalRobot[] all = robots.toArray(new InternalRobot[robots.size()]);
+        ArrayList<Signal> keyframe = new ArrayList<Signal>(all.length + 6);
+        for (InternalRobot r : all)
+            keyframe.add(new SpawnSignal(r, null));
+        keyframe.add(new EnergonChangeSignal(all));
+        keyframe.add(new ShieldChangeSignal(all));
+        keyframe.add(new FluxChangeSignal(teamResources));
+        keyframe.add(new ResearchChangeSignal(research));
+        NeutralsMap neutrals = gameMap.getNeutralsMap();
+        keyframe.add(new NeutralsDensitySignal(neutrals));
+        keyframe.add(new NeutralsTeamSignal(neutrals.getTeams()));
+        return keyframe.toArray(new Signal[keyframe.size()]);
+    }
+
     public int getMessage(Team t, int channel) {
-    	Integer val = radio.get(t).get(channel);
-    	return val == null ? 0 : val;
+    	return radio[t.ordinal()][channel];
     }
     
     public boolean hasUpgrade(Team t, Upgrade upgrade) {
@@ -580,16 +666,16 @@ public class GameWorld extends BaseWorld<InternalObject> implements GenericWorld
         return gameStats;
     }
 
-    public void beginningOfExecution(int robotID) {
-        InternalRobot r = (InternalRobot) getObjectByID(robotID);
-        if (r != null)
+    public void beginningOfExecution(GenericRobot robot) {
+        InternalRobot r = (InternalRobot) robot;
+        if (!r.removed)
             r.processBeginningOfTurn();
     }
 
-    public void endOfExecution(int robotID) {
-        InternalRobot r = (InternalRobot) getObjectByID(robotID);
-        // if the robot is dead, it won't be in the map any more
-        if (r != null) {
+    public void endOfExecution(GenericRobot robot) {
+        InternalRobot r = (InternalRobot) robot;
+        // if the robot is dead, it has been taken out of the world
+        if (!r.removed) {
             r.setBytecodesUsed(RobotMonitor.getBytecodesUsed());
             r.processEndOfTurn();
         }
@@ -602,13 +688,21 @@ public class GameWorld extends BaseWorld<InternalObject> implements GenericWorld
         deadRobots.add(r);
     }
 
+    /**
+     * Removes the robots that have died since the last call from the game.
+     * Each robot that dies is processed here exactly once.
+     */
     public void removeDead() {
         boolean current = false;
-        for (InternalRobot r : deadRobots) {
-            if (r.getID() == RobotMonitor.getCurrentRobotID())
+        int currentID = RobotMonitor.getCurrentRobotID();
+        // robots that die while this runs are added to the end and processed too
+        for (int i = 0; i < deadRobots.size(); i++) {
+            InternalRobot r = deadRobots.get(i);
+            if (r.getID() == currentID)
                 current = true;
             visitSignal(new DeathSignal(r));
         }
+        deadRobots.clear();
         if (current)
             throw new RobotDeathException();
     }
@@ -649,7 +743,7 @@ public class GameWorld extends BaseWorld<InternalObject> implements GenericWorld
         InternalRobot target;
         for (int dx = -1; dx <= 1; dx++)
             for (int dy = -1; dy <= 1; dy++) {
-                target = getRobot(targetLoc.add(dx, dy), level);
+                target = getRobot(targetLoc.x + dx, targetLoc.y + dy, level);
 
                 if (target != null) {
                     if (!(dx == 0 && dy == 0)) {
@@ -685,7 +779,7 @@ public class GameWorld extends BaseWorld<InternalObject> implements GenericWorld
 			for (int dx = -1; dx <= 1; dx++)
 				for (int dy = -1; dy <= 1; dy++) {
 
-					target = getRobot(targetLoc.add(dx, dy), level);
+					target = getRobot(targetLoc.x + dx, targetLoc.y + dy, level);
 
 					if (target != null) {
 						if (dx == 0 && dy == 0)
@@ -744,8 +838,12 @@ public class GameWorld extends BaseWorld<InternalObject> implements GenericWorld
 
     public void visitBroadcastSignal(BroadcastSignal s) {        
         nextRevealedRobots.add((InternalRobot) getObjectByID(s.getRobotID()));
-    	radio.get(s.getRobotTeam()).putAll(s.broadcastMap);
-    	s.broadcastMap = null;
+    	int[] teamRadio = radio[s.getRobotTeam().ordinal()];
+    	// later broadcasts to the same channel overwrite earlier ones
+    	for (int i = 0; i < s.broadcastCount; i++)
+    		teamRadio[s.broadcastChannels[i]] = s.broadcastValues[i];
+    	s.broadcastChannels = null;
+    	s.broadcastValues = null;
         addSignal(s);
     }
 
@@ -921,7 +1019,7 @@ public class GameWorld extends BaseWorld<InternalObject> implements GenericWorld
         	for (int dy=-dist; dy<=dist; dy++)
         	{
         		if (dx*dx+dy*dy > medbay.type.attackRadiusMaxSquared) continue;
-        		target = getRobot(targetLoc.add(dx, dy), level);
+        		target = getRobot(targetLoc.x + dx, targetLoc.y + dy, level);
         		if (target != null)
         			if (target.getTeam() == medbay.getTeam() && target.type != RobotType.HQ)
         				target.takeDamage(-medbay.type.attackPower, medbay);
@@ -941,7 +1039,7 @@ public class GameWorld extends BaseWorld<InternalObject> implements GenericWorld
         	for (int dy=-dist; dy<=dist; dy++)
         	{
         		if (dx*dx+dy*dy > shields.type.attackRadiusMaxSquared) continue;
-        		target = getRobot(targetLoc.add(dx, dy), level);
+        		target = getRobot(targetLoc.x + dx, targetLoc.y + dy, level);
         		if (target != null)
         			if (target.getTeam() == shields.getTeam())
         				target.takeShieldedDamage(-shields.type.attackPower);
@@ -994,11 +1092,10 @@ public class GameWorld extends BaseWorld<InternalObject> implements GenericWorld
             return (dotProduct * dotProduct >= rhs - 0.00001d);
     }
 
-    // TODO: make a faster implementation of this
     protected InternalRobot[] getAllRobotsWithinRadiusDonutSq(MapLocation center, int outerRadiusSquared, int innerRadiusSquared) {
         ArrayList<InternalRobot> robots = new ArrayList<InternalRobot>();
 
-        for (InternalObject o : gameObjectsByID.values()) {
+        for (InternalObject o : getObjectsWithinRadiusSq(center, outerRadiusSquared)) {
             if (!(o instanceof InternalRobot))
                 continue;
             if (o.getLocation() != null && o.getLocation().distanceSquaredTo(center) <= outerRadiusSquared
@@ -1009,27 +1106,21 @@ public class GameWorld extends BaseWorld<InternalObject> implements GenericWorld
         return robots.toArray(new InternalRobot[robots.size()]);
     }
 
-    // TODO: make a faster implementation of this
+    /**
+     * Returns the locations on the map strictly within the given distance of
+     * center.  Unlike MapLocation.getAllMapLocationsWithinRadiusSq, locations
+     * at exactly radiusSquared aren't included.
+     */
     public MapLocation[] getAllMapLocationsWithinRadiusSq(MapLocation center, int radiusSquared) {
-        ArrayList<MapLocation> locations = new ArrayList<MapLocation>();
-
-        int radius = (int) Math.sqrt(radiusSquared);
-
-        int minXPos = center.x - radius;
-        int maxXPos = center.x + radius;
-        int minYPos = center.y - radius;
-        int maxYPos = center.y + radius;
-
-        for (int x = minXPos; x <= maxXPos; x++) {
-            for (int y = minYPos; y <= maxYPos; y++) {
-                MapLocation loc = new MapLocation(x, y);
-                TerrainTile tile = gameMap.getTerrainTile(loc);
-                if (!tile.equals(TerrainTile.OFF_MAP) && loc.distanceSquaredTo(center) < radiusSquared)
-                    locations.add(loc);
-            }
+        int[][] offsets = RadiusOffsets.strictlyWithin(radiusSquared);
+        MapLocation[] locations = new MapLocation[offsets[0].length];
+        int n = 0;
+        for (int i = 0; i < locations.length; i++) {
+            MapLocation loc = new MapLocation(center.x + offsets[0][i], center.y + offsets[1][i]);
+            if (gameMap.getTerrainTile(loc) != TerrainTile.OFF_MAP)
+                locations[n++] = loc;
         }
-
-        return locations.toArray(new MapLocation[locations.size()]);
+        return n == locations.length ? locations : Arrays.copyOf(locations, n);
     }
 
     public double resources(Team t) {
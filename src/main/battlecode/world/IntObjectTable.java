@@ -0,0 +1,235 @@
+package battlecode.world;
+
+import java.lang.reflect.Array;
+import java.util.AbstractCollection;
+import java.util.Collection;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * A map from int keys to objects that iterates in the order the keys were
+ * added, like a LinkedHashMap, but without boxing the keys or allocating an
+ * entry per mapping.
+ * <p/>
+ * The entries are kept in insertion order in parallel arrays; removing one
+ * leaves a hole that is squeezed out when the arrays fill up.  An open
+ * addressing table with linear probing maps each key to its position in the
+ * arrays.  Values can't be null.
+ */
+public class IntObjectTable<V> {
+
+    private static final int MIN_CAPACITY = 16;
+
+    // the entries, in insertion order; removed entries have a null value
+    private int[] keys;
+    private Object[] values;
+    private int end;
+    private int size;
+
+    // 1 + the position of each key in keys, or 0 for an empty slot
+    private int[] slots;
+    private int mask;
+
+    private int modCount;
+
+    private final Collection<V> valuesView = new AbstractCollection<V>() {
+        public Iterator<V> iterator() {
+            return new ValueIterator();
+        }
+
+        public int size() {
+            return size;
+        }
+    };
+
+    public IntObjectTable() {
+        keys = new int[MIN_CAPACITY];
+        values = new Object[MIN_CAPACITY];
+        slots = new int[MIN_CAPACITY * 2];
+        mask = slots.length - 1;
+    }
+
+    private static int hash(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * Returns the slot that holds the given key, or -1 if it isn't in the table.
+     */
+    private int find(int key) {
+        for (int i = hash(key) & mask; ; i = (i + 1) & mask) {
+            int pos = slots[i];
+            if (pos == 0)
+                return -1;
+            if (keys[pos - 1] == key)
+                return i;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    public V get(int key) {
+        int slot = find(key);
+        return slot < 0 ? null : (V) values[slots[slot] - 1];
+    }
+
+    public boolean containsKey(int key) {
+        return find(key) >= 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Maps key to value.  A key that is already in the table keeps its place
+     * in the iteration order.
+     *
+     * @return the value that key used to map to, or null
+     */
+    @SuppressWarnings("unchecked")
+    public V put(int key, V value) {
+        if (value == null)
+            throw new NullPointerException();
+        int slot = find(key);
+        if (slot >= 0) {
+            int pos = slots[slot] - 1;
+            V old = (V) values[pos];
+            values[pos] = value;
+            return old;
+        }
+        if (end == keys.length)
+            makeRoom();
+        keys[end] = key;
+        values[end] = value;
+        end++;
+        size++;
+        modCount++;
+        insertSlot(key, end);
+        return null;
+    }
+
+    @SuppressWarnings("unchecked")
+    public V remove(int key) {
+        int slot = find(key);
+        if (slot < 0)
+            return null;
+        int pos = slots[slot] - 1;
+        V old = (V) values[pos];
+        values[pos] = null;
+        size--;
+        modCount++;
+        deleteSlot(slot);
+        return old;
+    }
+
+    private void insertSlot(int key, int posPlusOne) {
+        int i = hash(key) & mask;
+        while (slots[i] != 0)
+            i = (i + 1) & mask;
+        slots[i] = posPlusOne;
+    }
+
+    /**
+     * Empties a slot, moving later keys in the same run back so that every key
+     * can still be reached from its home slot.
+     */
+    private void deleteSlot(int hole) {
+        for (int i = (hole + 1) & mask; slots[i] != 0; i = (i + 1) & mask) {
+            int home = hash(keys[slots[i] - 1]) & mask;
+            // move the key into the hole unless its home is cyclically in (hole, i]
+            if (hole <= i ? (home <= hole || home > i) : (home <= hole && home > i)) {
+                slots[hole] = slots[i];
+                hole = i;
+            }
+        }
+        slots[hole] = 0;
+    }
+
+    /**
+     * Squeezes out removed entries, growing the arrays if that doesn't free
+     * up enough room.
+     */
+    private void makeRoom() {
+        int capacity = keys.length;
+        if (size * 2 > capacity)
+            capacity *= 2;
+        int[] newKeys = new int[capacity];
+        Object[] newValues = new Object[capacity];
+        int n = 0;
+        for (int i = 0; i < end; i++) {
+            if (values[i] != null) {
+                newKeys[n] = keys[i];
+                newValues[n] = values[i];
+                n++;
+            }
+        }
+        keys = newKeys;
+        values = newValues;
+        end = n;
+        slots = new int[capacity * 2];
+        mask = slots.length - 1;
+        for (int i = 0; i < end; i++)
+            insertSlot(keys[i], i + 1);
+    }
+
+    /**
+     * Returns a live view of the values, in insertion order.  Like a
+     * LinkedHashMap's, its iterators fail if keys are added or removed while
+     * they are in use.
+     */
+    public Collection<V> values() {
+        return valuesView;
+    }
+
+    /**
+     * Returns the values in insertion order, in the given array if it is
+     * exactly the right size and in a new array of the same type otherwise.
+     * This lets a caller that takes a snapshot every round reuse the same
+     * array for as long as the number of values stays the same.
+     */
+    @SuppressWarnings("unchecked")
+    public V[] snapshot(V[] reuse) {
+        V[] result = reuse.length == size ? reuse : (V[]) Array.newInstance(reuse.getClass().getComponentType(), size);
+        int n = 0;
+        for (int i = 0; i < end; i++) {
+            if (values[i] != null)
+                result[n++] = (V) values[i];
+        }
+        return result;
+    }
+
+    private class ValueIterator implements Iterator<V> {
+        private int next;
+        private final int expectedModCount = modCount;
+
+        ValueIterator() {
+            skipRemoved();
+        }
+
+        private void skipRemoved() {
+            while (next < end && values[next] == null)
+                next++;
+        }
+
+        public boolean hasNext() {
+            return next < end;
+        }
+
+        @SuppressWarnings("unchecked")
+        public V next() {
+            if (modCount != expectedModCount)
+                throw new ConcurrentModificationException();
+            if (next >= end)
+                throw new NoSuchElementException();
+            V value = (V) values[next++];
+            skipRemoved();
+            return value;
+        }
+
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
@@ -9,6 +9,10 @@ public abstract class InternalObject extends BaseObject {
     protected volatile MapLocation myLocation;
     protected final RobotLevel myHeight;
     protected final GameWorld myGameWorld;
+    // the order in which objects were added to the world, for SpatialIndex
+    int addedOrder;
+    // set when the object is taken out of the world, so that the engine can tell without looking up its ID
+    boolean removed;
 
     protected InternalObject(GameWorld gw, MapLocation loc, RobotLevel height, Team t) {
         super(gw, t);
@@ -1,6 +1,6 @@
 package battlecode.world;
 
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.Map;
 
 import battlecode.common.Direction;
@@ -13,9 +13,9 @@ import battlecode.common.RobotType;
 import battlecode.common.Team;
 import battlecode.common.TerrainTile;
 import battlecode.common.Upgrade;
+import battlecode.engine.Engine;
 import battlecode.engine.GenericRobot;
 import battlecode.engine.signal.Signal;
-import battlecode.server.Config;
 import battlecode.world.signal.AttackSignal;
 import battlecode.world.signal.BroadcastSignal;
 import battlecode.world.signal.CaptureSignal;
@@ -36,11 +36,13 @@ public class InternalRobot extends InternalObject implements Robot, GenericRobot
     protected volatile long controlBits;
     // is this used ever?
     protected volatile boolean hasBeenAttacked = false;
-    private static boolean upkeepEnabled = Config.getGlobalConfig().getBoolean("bc.engine.upkeep");
+    private final boolean upkeepEnabled = Engine.current().getOptions().getBoolean("bc.engine.upkeep");
     /**
      * first index is robot type, second is direction, third is x or y
      */
     private static final Map<RobotType, int[][][]> offsets = GameMap.computeVisibleOffsets();
+
+    private static final Direction[] DIRECTIONS = Direction.values();
     /**
      * number of bytecodes used in the most recent round
      */
@@ -50,8 +52,13 @@ public class InternalRobot extends InternalObject implements Robot, GenericRobot
     protected GameMap.MapMemory mapMemory;
     public final RobotType type;
 
-    private volatile HashMap<Integer, Integer> broadcastMap = new HashMap<Integer, Integer>();
-    private boolean broadcasted = false;
+    // this turn's broadcasts, in the order they were made; the arrays are reused every turn
+    private int[] broadcastChannels = new int[8];
+    private int[] broadcastValues = new int[8];
+    private int broadcastCount = 0;
+    // the neutrals map tiles that this robot milks, or null if it doesn't milk;
+    // kept up to date as it moves
+    int[] captureTiles;
     
     protected volatile boolean regen;
     private boolean upkeepPaid;
@@ -81,6 +88,7 @@ public class InternalRobot extends InternalObject implements Robot, GenericRobot
         super(gw, loc, type.level, t);
 //        myDirection = Direction.values()[gw.getRandGen().nextInt(8)];
         this.type = type;
+        captureTiles = gw.getGameMap().getNeutralsMap().captureTiles(type, loc);
 
         myEnergonLevel = getMaxEnergon();
         myShieldLevel = 0.0;
@@ -229,10 +237,9 @@ public class InternalRobot extends InternalObject implements Robot, GenericRobot
         super.processEndOfTurn();
         
         // autosend aggregated broadcast
-        if (broadcasted) myGameWorld.visitSignal(new BroadcastSignal(this, broadcastMap));
+        if (broadcastCount > 0) myGameWorld.visitSignal(new BroadcastSignal(this, broadcastChannels, broadcastValues, broadcastCount));
         
-    	broadcastMap = new HashMap<Integer, Integer>();
-        broadcasted = false;
+        broadcastCount = 0;
 
         if (type != RobotType.HQ) {
             int bytecodesPenalty = getBytecodesUsed() - GameConstants.FREE_BYTECODES;
@@ -320,8 +327,9 @@ public class InternalRobot extends InternalObject implements Robot, GenericRobot
         boolean nearbyAlly = false;
         boolean nearbyEnemy = false;
         
+    	MapLocation loc = this.getLocation();
     	for(int i=0; i<8; i++) {
-    		Robot nearby = myGameWorld.getRobot(this.getLocation().add(Direction.values()[i]),
+    		Robot nearby = myGameWorld.getRobot(loc.x + DIRECTIONS[i].dx, loc.y + DIRECTIONS[i].dy,
     				RobotLevel.ON_GROUND);
     		if(nearby != null) {
     			if(nearby.getTeam() == getTeam()) nearbyAlly = true;
@@ -523,8 +531,13 @@ public class InternalRobot extends InternalObject implements Robot, GenericRobot
     }
 
     public void addBroadcast(int channel, int data) {
-    	broadcastMap.put(channel, data);
-        broadcasted = true;
+        if (broadcastCount == broadcastChannels.length) {
+            broadcastChannels = Arrays.copyOf(broadcastChannels, broadcastCount * 2);
+            broadcastValues = Arrays.copyOf(broadcastValues, broadcastCount * 2);
+        }
+        broadcastChannels[broadcastCount] = channel;
+        broadcastValues[broadcastCount] = data;
+        broadcastCount++;
     }
     
     public void activateMinelayer(Signal s, int delay) {
@@ -559,12 +572,14 @@ public class InternalRobot extends InternalObject implements Robot, GenericRobot
     }
 
     public boolean hasBroadcasted() {
-        return broadcasted;
+        return broadcastCount > 0;
     }
     
     public void setLocation(MapLocation loc) {
     	MapLocation oldloc = getLocation();
         super.setLocation(loc);
+        if (captureTiles != null)
+            captureTiles = myGameWorld.getGameMap().getNeutralsMap().captureTiles(type, loc);
         saveMapMemory(oldloc, loc, true);
     }
 
@@ -0,0 +1,112 @@
+package battlecode.world;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Runs the per-tile passes of NeutralsMap.next on several threads, by
+ * splitting the map into bands of consecutive x coordinates.  Each pass only
+ * writes to the tiles in its own band, so the results don't depend on how the
+ * work is divided.
+ * <p/>
+ * There is one pool of threads per JVM for each value of
+ * bc.engine.neutrals-threads, shared by every match that asks for that many.
+ */
+class NeutralsKernel {
+
+    /**
+     * Work on the tiles with x coordinates in [fromX, toX).
+     */
+    interface Band {
+        void run(int fromX, int toX);
+    }
+
+    // keyed by the number of threads, after resolving 0
+    private static final Map<Integer, NeutralsKernel> instances = new HashMap<Integer, NeutralsKernel>();
+
+    private final ExecutorService executor;
+    private final int threads;
+
+    /**
+     * Returns the kernel with the given number of threads, creating it if
+     * necessary.
+     *
+     * @param threads the number of threads to use, or 0 for one per processor
+     */
+    static synchronized NeutralsKernel getInstance(int threads) {
+        if (threads <= 0)
+            threads = Runtime.getRuntime().availableProcessors();
+        NeutralsKernel kernel = instances.get(threads);
+        if (kernel == null) {
+            kernel = new NeutralsKernel(threads);
+            instances.put(threads, kernel);
+        }
+        return kernel;
+    }
+
+    private NeutralsKernel(int threads) {
+        this.threads = threads;
+        executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "neutrals");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    /**
+     * Runs band on every x coordinate in [0, width), and returns once all of
+     * the bands are done.  The calling thread does the last band itself.
+     */
+    void forEachBand(int width, final Band band) {
+        int bands = Math.min(threads, width);
+        if (bands <= 1) {
+            band.run(0, width);
+            return;
+        }
+        List<Future<?>> futures = new ArrayList<Future<?>>(bands - 1);
+        for (int b = 0; b < bands - 1; b++) {
+            final int fromX = width * b / bands, toX = width * (b + 1) / bands;
+            futures.add(executor.submit(new Runnable() {
+                public void run() {
+                    band.run(fromX, toX);
+                }
+            }));
+        }
+        RuntimeException failure = null;
+        try {
+            band.run(width * (bands - 1) / bands, width);
+        } catch (RuntimeException e) {
+            failure = e;
+        }
+        // wait for every band even if one failed, so none is still running
+        // when the next pass starts
+        boolean interrupted = false;
+        for (Future<?> f : futures) {
+            while (true) {
+                try {
+                    f.get();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    if (failure == null)
+                        failure = e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : new RuntimeException(e.getCause());
+                    break;
+                }
+            }
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+        if (failure != null)
+            throw failure;
+    }
+}
@@ -1,14 +1,13 @@
 package battlecode.world;
 
+import java.io.Serializable;
 import java.util.ArrayList;
-import java.util.Set;
-import java.util.TreeSet;
+import java.util.Arrays;
 
-import battlecode.common.GameActionException;
-import battlecode.common.GameActionExceptionType;
 import battlecode.common.GameConstants;
 import battlecode.common.MapLocation;
 import battlecode.common.MovementType;
+import battlecode.common.RadiusOffsets;
 import battlecode.common.RobotType;
 import battlecode.common.Team;
 import battlecode.common.TerrainTile;
@@ -19,8 +18,14 @@ import battlecode.world.signal.MovementSignal;
 
 /**
  * Represents a map (scalar field) of a neutral AI.
+ * <p/>
+ * Every per-tile field is a flat array indexed by x * mapHeight + y (see
+ * index()), i.e. the rows of the old [x][y] arrays laid end to end.
  */
-public class NeutralsMap {
+public class NeutralsMap implements Serializable {
+
+    private static final long serialVersionUID = 3870418012436127625L;
+
     /**
      * The width and height of the map.
      */
@@ -28,15 +33,46 @@ public class NeutralsMap {
     /**
      * The integer scalar field showing the distribution of the neutral AI.
      */
-    private boolean[][] passable;
-    private double[][] currentAmount;
-    private double[][] growthFactor;
-    private double[][] dX, dY;
-    private boolean[][] hasNoise;
-    private int[][] pastrID;
-    private int[][] nPastrs;
+    private boolean[] passable;
+    private double[] currentAmount;
+    // the next round's amounts while next() runs; all zeros otherwise
+    private transient double[] nextAmount;
+    private double[] growthFactor;
+    private double[] dX, dY;
+    private boolean[] hasNoise;
+    private int[] pastrID;
     private ArrayList<MapLocation> attacks;
-    private Set[][] ids;
+    /**
+     * The pastrs and soldiers whose capture range covers each tile this
+     * round.  Each one that updateIds sees gets the next bit, and each tile
+     * has idWords longs of bits.
+     */
+    private transient long[] ids;
+    private transient int idWords;
+    private transient int capturers;
+    /**
+     * The tiles that have noise this round, and the tiles that some pastr or
+     * soldier covers this round, in the order they were first touched.  Only
+     * these need clearing at the end of the round.
+     */
+    private transient int[] noisyTiles;
+    private transient int noisyCount;
+    private transient boolean[] claimed;
+    private transient int[] claimedTiles;
+    private transient int claimedCount;
+    // scratch space for next(): the tiles whose amounts can change this round
+    private transient boolean[] moving;
+    private transient int[] movingTiles;
+    /**
+     * Runs next() on several threads if it isn't null; see
+     * moveAndGrowInParallel().  The plans and shares are its scratch space.
+     */
+    private transient NeutralsKernel kernel;
+    private transient int[] plans;
+    private transient double[] shares;
+    // this round's milk for teams A and B, and owners of the tiles; see collectMilk()
+    private transient double[] milk;
+    private transient int[][] teams;
 
     public NeutralsMap() {
 	    attacks = new ArrayList<MapLocation>();
@@ -44,13 +80,15 @@ public class NeutralsMap {
         this.mapWidth = 0;
         this.mapHeight = 0;
 
-        this.growthFactor = new double[0][0];
-        this.currentAmount = new double[0][0];
-        dX = new double[0][0];
-        dY = new double[0][0];
-        hasNoise = new boolean[0][0];
-        passable = new boolean[0][0];
-        ids = new Set[0][0];
+        this.growthFactor = new double[0];
+        this.currentAmount = new double[0];
+        this.nextAmount = new double[0];
+        dX = new double[0];
+        dY = new double[0];
+        hasNoise = new boolean[0];
+        passable = new boolean[0];
+        pastrID = new int[0];
+        allocateScratch();
     }
 
     public NeutralsMap(double[][] growthFactor, TerrainTile[][] mapTiles) {
@@ -59,66 +97,96 @@ public class NeutralsMap {
         this.mapWidth = growthFactor.length;
         int tempMapHeight = 0;
         for (int i = 0; i < this.mapWidth; i++) {
-            tempMapHeight = Math.max(this.mapHeight, growthFactor[i].length);
+            tempMapHeight = Math.max(tempMapHeight, growthFactor[i].length);
         }
         this.mapHeight = tempMapHeight;
 
-        this.growthFactor = new double[this.mapWidth][this.mapHeight];
-        this.currentAmount = new double[this.mapWidth][this.mapHeight];
+        int tiles = this.mapWidth * this.mapHeight;
+        this.growthFactor = new double[tiles];
+        this.currentAmount = new double[tiles];
         for (int i = 0; i < this.mapWidth; i++) {
-            System.arraycopy(growthFactor[i], 0, this.growthFactor[i], 0,
+            System.arraycopy(growthFactor[i], 0, this.growthFactor, i * this.mapHeight,
                 this.mapHeight);
         }
 
-        dX = new double[this.mapWidth][this.mapHeight];
-        dY = new double[this.mapWidth][this.mapHeight];
-        hasNoise = new boolean[this.mapWidth][this.mapHeight];
-        pastrID = new int[this.mapWidth][this.mapHeight];
-        nPastrs = new int[this.mapWidth][this.mapHeight];
-        passable = new boolean[this.mapWidth][this.mapHeight];
-        for (int i = 0; i < this.mapWidth; i++) {
-            for (int j = 0; j < this.mapHeight; j++) {
-                passable[i][j] = mapTiles[i][j] != TerrainTile.VOID;
-                pastrID[i][j] = Integer.MAX_VALUE;
-            }
-        }
-        ids = new Set[this.mapWidth][this.mapHeight];
+        dX = new double[tiles];
+        dY = new double[tiles];
+        hasNoise = new boolean[tiles];
+        pastrID = new int[tiles];
+        Arrays.fill(pastrID, Integer.MAX_VALUE);
+        passable = new boolean[tiles];
         for (int i = 0; i < this.mapWidth; i++) {
             for (int j = 0; j < this.mapHeight; j++) {
-                ids[i][j] = new TreeSet<Integer>();
+                passable[index(i, j)] = mapTiles[i][j] != TerrainTile.VOID;
             }
         }
+        allocateScratch();
     }
 
     public NeutralsMap(NeutralsMap nm) {
         this.mapWidth = nm.mapWidth;
         this.mapHeight = nm.mapHeight;
-        this.currentAmount = new double[this.mapWidth][this.mapHeight];
-        for (int i = 0; i < this.mapWidth; i++) {
-            System.arraycopy(nm.currentAmount[i], 0, this.currentAmount[i], 0,
-                this.mapHeight);
-        }
-        this.growthFactor = new double[mapWidth][mapHeight];
-        for (int i = 0; i < this.mapWidth; i++) {
-            System.arraycopy(nm.growthFactor[i], 0, this.growthFactor[i], 0,
-                this.mapHeight);
-        }
-        this.dX = new double[this.mapWidth][this.mapHeight];
-        this.dY = new double[this.mapWidth][this.mapHeight];
-        this.hasNoise = new boolean[this.mapWidth][this.mapHeight];
-        this.pastrID = new int[this.mapWidth][this.mapHeight];
-        this.nPastrs = new int[this.mapWidth][this.mapHeight];
-        this.passable = new boolean[this.mapWidth][this.mapHeight];
-        for (int i = 0; i < this.mapWidth; i++) {
-            System.arraycopy(nm.passable[i], 0, this.passable[i], 0, this.mapHeight);
+        this.currentAmount = nm.currentAmount.clone();
+        this.growthFactor = nm.growthFactor.clone();
+        this.dX = nm.dX.clone();
+        this.dY = nm.dY.clone();
+        this.hasNoise = nm.hasNoise.clone();
+        this.pastrID = nm.pastrID.clone();
+        this.passable = nm.passable.clone();
+        this.attacks = new ArrayList<MapLocation>(nm.attacks);
+        allocateScratch();
+        this.ids = nm.ids.clone();
+        this.idWords = nm.idWords;
+        this.capturers = nm.capturers;
+        this.noisyTiles = nm.noisyTiles.clone();
+        this.noisyCount = nm.noisyCount;
+        this.claimed = nm.claimed.clone();
+        this.claimedTiles = nm.claimedTiles.clone();
+        this.claimedCount = nm.claimedCount;
+    }
+
+    private void allocateScratch() {
+        int tiles = this.mapWidth * this.mapHeight;
+        nextAmount = new double[tiles];
+        idWords = 1;
+        ids = new long[tiles];
+        capturers = 0;
+        noisyTiles = new int[tiles];
+        noisyCount = 0;
+        claimed = new boolean[tiles];
+        claimedTiles = new int[tiles];
+        claimedCount = 0;
+        moving = new boolean[tiles];
+        movingTiles = new int[tiles];
+        milk = new double[2];
+    }
+
+    /**
+     * Recreates the per-round scratch space, which isn't serialized, when the
+     * map is read back from a match file.
+     */
+    private Object readResolve() {
+        allocateScratch();
+        for (int tile = 0; tile < hasNoise.length; tile++) {
+            if (hasNoise[tile])
+                noisyTiles[noisyCount++] = tile;
+            if (pastrID[tile] != Integer.MAX_VALUE) {
+                claimed[tile] = true;
+                claimedTiles[claimedCount++] = tile;
+            }
         }
+        return this;
+    }
+
+    private int index(int x, int y) {
+        return x * this.mapHeight + y;
     }
 
     public void createVoid(MapLocation center, int distance) {
         for (int x = center.x - distance; x <= center.x + distance; x++) {
             for (int y = center.y - distance; y <= center.y + distance; y++) {
                 if (isValid(x, y)) {
-                    passable[x][y] = false;
+                    passable[index(x, y)] = false;
                 }
             }
         }
@@ -126,111 +194,208 @@ public class NeutralsMap {
 
     public double get(MapLocation m) {
         if (isValid(m.x, m.y)) {
-            return currentAmount[m.x][m.y];
+            return currentAmount[index(m.x, m.y)];
         } else {
             return 0;
         }
     }
 
-    public double[][] copyOfData() {
-        double[][] cowsCopy = new double[this.mapWidth][this.mapHeight];
+    private double[][] copyOf(double[] data) {
+        double[][] copy = new double[this.mapWidth][this.mapHeight];
         for (int i = 0; i < this.mapWidth; i++) {
-            System.arraycopy(this.growthFactor[i], 0, cowsCopy[i], 0,
+            System.arraycopy(data, i * this.mapHeight, copy[i], 0,
                 this.mapHeight);
         }
-        return cowsCopy;
+        return copy;
+    }
+
+    public double[][] copyOfData() {
+        return copyOf(this.growthFactor);
     }
 
     public double[][] copyOfCurrentAmounts() {
-        double[][] cowsCopy = new double[this.mapWidth][this.mapHeight];
-        for (int i = 0; i < this.mapWidth; i++) {
-            System.arraycopy(this.currentAmount[i], 0, cowsCopy[i], 0,
-                this.mapHeight);
-        }
-        return cowsCopy;
+        return copyOf(this.currentAmount);
     }
 
     public int[][] copyOfCurrentAmountsAsInt() {
         int[][] cowsCopy = new int[this.mapWidth][this.mapHeight];
         for (int i = 0; i < this.mapWidth; i++) {
             for (int j = 0; j < this.mapHeight; j++) {
-                cowsCopy[i][j] = (int) Math.round(this.currentAmount[i][j]);
+                cowsCopy[i][j] = (int) Math.round(this.currentAmount[index(i, j)]);
             }
         }
         return cowsCopy;
     }
 
+    /**
+     * Fills out with the rounded amounts, like copyOfCurrentAmountsAsInt, but
+     * indexed x * height + y.
+     */
+    public void copyOfCurrentAmountsAsInt(int[] out) {
+        for (int tile = 0; tile < out.length; tile++) {
+            out[tile] = (int) Math.round(this.currentAmount[tile]);
+        }
+    }
+
+    public int getWidth() {
+        return mapWidth;
+    }
+
+    public int getHeight() {
+        return mapHeight;
+    }
+
     public boolean isValid(int x, int y) {
-        return x >= 0 && x < this.mapWidth && y >= 0 && y < this.mapHeight && passable[x][y];
+        return x >= 0 && x < this.mapWidth && y >= 0 && y < this.mapHeight && passable[index(x, y)];
     }
 
-    @SuppressWarnings("unchecked")
     public boolean isValid(int x, int y, int fromX, int fromY) {
         // valid if ids of from is a subset of ids of to
         if (!isValid(x, y)) return false;
-        return ids[x][y].containsAll(ids[fromX][fromY]);
+        int to = index(x, y) * idWords;
+        int from = index(fromX, fromY) * idWords;
+        for (int w = 0; w < idWords; w++) {
+            if ((ids[from + w] & ~ids[to + w]) != 0) return false;
+        }
+        return true;
     }
 
     public void print() {
         System.out.println("Neutrals Map!");
         for (int j = 0; j < this.mapHeight; j++) {
             for (int i = 0; i < this.mapWidth; i++) {
-                System.out.print(Double.toString(this.currentAmount[i][j]).substring(0, 3) + " (" + this.growthFactor[i][j] + ")\t");
+                System.out.print(Double.toString(this.currentAmount[index(i, j)]).substring(0, 3) + " (" + this.growthFactor[index(i, j)] + ")\t");
             }
             System.out.println();
         }
         System.out.println("END Neutrals Map");
     }
 
-    public double getScoreChange(Team t, InternalObject[] objs) {
-        double delta = 0.0;
+    /**
+     * Returns the milk that the given team's pastrs and soldiers collected
+     * this round.  Only valid between next() and resetAfterTurn().
+     */
+    public double getScoreChange(Team t) {
+        return milk[t.ordinal()];
+    }
+
+    /**
+     * Returns which team milked each tile this round, for NeutralsTeamSignal:
+     * 0 for neither, 1 for team A and 2 for team B.  A new array is made by
+     * every call to next().
+     */
+    public int[][] getTeams() {
+        return teams;
+    }
+
+    /**
+     * Returns the tiles that a robot of the given type at the given location
+     * would milk, in increasing index order, or null if it doesn't milk.
+     * Tiles off the map are left out, but void tiles aren't.
+     */
+    int[] captureTiles(RobotType type, MapLocation loc) {
+        int captureRange;
+        if (type == RobotType.PASTR) {
+            captureRange = GameConstants.PASTR_RANGE;
+        } else if (type == RobotType.SOLDIER) {
+            captureRange = 0;
+        } else {
+            return null;
+        }
+        int[][] offsets = RadiusOffsets.within(captureRange);
+        int[] tiles = new int[offsets[0].length];
+        int n = 0;
+        for (int i = 0; i < tiles.length; i++) {
+            int x = loc.x + offsets[0][i], y = loc.y + offsets[1][i];
+            if (x >= 0 && x < this.mapWidth && y >= 0 && y < this.mapHeight) {
+                tiles[n++] = index(x, y);
+            }
+        }
+        return n == tiles.length ? tiles : Arrays.copyOf(tiles, n);
+    }
+
+    /**
+     * Works out each team's milk and who owns each tile, in one pass over
+     * the pastrs and soldiers.  A soldier milks its own tile unless a pastr
+     * covers it, and a pastr milks the tiles it covers unless another pastr
+     * with a lower ID also covers them.  If several robots milk a tile, the
+     * last one decides who owns it.
+     */
+    private void collectMilk(InternalObject[] objs) {
+        milk[0] = milk[1] = 0.0;
+        int[][] owners = new int[this.mapWidth][this.mapHeight];
         for (InternalObject obj : objs) {
             InternalRobot ir = (InternalRobot) obj;
-            if (ir.getTeam() != t) {
-                continue;
-            }
-            if (ir.type != RobotType.PASTR && ir.type != RobotType.SOLDIER) continue;
-            if (ir.type == RobotType.SOLDIER && pastrID[ir.getLocation().x][ir.getLocation().y] < Integer.MAX_VALUE) continue; // soldiers do not milk when in pastr range
+            int[] tiles = ir.captureTiles;
+            if (tiles == null) continue;
+            boolean pastr = ir.type == RobotType.PASTR;
+            if (!pastr && (tiles.length == 0 || pastrID[tiles[0]] < Integer.MAX_VALUE)) continue; // soldiers do not milk when in pastr range
 
-            int captureRange = 0;
-            double capturePercentage = GameConstants.ROBOT_MILK_PERCENTAGE;
-            if (ir.type == RobotType.PASTR) {
-                captureRange = GameConstants.PASTR_RANGE;
-                capturePercentage = 1.0;
-            }
-            MapLocation[] affected = MapLocation.getAllMapLocationsWithinRadiusSq(ir.getLocation(), captureRange);
+            double capturePercentage = pastr ? 1.0 : GameConstants.ROBOT_MILK_PERCENTAGE;
+            int owner = 1 << ir.getTeam().ordinal();
             double milkGained = 0.0;
-            for (MapLocation ml : affected) {
-                if (isValid(ml.x, ml.y)) {
-                    if (ir.type == RobotType.PASTR && ir.getID() == pastrID[ml.x][ml.y] || ir.type == RobotType.SOLDIER) {
-                        milkGained += this.currentAmount[ml.x][ml.y] * capturePercentage;
-                    }
+            for (int tile : tiles) {
+                if (pastr && ir.getID() != pastrID[tile]) continue;
+                owners[tile / this.mapHeight][tile % this.mapHeight] = owner;
+                if (passable[tile]) {
+                    milkGained += this.currentAmount[tile] * capturePercentage;
                 }
             }
-            if (milkGained > GameConstants.MAX_EFFICIENT_COWS && ir.type == RobotType.PASTR) {
+            if (milkGained > GameConstants.MAX_EFFICIENT_COWS && pastr) {
                 milkGained = GameConstants.MAX_EFFICIENT_COWS + Math.pow(milkGained - GameConstants.MAX_EFFICIENT_COWS, GameConstants.MILKING_INEFFICIENCY);
             }
-            delta += milkGained;
+            if (ir.getTeam().ordinal() < milk.length) {
+                milk[ir.getTeam().ordinal()] += milkGained;
+            }
         }
-        return delta;
+        teams = owners;
     }
 
-    @SuppressWarnings("unchecked")
+    /**
+     * Records the tiles that a pastr or soldier covers this round.  Should be
+     * called at most once per robot per round.
+     */
     public void updateIds(InternalObject obj) {
         InternalRobot ir = (InternalRobot) obj;
         if (ir.type != RobotType.PASTR && ir.type != RobotType.SOLDIER) return;
 
-        int captureRange = 0;
-        if (ir.type == RobotType.PASTR) captureRange = GameConstants.PASTR_RANGE;
-        MapLocation[] affected = MapLocation.getAllMapLocationsWithinRadiusSq(ir.getLocation(), captureRange);
-        for (MapLocation ml : affected) {
-            if (isValid(ml.x, ml.y)) {
-                this.ids[ml.x][ml.y].add(ir.getID());
-                if (ir.type == RobotType.PASTR) {
-                    pastrID[ml.x][ml.y] = Math.min(pastrID[ml.x][ml.y], ir.getID());
-                }
+        int bit = capturers++;
+        if (bit >> 6 >= idWords)
+            growIds();
+        long mask = 1L << (bit & 63);
+        int word = bit >> 6;
+
+        for (int tile : ir.captureTiles) {
+            if (!claimed[tile]) {
+                claimed[tile] = true;
+                claimedTiles[claimedCount++] = tile;
+            }
+            if (passable[tile]) {
+                this.ids[tile * idWords + word] |= mask;
             }
+            // void tiles get an owner too, for NeutralsTeamSignal
+            if (ir.type == RobotType.PASTR) {
+                pastrID[tile] = Math.min(pastrID[tile], ir.getID());
+            }
+        }
+    }
+
+    private void growIds() {
+        int words = idWords * 2;
+        long[] grown = new long[this.mapWidth * this.mapHeight * words];
+        for (int tile = 0; tile < this.mapWidth * this.mapHeight; tile++) {
+            System.arraycopy(ids, tile * idWords, grown, tile * words, idWords);
         }
+        ids = grown;
+        idWords = words;
+    }
+
+    /**
+     * Makes next() run on the given kernel's threads, or on the calling
+     * thread if it is null.
+     */
+    void setKernel(NeutralsKernel kernel) {
+        this.kernel = kernel;
     }
 
     final double PI4 = Math.PI / 4;
@@ -250,93 +415,205 @@ public class NeutralsMap {
             MapLocation target = attacks.get(i);
             if (target.x >= 0 && target.x < this.mapWidth &&
                 target.y >= 0 && target.y < this.mapHeight) {
-                this.currentAmount[target.x][target.y] = 0;
+                this.currentAmount[index(target.x, target.y)] = 0;
             }
         }
 
-        double[][] temp = new double[this.mapWidth][this.mapHeight];
-        for (int i = 0; i < this.mapWidth; i++) {
-            for (int j = 0; j < this.mapHeight; j++) {
-                if (this.hasNoise[i][j]) {
-                    if (this.dX[i][j] != 0 || this.dY[i][j] != 0) {
-                        double theta = Math.atan2(this.dY[i][j], this.dX[i][j]); // angle the cows want to move in
-                        double closestThetaDiff = Math.PI / 2;
-                        int movesCount = 0;
-                        for (int k = -4; k < 4; k++) {
-                            double theta0 = k * PI4;
-                            int x = i + dirs[k + 4][0];
-                            int y = j + dirs[k + 4][1];
-                            boolean valid = isValid(x, y, i, j);
-
-                            if (valid) {
-                                double diff = Math.min(Math.abs(theta - theta0), 2 * Math.PI - Math.abs(theta - theta0));
-                                if (diff < closestThetaDiff - EPSILON) {
-                                    closestThetaDiff = diff;
-                                    movesCount = 1;
-                                } else if (diff <= closestThetaDiff + EPSILON) {
-                                    movesCount++;
-                                }
-                            }
-                        }
-                        if (movesCount > 0) {
-                            for (int k = -4; k < 4; k++) {
-                                double theta0 = k * PI4;
-                                int x = i + dirs[k + 4][0];
-                                int y = j + dirs[k + 4][1];
-                                boolean valid = isValid(x, y, i, j);
-
-                                if (valid) {
-                                    double diff = Math.min(Math.abs(theta - theta0), 2 * Math.PI - Math.abs(theta - theta0));
-                                    if (diff <= closestThetaDiff + EPSILON) {
-                                        temp[x][y] += this.currentAmount[i][j] / movesCount;
-                                    }
-                                }
-                            }
-                        } else {
-                            temp[i][j] += this.currentAmount[i][j];
-                        }
-                    } else {
-                        // scatter
-                        int nScatter = 0;
-                        for (int di = -1; di <= 1; di++) {
-                            for (int dj = -1; dj <= 1; dj++) {
-                                if (!(di == 0 && dj == 0) && isValid(i + di, j + dj, i, j)) {
-                                    nScatter++;
-                                }
-                            }
-                        }
-                        if (nScatter == 0) {
-                            temp[i][j] += this.currentAmount[i][j];
-                        } else {
-                            for (int di = -1; di <= 1; di++) {
-                                for (int dj = -1; dj <= 1; dj++) {
-                                    if (!(di == 0 && dj == 0) && isValid(i + di, j + dj, i, j)) {
-                                        temp[i + di][j + dj] += this.currentAmount[i][j] / nScatter;
-                                    }
-                                }
-                            }
+        if (kernel != null) {
+            moveAndGrowInParallel();
+        } else {
+            moveAndGrow();
+        }
+
+        collectMilk(objs);
+
+        //this.print();
+    }
+
+    private void moveAndGrow() {
+        // Cows only move off tiles with noise, so only those tiles and the
+        // tiles next to them can change.  They are processed in the same
+        // order as a scan of the whole map, so that every tile's amount is
+        // summed in the same order.
+        int movingCount = 0;
+        for (int k = 0; k < noisyCount; k++) {
+            int tile = noisyTiles[k];
+            int i = tile / this.mapHeight, j = tile % this.mapHeight;
+            for (int di = -1; di <= 1; di++) {
+                for (int dj = -1; dj <= 1; dj++) {
+                    if ((di == 0 && dj == 0) || isValid(i + di, j + dj)) {
+                        int to = index(i + di, j + dj);
+                        if (!moving[to]) {
+                            moving[to] = true;
+                            movingTiles[movingCount++] = to;
                         }
                     }
-                } else {
-                    temp[i][j] += this.currentAmount[i][j];
                 }
             }
         }
-        for (int i = 0; i < this.mapWidth; i++) {
-            for (int j = 0; j < this.mapHeight; j++) {
-                this.currentAmount[i][j] = temp[i][j];
-            }
+        Arrays.sort(movingTiles, 0, movingCount);
+
+        double[] temp = this.nextAmount;
+        for (int k = 0; k < movingCount; k++) {
+            int tile = movingTiles[k];
+            move(tile / this.mapHeight, tile % this.mapHeight, temp);
+        }
+        // tiles that nothing moved to or from keep their amounts
+        for (int k = 0; k < movingCount; k++) {
+            int tile = movingTiles[k];
+            this.currentAmount[tile] = temp[tile];
+            temp[tile] = 0;
+            moving[tile] = false;
         }
 
         for (int i = 0; i < this.mapWidth; i++) {
             for (int j = 0; j < this.mapHeight; j++) {
                 if (this.isValid(i, j)) {
-                    this.currentAmount[i][j] = GameConstants.NEUTRALS_TURN_DECAY * this.currentAmount[i][j] + this.growthFactor[i][j];
+                    int tile = index(i, j);
+                    this.currentAmount[tile] = GameConstants.NEUTRALS_TURN_DECAY * this.currentAmount[tile] + this.growthFactor[tile];
                 }
             }
         }
+    }
 
-        //this.print();
+    // where the cows on a tile go: see plan()
+    private static final int STAY = target(0, 0) | 1;
+
+    private static int target(int dx, int dy) {
+        return 1 << (4 + (dx + 1) * 3 + (dy + 1));
+    }
+
+    /**
+     * Works out where the cows on (i, j) go this round.  The low four bits of
+     * the result are the number of ways the cows are split, and bit
+     * 4 + (dx + 1) * 3 + (dy + 1) is set if a share goes to (i + dx, j + dy).
+     */
+    private int plan(int i, int j) {
+        int from = index(i, j);
+        if (!this.hasNoise[from]) {
+            return STAY;
+        }
+        int targets = 0;
+        if (this.dX[from] != 0 || this.dY[from] != 0) {
+            double theta = Math.atan2(this.dY[from], this.dX[from]); // angle the cows want to move in
+            double closestThetaDiff = Math.PI / 2;
+            int movesCount = 0;
+            for (int k = -4; k < 4; k++) {
+                double theta0 = k * PI4;
+                int x = i + dirs[k + 4][0];
+                int y = j + dirs[k + 4][1];
+                boolean valid = isValid(x, y, i, j);
+
+                if (valid) {
+                    double diff = Math.min(Math.abs(theta - theta0), 2 * Math.PI - Math.abs(theta - theta0));
+                    if (diff < closestThetaDiff - EPSILON) {
+                        closestThetaDiff = diff;
+                        movesCount = 1;
+                    } else if (diff <= closestThetaDiff + EPSILON) {
+                        movesCount++;
+                    }
+                }
+            }
+            if (movesCount == 0) {
+                return STAY;
+            }
+            for (int k = -4; k < 4; k++) {
+                double theta0 = k * PI4;
+                int x = i + dirs[k + 4][0];
+                int y = j + dirs[k + 4][1];
+                boolean valid = isValid(x, y, i, j);
+
+                if (valid) {
+                    double diff = Math.min(Math.abs(theta - theta0), 2 * Math.PI - Math.abs(theta - theta0));
+                    if (diff <= closestThetaDiff + EPSILON) {
+                        targets |= target(dirs[k + 4][0], dirs[k + 4][1]);
+                    }
+                }
+            }
+            // not necessarily the number of targets, but it's what the
+            // amount has always been divided by
+            return targets | movesCount;
+        } else {
+            // scatter
+            int nScatter = 0;
+            for (int di = -1; di <= 1; di++) {
+                for (int dj = -1; dj <= 1; dj++) {
+                    if (!(di == 0 && dj == 0) && isValid(i + di, j + dj, i, j)) {
+                        targets |= target(di, dj);
+                        nScatter++;
+                    }
+                }
+            }
+            return nScatter == 0 ? STAY : targets | nScatter;
+        }
+    }
+
+    /**
+     * Adds the cows that move from (i, j) this round to their new tiles in temp.
+     */
+    private void move(int i, int j, double[] temp) {
+        int plan = plan(i, j);
+        double share = this.currentAmount[index(i, j)] / (plan & 0xf);
+        for (int dx = -1; dx <= 1; dx++) {
+            for (int dy = -1; dy <= 1; dy++) {
+                if ((plan & target(dx, dy)) != 0) {
+                    temp[index(i + dx, j + dy)] += share;
+                }
+            }
+        }
+    }
+
+    /**
+     * Does the same as the movement and growth steps of next(), but on the
+     * whole map at once, in bands on the kernel's threads.  First every tile
+     * works out where its cows go, then every tile adds up the shares that
+     * come to it.  The shares are added in the order next() would add them,
+     * so the amounts come out exactly the same.
+     */
+    private void moveAndGrowInParallel() {
+        final int tiles = this.mapWidth * this.mapHeight;
+        if (plans == null || plans.length != tiles) {
+            plans = new int[tiles];
+            shares = new double[tiles];
+        }
+        kernel.forEachBand(this.mapWidth, new NeutralsKernel.Band() {
+            public void run(int fromX, int toX) {
+                for (int i = fromX; i < toX; i++) {
+                    for (int j = 0; j < mapHeight; j++) {
+                        int from = index(i, j);
+                        int plan = plan(i, j);
+                        plans[from] = plan;
+                        shares[from] = currentAmount[from] / (plan & 0xf);
+                    }
+                }
+            }
+        });
+        kernel.forEachBand(this.mapWidth, new NeutralsKernel.Band() {
+            public void run(int fromX, int toX) {
+                for (int i = fromX; i < toX; i++) {
+                    for (int j = 0; j < mapHeight; j++) {
+                        double amount = 0;
+                        // sources in increasing index order, as next() visits them
+                        for (int dx = -1; dx <= 1; dx++) {
+                            for (int dy = -1; dy <= 1; dy++) {
+                                int x = i + dx, y = j + dy;
+                                if (x >= 0 && x < mapWidth && y >= 0 && y < mapHeight) {
+                                    int from = index(x, y);
+                                    if ((plans[from] & target(-dx, -dy)) != 0) {
+                                        amount += shares[from];
+                                    }
+                                }
+                            }
+                        }
+                        int tile = index(i, j);
+                        if (isValid(i, j)) {
+                            amount = GameConstants.NEUTRALS_TURN_DECAY * amount + growthFactor[tile];
+                        }
+                        currentAmount[tile] = amount;
+                    }
+                }
+            }
+        });
     }
 
     // for when an attack doesn't generate noise
@@ -345,14 +622,18 @@ public class NeutralsMap {
     }
 
     public void updateWithNoiseSource(MapLocation source, int radiusSquared) {
-        MapLocation[] affected = MapLocation.getAllMapLocationsWithinRadiusSq(source, radiusSquared);
-        for (int i = 0; i < affected.length; i++) {
-            if (isValid(affected[i].x, affected[i].y)) {
-                hasNoise[affected[i].x][affected[i].y] = true;
-                int curdX = affected[i].x - source.x;
-                int curdY = affected[i].y - source.y;
-                dX[affected[i].x][affected[i].y] += curdX;
-                dY[affected[i].x][affected[i].y] += curdY;
+        int[][] offsets = RadiusOffsets.within(radiusSquared);
+        for (int i = 0; i < offsets[0].length; i++) {
+            int curdX = offsets[0][i];
+            int curdY = offsets[1][i];
+            if (isValid(source.x + curdX, source.y + curdY)) {
+                int tile = index(source.x + curdX, source.y + curdY);
+                if (!hasNoise[tile]) {
+                    hasNoise[tile] = true;
+                    noisyTiles[noisyCount++] = tile;
+                }
+                dX[tile] += curdX;
+                dY[tile] += curdY;
             }
         }
     }
@@ -370,15 +651,21 @@ public class NeutralsMap {
     }
 
     public void resetAfterTurn() {
-        for (int i = 0; i < this.mapWidth; i++) {
-            for (int j = 0; j < this.mapHeight; j++) {
-                this.dX[i][j] = 0;
-                this.dY[i][j] = 0;
-                this.ids[i][j].clear();
-                this.hasNoise[i][j] = false;
-                this.pastrID[i][j] = Integer.MAX_VALUE;
-            }
+        for (int k = 0; k < noisyCount; k++) {
+            int tile = noisyTiles[k];
+            this.dX[tile] = 0;
+            this.dY[tile] = 0;
+            this.hasNoise[tile] = false;
+        }
+        noisyCount = 0;
+        for (int k = 0; k < claimedCount; k++) {
+            int tile = claimedTiles[k];
+            Arrays.fill(this.ids, tile * idWords, (tile + 1) * idWords, 0L);
+            this.pastrID[tile] = Integer.MAX_VALUE;
+            claimed[tile] = false;
         }
+        claimedCount = 0;
+        capturers = 0;
         attacks.clear();
     }
 }
@@ -0,0 +1,114 @@
+package battlecode.world;
+
+import battlecode.engine.signal.Signal;
+import battlecode.world.signal.NeutralsDensityDeltaSignal;
+import battlecode.world.signal.NeutralsDensitySignal;
+import battlecode.world.signal.NeutralsTeamDeltaSignal;
+import battlecode.world.signal.NeutralsTeamSignal;
+
+import java.util.Arrays;
+
+/**
+ * Makes the signals that describe the neutrals map each round.  With a
+ * keyframe interval of k > 0, full signals are only sent on rounds that are
+ * a multiple of k (and on the first round); other rounds get delta signals
+ * with just the tiles whose value changed since the round before.  With an
+ * interval of 0 every round gets full signals.
+ */
+class NeutralsSignalEncoder {
+
+    private final int keyframeInterval;
+
+    // whether this round gets full signals
+    private boolean keyframe;
+
+    // the values in the last signals, and scratch space for the next ones,
+    // indexed x * height + y
+    private int[] lastAmounts, amounts;
+    private int[] lastTeams, teams;
+
+    // scratch space for the deltas
+    private int[] skips, values;
+
+    NeutralsSignalEncoder(int keyframeInterval) {
+        this.keyframeInterval = keyframeInterval;
+    }
+
+    /**
+     * Returns the density signal for the given round.  Must be called before
+     * teamSignal for the same round.
+     */
+    Signal densitySignal(NeutralsMap neutrals, int round) {
+        if (keyframeInterval <= 0)
+            return new NeutralsDensitySignal(neutrals);
+        int tiles = neutrals.getWidth() * neutrals.getHeight();
+        keyframe = lastAmounts == null || round % keyframeInterval == 0;
+        if (keyframe) {
+            if (lastAmounts == null) {
+                lastAmounts = new int[tiles];
+                amounts = new int[tiles];
+                lastTeams = new int[tiles];
+                teams = new int[tiles];
+            }
+            neutrals.copyOfCurrentAmountsAsInt(lastAmounts);
+            return new NeutralsDensitySignal(neutrals);
+        }
+        neutrals.copyOfCurrentAmountsAsInt(amounts);
+        int n = diff(lastAmounts, amounts);
+        int[] temp = lastAmounts;
+        lastAmounts = amounts;
+        amounts = temp;
+        return new NeutralsDensityDeltaSignal(Arrays.copyOf(skips, n), Arrays.copyOf(values, n));
+    }
+
+    /**
+     * Returns the ownership signal for the given round.
+     *
+     * @param owners the owners from NeutralsMap.getTeams()
+     */
+    Signal teamSignal(int[][] owners, int round) {
+        if (keyframeInterval <= 0)
+            return new NeutralsTeamSignal(owners);
+        if (keyframe) {
+            flatten(owners, lastTeams);
+            return new NeutralsTeamSignal(owners);
+        }
+        flatten(owners, teams);
+        int n = diff(lastTeams, teams);
+        int[] temp = lastTeams;
+        lastTeams = teams;
+        teams = temp;
+        return new NeutralsTeamDeltaSignal(Arrays.copyOf(skips, n), Arrays.copyOf(values, n));
+    }
+
+    private static int[] flatten(int[][] grid, int[] out) {
+        int n = 0;
+        for (int[] column : grid) {
+            System.arraycopy(column, 0, out, n, column.length);
+            n += column.length;
+        }
+        return out;
+    }
+
+    /**
+     * Puts the tiles where current differs from last into skips and values,
+     * and returns how many there are.
+     */
+    private int diff(int[] last, int[] current) {
+        if (skips == null || skips.length < current.length) {
+            skips = new int[current.length];
+            values = new int[current.length];
+        }
+        int n = 0;
+        int previous = -1;
+        for (int tile = 0; tile < current.length; tile++) {
+            if (current[tile] != last[tile]) {
+                skips[n] = tile - previous - 1;
+                values[n] = current[tile];
+                n++;
+                previous = tile;
+            }
+        }
+        return n;
+    }
+}
@@ -0,0 +1,227 @@
+package battlecode.world;
+
+import battlecode.common.MapLocation;
+import battlecode.common.RobotLevel;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Buckets the objects in a GameWorld by location, so that radius queries only
+ * have to look at the objects near the center instead of every object in the
+ * game.
+ * <p/>
+ * The map is divided into square cells, and each RobotLevel has its own grid of
+ * them.  Objects that are somehow off the map are kept in the nearest edge cell,
+ * and the edge cells are treated as extending forever, so no object is ever
+ * missed.  Queries return objects in the order they were added to the world,
+ * which is the order GameWorld.allObjects() iterates in; each cell is kept in
+ * that order, so a query only has to merge the cells it looks at.
+ */
+class SpatialIndex {
+
+    private static final int CELL_SHIFT = 2;
+
+    private final int originX, originY;
+    private final int cellsX, cellsY;
+    // every level's grid, one after another, each cell in addedOrder
+    private final List<List<InternalObject>> cells;
+
+    // scratch space for withinRadiusSq: the cells being merged, how far
+    // through each one the merge is, and a heap of the ones with objects left
+    private final List<List<InternalObject>> runs = new ArrayList<List<InternalObject>>();
+    private int[] positions = new int[16];
+    private int[] heap = new int[16];
+
+    SpatialIndex(MapLocation origin, int width, int height) {
+        originX = origin.x;
+        originY = origin.y;
+        cellsX = Math.max(1, (width + (1 << CELL_SHIFT) - 1) >> CELL_SHIFT);
+        cellsY = Math.max(1, (height + (1 << CELL_SHIFT) - 1) >> CELL_SHIFT);
+        int count = RobotLevel.values().length * cellsX * cellsY;
+        cells = new ArrayList<List<InternalObject>>(count);
+        for (int i = 0; i < count; i++)
+            cells.add(new ArrayList<InternalObject>(4));
+    }
+
+    private int cellX(long x) {
+        return (int) Math.max(0, Math.min(cellsX - 1, (x - originX) >> CELL_SHIFT));
+    }
+
+    private int cellY(long y) {
+        return (int) Math.max(0, Math.min(cellsY - 1, (y - originY) >> CELL_SHIFT));
+    }
+
+    private List<InternalObject> cell(RobotLevel level, MapLocation loc) {
+        return cells.get((level.ordinal() * cellsY + cellY(loc.y)) * cellsX + cellX(loc.x));
+    }
+
+    void add(InternalObject o, MapLocation loc) {
+        List<InternalObject> objects = cell(o.getRobotLevel(), loc);
+        // new objects go at the end; ones that moved here may not
+        int i = objects.size();
+        while (i > 0 && objects.get(i - 1).addedOrder > o.addedOrder)
+            i--;
+        objects.add(i, o);
+    }
+
+    /**
+     * @return false if the object wasn't in the index
+     */
+    boolean remove(InternalObject o, MapLocation loc) {
+        List<InternalObject> objects = cell(o.getRobotLevel(), loc);
+        for (int i = objects.size() - 1; i >= 0; i--) {
+            if (objects.get(i) == o) {
+                objects.remove(i);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    void move(InternalObject o, MapLocation oldLoc, MapLocation newLoc) {
+        if (oldLoc != null && !remove(o, oldLoc))
+            return;
+        if (newLoc != null)
+            add(o, newLoc);
+    }
+
+    /**
+     * Returns true if a query with the given center and radius would have to
+     * look at every cell, in which case it's cheaper to scan every object.
+     */
+    boolean coversAll(MapLocation center, int radiusSquared) {
+        long r = radius(radiusSquared);
+        return cellX(center.x - r) == 0 && cellX(center.x + r) == cellsX - 1
+                && cellY(center.y - r) == 0 && cellY(center.y + r) == cellsY - 1;
+    }
+
+    private static long radius(int radiusSquared) {
+        return (long) Math.sqrt(radiusSquared);
+    }
+
+    /**
+     * Returns the objects, on any level, whose locations are within
+     * radiusSquared of center, in the order they were added to the world.
+     */
+    List<InternalObject> withinRadiusSq(MapLocation center, int radiusSquared) {
+        if (radiusSquared < 0)
+            return new ArrayList<InternalObject>(0);
+        long r = radius(radiusSquared);
+        int minX = cellX(center.x - r), maxX = cellX(center.x + r);
+        int minY = cellY(center.y - r), maxY = cellY(center.y + r);
+        int size = 0;
+        for (int level = 0; level < RobotLevel.values().length; level++) {
+            for (int cy = minY; cy <= maxY; cy++) {
+                long dy = distanceToCell(center.y - originY, cy, cellsY);
+                for (int cx = minX; cx <= maxX; cx++) {
+                    long dx = distanceToCell(center.x - originX, cx, cellsX);
+                    if (dx * dx + dy * dy > radiusSquared)
+                        continue;
+                    List<InternalObject> objects = cells.get((level * cellsY + cy) * cellsX + cx);
+                    if (!objects.isEmpty()) {
+                        runs.add(objects);
+                        size += objects.size();
+                    }
+                }
+            }
+        }
+        List<InternalObject> result = new ArrayList<InternalObject>(size);
+        try {
+            merge(center, radiusSquared, result);
+        } finally {
+            runs.clear();
+        }
+        return result;
+    }
+
+    /**
+     * Adds the objects in runs that are within radiusSquared of center to
+     * result, in addedOrder.
+     */
+    private void merge(MapLocation center, int radiusSquared, List<InternalObject> result) {
+        int count = runs.size();
+        if (positions.length < count) {
+            positions = new int[Math.max(count, 2 * positions.length)];
+            heap = new int[positions.length];
+        }
+        int heapSize = 0;
+        for (int i = 0; i < count; i++) {
+            positions[i] = -1;
+            if (advance(i, center, radiusSquared))
+                heapSize = siftUp(heapSize, i);
+        }
+        while (heapSize > 0) {
+            int run = heap[0];
+            result.add(head(run));
+            if (advance(run, center, radiusSquared))
+                siftDown(heapSize, 0, run);
+            else if (--heapSize > 0)
+                siftDown(heapSize, 0, heap[heapSize]);
+        }
+    }
+
+    private InternalObject head(int run) {
+        return runs.get(run).get(positions[run]);
+    }
+
+    /**
+     * Moves run on to its next object within radiusSquared of center.
+     *
+     * @return false if it hasn't got one
+     */
+    private boolean advance(int run, MapLocation center, int radiusSquared) {
+        List<InternalObject> objects = runs.get(run);
+        for (int i = positions[run] + 1; i < objects.size(); i++) {
+            if (objects.get(i).getLocation().distanceSquaredTo(center) <= radiusSquared) {
+                positions[run] = i;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private int siftUp(int heapSize, int run) {
+        int order = head(run).addedOrder;
+        int i = heapSize;
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (head(heap[parent]).addedOrder <= order)
+                break;
+            heap[i] = heap[parent];
+            i = parent;
+        }
+        heap[i] = run;
+        return heapSize + 1;
+    }
+
+    private void siftDown(int heapSize, int i, int run) {
+        int order = head(run).addedOrder;
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= heapSize)
+                break;
+            if (child + 1 < heapSize && head(heap[child + 1]).addedOrder < head(heap[child]).addedOrder)
+                child++;
+            if (head(heap[child]).addedOrder >= order)
+                break;
+            heap[i] = heap[child];
+            i = child;
+        }
+        heap[i] = run;
+    }
+
+    /**
+     * Returns the distance along one axis from the given coordinate, relative to
+     * the map origin, to the nearest square in the given cell.
+     */
+    private static long distanceToCell(long c, int cell, int cells) {
+        long lo = (long) cell << CELL_SHIFT;
+        long hi = lo + (1 << CELL_SHIFT) - 1;
+        if (c < lo && cell > 0)
+            return lo - c;
+        if (c > hi && cell < cells - 1)
+            return c - hi;
+        return 0;
+    }
+}
@@ -849,7 +849,7 @@ class XMLMapHandler extends DefaultHandler {
     }
 
     public static void main(String[] s) {
-        String mapPath = Config.getGlobalConfig().get("bc.game.map-path");
+        String mapPath = new Config(new String[0]).get("bc.game.map-path");
         for (String str : s) {
             isTournamentLegal(str, mapPath);
         }
@@ -1,7 +1,5 @@
 package battlecode.world.signal;
 
-import java.util.HashMap;
-
 import battlecode.common.Team;
 import battlecode.engine.signal.Signal;
 import battlecode.world.InternalRobot;
@@ -23,17 +21,27 @@ public class BroadcastSignal extends Signal {
      * The team of the robot that broadcasted the message.
      */
     public final Team robotTeam;
-    public transient HashMap<Integer, Integer> broadcastMap;
+    /**
+     * The channels and values of the robot's broadcasts, in the order they
+     * were made.  Only the first broadcastCount entries are used.  The arrays
+     * belong to the robot and are reused, so they are cleared once the world
+     * has applied them.
+     */
+    public transient int[] broadcastChannels;
+    public transient int[] broadcastValues;
+    public transient int broadcastCount;
 
     /**
      * Creates a signal for a robot broadcast.
      *
      * @param robot the robot that broadcast the message
      */
-    public BroadcastSignal(InternalRobot robot, HashMap<Integer, Integer> broadcastMap) {
+    public BroadcastSignal(InternalRobot robot, int[] broadcastChannels, int[] broadcastValues, int broadcastCount) {
         this.robotID = robot.getID();
         this.robotTeam = robot.getTeam();
-        this.broadcastMap = broadcastMap;
+        this.broadcastChannels = broadcastChannels;
+        this.broadcastValues = broadcastValues;
+        this.broadcastCount = broadcastCount;
     }
 
     /**
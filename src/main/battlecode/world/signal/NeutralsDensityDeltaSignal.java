@@ -0,0 +1,56 @@
+package battlecode.world.signal;
+
+import battlecode.engine.signal.Signal;
+
+/**
+ * The cow densities that changed since the previous round, when the server
+ * only sends a full NeutralsDensitySignal every few rounds (see
+ * bc.engine.neutrals-keyframe-interval).
+ * <p/>
+ * The changed tiles are listed in order of x * height + y, where height is
+ * the height of the last full signal's array.  Each entry of skips is the
+ * number of unchanged tiles since the previous changed tile (or since the
+ * start of the map), and the matching entry of amounts is the new density.
+ */
+public class NeutralsDensityDeltaSignal extends Signal {
+
+    private static final long serialVersionUID = -4611686403528461307L;
+
+    private final int[] skips;
+    private final int[] amounts;
+
+    public NeutralsDensityDeltaSignal(int[] skips, int[] amounts) {
+        this.skips = skips;
+        this.amounts = amounts;
+    }
+
+    public int[] getSkips() {
+        return skips;
+    }
+
+    public int[] getAmounts() {
+        return amounts;
+    }
+
+    /**
+     * Updates the densities from the previous round with this signal's
+     * changes.
+     *
+     * @param amounts a copy of the last NeutralsDensitySignal's amounts,
+     *                with every later delta applied
+     */
+    public void applyTo(int[][] amounts) {
+        applyTo(amounts, skips, this.amounts);
+    }
+
+    static void applyTo(int[][] grid, int[] skips, int[] values) {
+        if (skips.length == 0)
+            return;
+        int height = grid[0].length;
+        int tile = -1;
+        for (int i = 0; i < skips.length; i++) {
+            tile += skips[i] + 1;
+            grid[tile / height][tile % height] = values[i];
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package battlecode.world.signal;
+
+import battlecode.engine.signal.Signal;
+
+/**
+ * The tile owners that changed since the previous round, when the server
+ * only sends a full NeutralsTeamSignal every few rounds.  The changed tiles
+ * are listed as in NeutralsDensityDeltaSignal.
+ */
+public class NeutralsTeamDeltaSignal extends Signal {
+
+    private static final long serialVersionUID = 5176534217880297410L;
+
+    private final int[] skips;
+    private final int[] teams;
+
+    public NeutralsTeamDeltaSignal(int[] skips, int[] teams) {
+        this.skips = skips;
+        this.teams = teams;
+    }
+
+    public int[] getSkips() {
+        return skips;
+    }
+
+    public int[] getTeams() {
+        return teams;
+    }
+
+    /**
+     * Updates the owners from the previous round with this signal's changes.
+     *
+     * @param teams a copy of the last NeutralsTeamSignal's teams, with every
+     *              later delta applied
+     */
+    public void applyTo(int[][] teams) {
+        NeutralsDensityDeltaSignal.applyTo(teams, skips, this.teams);
+    }
+}
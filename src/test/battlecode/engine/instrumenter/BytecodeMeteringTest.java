@@ -0,0 +1,150 @@
+package battlecode.engine.instrumenter;
+
+import battlecode.server.Config;
+import org.junit.Test;
+
+import java.lang.reflect.Method;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that merging the blocks that control only falls into (see RoboMethodTree) charges robots exactly what
+ * counting every block on its own does, round by round, including when exceptions are thrown and caught.
+ * <p/>
+ * Both ways of counting go through BytecodeMeter, so each player's totals are also checked against what the
+ * instrumenter charged before BytecodeMeter and merging were added.
+ * <p/>
+ * Like the server, this needs AllowedPackages.txt, DisallowedClasses.txt and MethodCosts.txt in the working
+ * directory.
+ */
+public class BytecodeMeteringTest {
+
+    private static final String[] TEAMS = {"meteredplayer", "ordinaryplayer"};
+
+    private static final int ROBOTS = 3;
+    private static final int ROUNDS = 60;
+
+    // each robot's total over ROUNDS rounds, by team, recorded with the instrumenter that charged every block through
+    // RobotMonitor.incrementBytecodes
+    private static final long[][] BASELINE_TOTALS = {
+            {99275, 99764, 100253},
+            {160820, 160820, 160760},
+    };
+
+    /**
+     * Adds up what a robot is charged, instead of ending its turn.
+     */
+    private static class CountingMonitor extends RobotMonitor {
+        long bytecodes;
+        int calls;
+
+        CountingMonitor(Config options) {
+            super(options);
+        }
+
+        public void useBytecodes(int numBytecodes) {
+            bytecodes += numBytecodes;
+            calls++;
+        }
+    }
+
+    /**
+     * Loads one robot's copy of the team, and of BytecodeMeter, like IndividualClassLoader does without shared
+     * classes.
+     */
+    private static class RobotLoader extends InstrumentingClassLoader {
+        private final String team;
+        private final boolean merge;
+        private final CountingMonitor monitor;
+
+        RobotLoader(String team, boolean merge, Config options, CountingMonitor monitor) {
+            super(false, false, options);
+            this.team = team;
+            this.merge = merge;
+            this.monitor = monitor;
+        }
+
+        protected boolean mergesBlocks() {
+            return merge;
+        }
+
+        protected String getVariant() {
+            return merge ? "" : "unmerged";
+        }
+
+        protected synchronized Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+            String internalName = name.replace('.', '/');
+            Class<?> c = findLoadedClass(name);
+            if (c == null && internalName.startsWith(team + "/")) {
+                c = saveAndDefineClass(internalName, instrument(internalName, true, team));
+            } else if (c == null && internalName.equals(IndividualClassLoader.BYTECODE_METER)) {
+                byte[] classBytes = StaticsIndex.readOriginal(internalName);
+                c = defineClass(null, classBytes, 0, classBytes.length);
+                try {
+                    c.getField("monitor").set(null, monitor);
+                } catch (Exception e) {
+                    throw new ClassNotFoundException(name, e);
+                }
+            } else if (c == null) {
+                return super.loadClass(name, resolve);
+            }
+            if (resolve)
+                resolveClass(c);
+            return c;
+        }
+
+        public Class<?> saveAndDefineClass(String name, byte[] classBytes) {
+            return defineClass(null, classBytes, 0, classBytes.length);
+        }
+    }
+
+    @Test
+    public void mergedBlocksChargeTheSameBytecodes() throws Exception {
+        for (int team = 0; team < TEAMS.length; team++) {
+            CountingMonitor[] perBlock = new CountingMonitor[ROBOTS];
+            CountingMonitor[] merged = new CountingMonitor[ROBOTS];
+            long[][] expected = play(TEAMS[team], false, perBlock);
+            long[][] actual = play(TEAMS[team], true, merged);
+            for (int round = 0; round < ROUNDS; round++) {
+                for (int robot = 0; robot < ROBOTS; robot++) {
+                    assertEquals(TEAMS[team] + ": bytecodes of robot " + robot + " in round " + round,
+                            expected[round][robot], actual[round][robot]);
+                }
+            }
+            int perBlockCalls = 0, mergedCalls = 0;
+            for (int robot = 0; robot < ROBOTS; robot++) {
+                assertEquals(TEAMS[team] + ": total bytecodes of robot " + robot,
+                        BASELINE_TOTALS[team][robot], perBlock[robot].bytecodes);
+                perBlockCalls += perBlock[robot].calls;
+                mergedCalls += merged[robot].calls;
+            }
+            assertTrue(TEAMS[team] + ": no blocks were merged: " + mergedCalls + " counts, " + perBlockCalls
+                    + " without merging", mergedCalls < perBlockCalls);
+        }
+    }
+
+    /**
+     * Plays ROUNDS rounds of the team, with each robot loaded on its own, and returns what each robot was charged in
+     * each round.
+     */
+    private static long[][] play(String team, boolean merge, CountingMonitor[] monitors) throws Exception {
+        Config options = new Config(new String[]{"-c", "-"});
+        options.setBoolean("bc.engine.class-cache", false);
+        Method[] turns = new Method[ROBOTS];
+        for (int robot = 0; robot < ROBOTS; robot++) {
+            monitors[robot] = new CountingMonitor(options);
+            ClassLoader loader = new RobotLoader(team, merge, options, monitors[robot]);
+            turns[robot] = loader.loadClass(team + ".RobotPlayer").getMethod("turn", int.class, int.class);
+        }
+        long[][] charged = new long[ROUNDS][ROBOTS];
+        for (int round = 0; round < ROUNDS; round++) {
+            for (int robot = 0; robot < ROBOTS; robot++) {
+                long before = monitors[robot].bytecodes;
+                turns[robot].invoke(null, robot, round);
+                charged[round][robot] = monitors[robot].bytecodes - before;
+            }
+        }
+        return charged;
+    }
+}
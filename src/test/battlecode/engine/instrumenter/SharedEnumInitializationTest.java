@@ -0,0 +1,115 @@
+package battlecode.engine.instrumenter;
+
+import battlecode.common.Team;
+import battlecode.engine.GenericRobot;
+import battlecode.engine.GenericWorld;
+import battlecode.engine.scheduler.Scheduler;
+import battlecode.server.Config;
+import org.junit.Test;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that a robot that runs out of bytecodes while the JVM initializes an enum shared by its team doesn't stop
+ * the next robot that uses the enum from getting its turn (see SharedStatics), and that the two robots pay the same
+ * for initializing it.
+ * <p/>
+ * Like the server, this needs AllowedPackages.txt, DisallowedClasses.txt and MethodCosts.txt in the working
+ * directory.
+ */
+public class SharedEnumInitializationTest {
+
+    private static final String TEAM = "enumplayer";
+
+    private static final int ROBOTS = 2;
+    private static final int BYTECODE_LIMIT = 1000;
+    private static final int MAX_ROUNDS = 1000;
+
+    private final int[] turns = new int[ROBOTS];
+    private final int[] results = new int[ROBOTS];
+    private final int[] finishedRounds = new int[ROBOTS];
+    private volatile Throwable failure;
+    private int round;
+
+    @Test(timeout = 60000)
+    public void robotCanRunOutOfBytecodesInSharedEnumInitializer() throws Exception {
+        Config options = new Config(new String[]{"-c", "-"});
+        options.setBoolean("bc.engine.class-cache", false);
+        RobotMonitor monitor = new RobotMonitor(options);
+        final Scheduler scheduler = new Scheduler(monitor, options);
+        monitor.setScheduler(scheduler);
+        monitor.setGameWorld(world());
+        final IndividualClassLoader loader = IndividualClassLoader.getSharedLoader(TEAM, false,
+                new IndividualClassLoader.Cache(monitor, options), monitor);
+        assertNotNull("the team's classes aren't shared", loader);
+
+        Arrays.fill(finishedRounds, -1);
+        scheduler.start();
+        for (int robot = 0; robot < ROBOTS; robot++) {
+            final int id = robot;
+            scheduler.add(new Runnable() {
+                public void run() {
+                    try {
+                        scheduler.endTurn();
+                        Class<?> player = loader.loadClass(TEAM + ".RobotPlayer");
+                        IndividualClassLoader.initializeStatics(player);
+                        results[id] = (Integer) player.getMethod("play").invoke(null);
+                        finishedRounds[id] = round;
+                    } catch (Throwable t) {
+                        failure = t;
+                    } finally {
+                        scheduler.die();
+                    }
+                }
+            }, robot(id));
+        }
+        for (round = 0; round < MAX_ROUNDS && finishedRounds[ROBOTS - 1] < 0; round++) {
+            scheduler.startNextThread();
+            scheduler.endTurn();
+        }
+        scheduler.shutDown();
+
+        if (failure != null)
+            throw new AssertionError(failure);
+        assertTrue("robot 1 didn't finish", finishedRounds[1] >= 0);
+        assertTrue("the initializer took less than a turn", finishedRounds[0] > 0);
+        assertEquals(results[0], results[1]);
+        assertEquals("rounds each robot took to initialize the enum", finishedRounds[0], finishedRounds[1]);
+        assertEquals("turns each robot took to initialize the enum", turns[0], turns[1]);
+    }
+
+    private GenericWorld world() {
+        return (GenericWorld) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{GenericWorld.class},
+                new InvocationHandler() {
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        if (method.getName().equals("endOfExecution"))
+                            turns[((GenericRobot) args[0]).getID()]++;
+                        return null;
+                    }
+                });
+    }
+
+    private GenericRobot robot(final int id) {
+        return (GenericRobot) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{GenericRobot.class},
+                new InvocationHandler() {
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        if (method.getName().equals("getID"))
+                            return id;
+                        if (method.getName().equals("getTeam"))
+                            return Team.A;
+                        if (method.getName().equals("getBytecodeLimit"))
+                            return BYTECODE_LIMIT;
+                        if (method.getName().equals("getBytecodesUsed"))
+                            return 0;
+                        return null;
+                    }
+                });
+    }
+}
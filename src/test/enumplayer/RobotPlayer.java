@@ -0,0 +1,15 @@
+package enumplayer;
+
+/**
+ * A player for SharedEnumInitializationTest, whose first use of an enum runs its initializer for many turns' worth of
+ * bytecodes.
+ */
+public class RobotPlayer {
+
+    public static int play() {
+        int total = 0;
+        for (Slow s : Slow.values())
+            total += s.weight;
+        return total;
+    }
+}
@@ -0,0 +1,14 @@
+package enumplayer;
+
+enum Slow {
+    A, B, C;
+
+    final int weight;
+
+    Slow() {
+        int w = 0;
+        for (int i = 0; i < 2000; i++)
+            w += i % 7;
+        weight = w;
+    }
+}
@@ -0,0 +1,152 @@
+package meteredplayer;
+
+/**
+ * A player for BytecodeMeteringTest.  Its turns end blocks in every way the instrumenter knows about: jumps, switches,
+ * calls and returns, and exceptions thrown by each kind of instruction that can throw, both inside and outside try
+ * blocks.  Most statements are on lines of their own, so that the line number labels between them can be merged.
+ */
+public class RobotPlayer {
+
+    private static final int[] memory = new int[16];
+
+    private static int[] nothing;
+
+    private static int turns;
+
+    public static int turn(int id, int round) {
+        turns++;
+        int x = id * 31 + round;
+        int y = x ^ (x >>> 3);
+        y += 7;
+        x = mix(x, y);
+        y = y * 5 - x;
+
+        switch (round % 4) {
+            case 0:
+                x++;
+                y--;
+                break;
+            case 1:
+                x ^= y;
+            case 2:
+                y ^= x;
+                break;
+            default:
+                x = -x;
+        }
+
+        // division by zero
+        try {
+            y += 1;
+            y *= 3;
+            x += 10 / (round % 3);
+            y ^= x;
+        } catch (ArithmeticException e) {
+            y -= 1;
+        }
+
+        // array index out of bounds, on a load and on a store
+        try {
+            x += 2;
+            x += memory[round % 20];
+            y += 4;
+            memory[(round + id) % 18] = y;
+            x -= y;
+        } catch (ArrayIndexOutOfBoundsException e) {
+            x += 3;
+        }
+
+        // null pointer, on an array length
+        try {
+            if (round % 5 == 0)
+                nothing = null;
+            else
+                nothing = memory;
+            y++;
+            x += nothing.length;
+            y--;
+        } catch (NullPointerException e) {
+            nothing = memory;
+        }
+
+        // long remainder
+        try {
+            long l = x;
+            l *= y;
+            l %= round % 2;
+            x = (int) l;
+        } catch (ArithmeticException e) {
+            y += 5;
+        }
+
+        // negative array size
+        try {
+            int size = round % 7 - 3;
+            size *= 2;
+            int[] made = new int[size];
+            x += made.length;
+        } catch (NegativeArraySizeException e) {
+            y -= 6;
+        }
+
+        // class cast
+        try {
+            Object o = round % 2 == 0 ? "even" : (Object) Integer.valueOf(round);
+            y += 8;
+            String s = (String) o;
+            x += s.length();
+        } catch (ClassCastException e) {
+            y ^= 9;
+        }
+
+        // thrown by a callee, with a finally
+        try {
+            x += 11;
+            x += check(x, round);
+            y += 12;
+        } catch (IllegalStateException e) {
+            x -= 13;
+        } finally {
+            y += 14;
+        }
+
+        // thrown here and not caught until the caller
+        try {
+            x += rethrow(round);
+        } catch (IllegalArgumentException e) {
+            y += 15;
+        }
+
+        for (int i = 0; i < round % 6; i++) {
+            x += i;
+            y -= i;
+        }
+        return x + y + turns;
+    }
+
+    private static int mix(int a, int b) {
+        int c = a * 17;
+        c ^= b;
+        return c + (c >>> 7);
+    }
+
+    private static int check(int x, int round) {
+        int y = x + round;
+        y *= 3;
+        if (round % 4 == 1)
+            throw new IllegalStateException();
+        y -= 2;
+        return y;
+    }
+
+    private static int rethrow(int round) {
+        int a = round * 2;
+        a += 1;
+        if (round % 3 == 2) {
+            a = -a;
+            throw new IllegalArgumentException();
+        }
+        a--;
+        return a;
+    }
+}
@@ -0,0 +1,128 @@
+package ordinaryplayer;
+
+/**
+ * A player for BytecodeMeteringTest that is written the way players usually are: loops, switches over ints and
+ * enums, a few objects, and calls into the Java library.  It only calls into java.lang, which isn't instrumented,
+ * so what it is charged doesn't depend on the JDK's own bytecode.
+ */
+public class RobotPlayer {
+
+    private enum Mode {
+        GATHER, ATTACK, RETREAT
+    }
+
+    private static class Unit {
+        final int id;
+        int x, y;
+        int health = 100;
+
+        Unit(int id) {
+            this.id = id;
+        }
+
+        int distanceSquaredTo(int tx, int ty) {
+            int dx = tx - x, dy = ty - y;
+            return dx * dx + dy * dy;
+        }
+
+        void stepTowards(int tx, int ty) {
+            x += Integer.signum(tx - x);
+            y += Integer.signum(ty - y);
+        }
+    }
+
+    private static final int SIZE = 8;
+
+    private static final int[][] cows = new int[SIZE][SIZE];
+
+    private static Unit[] units;
+
+    private static Mode mode = Mode.GATHER;
+
+    private static String orders = "";
+
+    public static int turn(int id, int round) {
+        if (units == null) {
+            units = new Unit[4];
+            for (int i = 0; i < units.length; i++)
+                units[i] = new Unit(i * 7 + id);
+        }
+
+        // grow the cows, and find the best tile
+        int bestX = 0, bestY = 0, best = -1;
+        for (int x = 0; x < SIZE; x++) {
+            for (int y = 0; y < SIZE; y++) {
+                cows[x][y] += (x * 3 + y * 5 + round) % 4;
+                if (cows[x][y] > best) {
+                    best = cows[x][y];
+                    bestX = x;
+                    bestY = y;
+                }
+            }
+        }
+
+        switch (mode) {
+            case GATHER:
+                for (Unit u : units)
+                    u.stepTowards(bestX, bestY);
+                if (round % 7 == 6)
+                    mode = Mode.ATTACK;
+                break;
+            case ATTACK:
+                for (Unit u : units) {
+                    u.health -= Math.abs(u.x - u.y) + 1;
+                    if (u.health < 30)
+                        mode = Mode.RETREAT;
+                }
+                break;
+            case RETREAT:
+                for (Unit u : units) {
+                    u.stepTowards(0, 0);
+                    u.health = Math.min(100, u.health + 20);
+                }
+                if (units[0].distanceSquaredTo(0, 0) <= 2)
+                    mode = Mode.GATHER;
+                break;
+        }
+
+        // pass orders along as text, like a broadcast
+        StringBuilder sb = new StringBuilder();
+        for (Unit u : units) {
+            switch (u.id % 3) {
+                case 0:
+                    sb.append('m');
+                    break;
+                case 1:
+                    sb.append('a');
+                    break;
+                default:
+                    sb.append('r');
+            }
+            sb.append(u.x).append(',').append(u.y).append(';');
+        }
+        orders = sb.toString();
+
+        int total = 0;
+        int start = 0;
+        while (start < orders.length()) {
+            int end = orders.indexOf(';', start);
+            String order = orders.substring(start + 1, end);
+            int comma = order.indexOf(',');
+            try {
+                total += Integer.parseInt(order.substring(0, comma)) * 31;
+                total += Integer.parseInt(order.substring(comma + 1));
+            } catch (NumberFormatException e) {
+                total -= 1;
+            }
+            start = end + 1;
+        }
+        if (round % 5 == 0) {
+            try {
+                total += Integer.parseInt(orders);
+            } catch (NumberFormatException e) {
+                total += orders.charAt(0);
+            }
+        }
+        return total + (int) Math.sqrt(best) + mode.ordinal();
+    }
+}